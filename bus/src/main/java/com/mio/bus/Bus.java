@@ -1,9 +1,11 @@
 package com.mio.bus;
 
-import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+import com.mio.util.DatagramParser;
+import com.mio.util.DatagramStructs;
 import com.mio.common.util.NetworkConfig;
 import MIO.DataReceiverPrx;
-import MIO.DatagramStruct;
+import MIO.DatagramEpochStruct;
 import com.zeroc.Ice.Communicator;
 import com.zeroc.Ice.Util;
 
@@ -11,7 +13,10 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 /**
  * Clase Bus que simula un bus enviando datagramas al servidor.
@@ -19,17 +24,45 @@ import java.time.format.DateTimeFormatter;
  */
 public class Bus {
     private static final String DEFAULT_CSV_PATH = "data/datagrams4streaming.csv";
-    private static final DateTimeFormatter DATE_FORMATTER = 
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_MAX_BATCH_AGE_MS = 100;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 0;
     
     private final String csvPath;
     private final String serverEndpoint;
     private final int delayMs;
+    private final int batchSize;
+    private final int maxBatchAgeMs;
+    private final int maxInFlight;
+    
+    // Contadores de envío (actualizados también desde callbacks ICE)
+    private int enviados;
+    private int errores;
+    private int siguienteReporte;
+    
+    // Ventana de envíos asíncronos y latencia de confirmación
+    private final Semaphore ventana;
+    private final LatencyHistogram latencias;
     
     public Bus(String csvPath, String serverEndpoint, int delayMs) {
+        this(csvPath, serverEndpoint, delayMs, 1, 0, 0);
+    }
+    
+    /**
+     * @param batchSize datagramas por invocación (1 = un RPC por datagrama)
+     * @param maxBatchAgeMs edad máxima de un lote parcial antes de enviarlo
+     * @param maxInFlight invocaciones asíncronas simultáneas (0 = envío síncrono)
+     */
+    public Bus(String csvPath, String serverEndpoint, int delayMs, int batchSize,
+               int maxBatchAgeMs, int maxInFlight) {
         this.csvPath = csvPath;
         this.serverEndpoint = serverEndpoint;
         this.delayMs = delayMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchAgeMs = maxBatchAgeMs;
+        this.maxInFlight = Math.max(0, maxInFlight);
+        this.ventana = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.latencias = new LatencyHistogram();
     }
     
     /**
@@ -57,11 +90,20 @@ public class Bus {
             }
             
             // Leer y enviar datagramas
-            int enviados = 0;
-            int errores = 0;
+            enviados = 0;
+            errores = 0;
+            siguienteReporte = 100;
             
             System.out.println("\nIniciando envío de datagramas desde: " + csvPath);
-            System.out.println("Delay entre envíos: " + delayMs + " ms\n");
+            System.out.println("Delay entre envíos: " + delayMs + " ms");
+            System.out.println("Tamaño de lote: " + batchSize + " | Edad máxima: " + maxBatchAgeMs + " ms");
+            System.out.println("Modo: " + (ventana != null
+                ? "asíncrono (ventana: " + maxInFlight + " invocaciones)" : "síncrono") + "\n");
+            long inicioEnvio = System.nanoTime();
+            
+            // Lote en construcción (solo se usa si batchSize > 1)
+            List<DatagramEpochStruct> pendientes = new ArrayList<>(batchSize);
+            long inicioLote = 0;
             
             try (BufferedReader reader = new BufferedReader(
                     new InputStreamReader(
@@ -70,6 +112,9 @@ public class Bus {
                 
                 String line;
                 boolean isFirstLine = true;
+                // Parser y registro reutilizados para todas las líneas
+                DatagramParser parser = new DatagramParser();
+                MutableDatagram datagram = new MutableDatagram();
                 
                 while ((line = reader.readLine()) != null) {
                     // Saltar header si existe
@@ -82,23 +127,26 @@ public class Bus {
                     }
                     
                     try {
-                        // Parsear línea a Datagram
-                        Datagram datagram = Datagram.fromCsvLine(line);
-                        
-                        // Convertir a estructura ICE
-                        DatagramStruct iceStruct = toIceStruct(datagram);
+                        // Parsear línea sobre el registro reutilizable
+                        parser.parse(line, datagram);
                         
-                        // Enviar al servidor
-                        boolean success = receiver.sendDatagram(iceStruct);
+                        // Convertir a estructura ICE (fechas como segundos epoch)
+                        DatagramEpochStruct iceStruct = DatagramStructs.toEpochStruct(datagram);
                         
-                        if (success) {
-                            enviados++;
-                            if (enviados % 100 == 0) {
-                                System.out.printf("Enviados: %d datagramas...\n", enviados);
-                            }
+                        if (batchSize == 1) {
+                            // Enviar al servidor (un RPC por datagrama)
+                            enviarDatagrama(receiver, iceStruct);
                         } else {
-                            errores++;
-                            System.err.println("El servidor rechazó el datagrama");
+                            // Acumular y enviar cuando el lote se llena o envejece
+                            if (pendientes.isEmpty()) {
+                                inicioLote = System.currentTimeMillis();
+                            }
+                            pendientes.add(iceStruct);
+                            
+                            if (pendientes.size() >= batchSize ||
+                                    System.currentTimeMillis() - inicioLote >= maxBatchAgeMs) {
+                                enviarLote(receiver, pendientes);
+                            }
                         }
                         
                         // Delay para simular streaming
@@ -106,16 +154,40 @@ public class Bus {
                             Thread.sleep(delayMs);
                         }
                         
+                    } catch (InterruptedException e) {
+                        throw e;
                     } catch (Exception e) {
-                        errores++;
+                        registrarErrores(1);
                         System.err.println("Error procesando línea: " + e.getMessage());
                     }
                 }
             }
             
-            System.out.println("\n=== Resumen ===");
-            System.out.println("Datagramas enviados: " + enviados);
-            System.out.println("Errores: " + errores);
+            // Enviar lo que quede del último lote
+            if (!pendientes.isEmpty()) {
+                enviarLote(receiver, pendientes);
+            }
+            
+            // En modo asíncrono, esperar a que se confirmen todas las invocaciones
+            if (ventana != null) {
+                ventana.acquire(maxInFlight);
+                ventana.release(maxInFlight);
+            }
+            double segundos = (System.nanoTime() - inicioEnvio) / 1_000_000_000.0;
+            
+            synchronized (this) {
+                System.out.println("\n=== Resumen ===");
+                System.out.println("Datagramas enviados: " + enviados);
+                System.out.println("Errores: " + errores);
+                System.out.printf("Tiempo: %.2f s | Tasa: %.0f dgm/s\n",
+                    segundos, segundos > 0 ? enviados / segundos : 0);
+            }
+            System.out.printf("Latencia de confirmación (%d invocaciones): p50=%.2f ms | p90=%.2f ms | p99=%.2f ms | max=%.2f ms\n",
+                latencias.getCount(),
+                latencias.percentile(50) / 1000.0,
+                latencias.percentile(90) / 1000.0,
+                latencias.percentile(99) / 1000.0,
+                latencias.getMax() / 1000.0);
             
         } catch (Exception e) {
             System.err.println("Error en Bus: " + e.getMessage());
@@ -132,30 +204,117 @@ public class Bus {
     }
     
     /**
-     * Convierte un Datagram Java a DatagramStruct de ICE.
+     * Envía los datagramas pendientes en una sola invocación y vacía la lista.
+     * El servidor responde una bandera por datagrama, así que los rechazos
+     * se cuentan individualmente.
      */
-    private DatagramStruct toIceStruct(Datagram d) {
-        DatagramStruct ice = new DatagramStruct();
-        ice.eventType = d.getEventType();
-        ice.registerDate = d.getRegisterDate() != null ? 
-            d.getRegisterDate().format(DATE_FORMATTER) : "";
-        ice.stopId = d.getStopId();
-        ice.odometer = d.getOdometer();
-        ice.latitude = d.getLatitude();
-        ice.longitude = d.getLongitude();
-        ice.taskId = d.getTaskId();
-        ice.lineId = d.getLineId();
-        ice.tripId = d.getTripId();
-        ice.unknown1 = d.getUnknown1();
-        ice.datagramDate = d.getDatagramDate() != null ? 
-            d.getDatagramDate().format(DATE_FORMATTER) : "";
-        ice.busId = d.getBusId();
-        return ice;
+    private void enviarLote(DataReceiverPrx receiver, List<DatagramEpochStruct> pendientes)
+            throws InterruptedException {
+        DatagramEpochStruct[] lote = pendientes.toArray(new DatagramEpochStruct[0]);
+        pendientes.clear();
+        
+        long inicio = System.nanoTime();
+        if (ventana != null) {
+            // Backpressure: bloquear mientras la ventana esté llena
+            ventana.acquire();
+            CompletableFuture<boolean[]> envio;
+            try {
+                envio = receiver.sendDatagramsEpochAsync(lote);
+            } catch (RuntimeException e) {
+                // Falló antes de enviarse (p. ej. comunicador destruido): no hay
+                // callback, se cuenta aquí como fallo del lote entero
+                ventana.release();
+                registrarFallo(lote.length, e);
+                return;
+            }
+            envio.whenComplete((aceptados, ex) -> {
+                latencias.record((System.nanoTime() - inicio) / 1000);
+                if (ex != null) {
+                    registrarFallo(lote.length, ex);
+                } else {
+                    registrarResultados(aceptados);
+                }
+                ventana.release();
+            });
+            return;
+        }
+        
+        try {
+            boolean[] aceptados = receiver.sendDatagramsEpoch(lote);
+            latencias.record((System.nanoTime() - inicio) / 1000);
+            registrarResultados(aceptados);
+        } catch (Exception e) {
+            registrarFallo(lote.length, e);
+        }
+    }
+    
+    /**
+     * Envía un único datagrama, de forma síncrona o dentro de la ventana asíncrona.
+     */
+    private void enviarDatagrama(DataReceiverPrx receiver, DatagramEpochStruct iceStruct)
+            throws InterruptedException {
+        long inicio = System.nanoTime();
+        if (ventana != null) {
+            ventana.acquire();
+            CompletableFuture<Boolean> envio;
+            try {
+                envio = receiver.sendDatagramEpochAsync(iceStruct);
+            } catch (RuntimeException e) {
+                ventana.release();
+                registrarFallo(1, e);
+                return;
+            }
+            envio.whenComplete((aceptado, ex) -> {
+                latencias.record((System.nanoTime() - inicio) / 1000);
+                if (ex != null) {
+                    registrarFallo(1, ex);
+                } else {
+                    registrarResultado(aceptado);
+                }
+                ventana.release();
+            });
+            return;
+        }
+        
+        boolean success = receiver.sendDatagramEpoch(iceStruct);
+        latencias.record((System.nanoTime() - inicio) / 1000);
+        registrarResultado(success);
+    }
+    
+    private synchronized void registrarResultados(boolean[] aceptados) {
+        for (boolean aceptado : aceptados) {
+            registrarResultado(aceptado);
+        }
+    }
+    
+    private synchronized void registrarFallo(int cantidad, Throwable e) {
+        errores += cantidad;
+        System.err.println("Error enviando " + cantidad + " datagrama(s): " + e.getMessage());
+    }
+    
+    private synchronized void registrarErrores(int cantidad) {
+        errores += cantidad;
+    }
+    
+    /**
+     * Actualiza contadores con la respuesta del servidor para un datagrama.
+     */
+    private synchronized void registrarResultado(boolean aceptado) {
+        if (aceptado) {
+            enviados++;
+            if (enviados >= siguienteReporte) {
+                System.out.printf("Enviados: %d datagramas...\n", enviados);
+                siguienteReporte += 100;
+            }
+        } else {
+            errores++;
+            System.err.println("El servidor rechazó el datagrama");
+        }
     }
     
     /**
      * Punto de entrada principal.
-     * Argumentos: [csvPath] [serverEndpoint] [delayMs]
+     * Argumentos: [csvPath] [serverEndpoint] [delayMs] [batchSize] [maxBatchAgeMs] [maxInFlight]
      * 
      * CONFIGURACIÓN DE RED: Edita config/network.properties para cambiar la IP del servidor
      */
@@ -171,9 +330,14 @@ public class Bus {
         int delayMs = args.length > 2 ? Integer.parseInt(args[2]) : 0; // Default 0ms (sin delay)        System.out.println("=== Bus MIO - Emisor de Datagramas ===");
         System.out.println("CSV: " + csvPath);
         System.out.println("Servidor: " + serverEndpoint);
-        System.out.println("Delay: " + delayMs + " ms\n");
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE;
+        int maxBatchAgeMs = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_BATCH_AGE_MS;
+        System.out.println("Delay: " + delayMs + " ms");
+        int maxInFlight = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_MAX_IN_FLIGHT;
+        System.out.println("Lote: " + batchSize + " datagramas / " + maxBatchAgeMs + " ms");
+        System.out.println("En vuelo: " + (maxInFlight > 0 ? maxInFlight : "síncrono") + "\n");
         
-        Bus bus = new Bus(csvPath, serverEndpoint, delayMs);
+        Bus bus = new Bus(csvPath, serverEndpoint, delayMs, batchSize, maxBatchAgeMs, maxInFlight);
         bus.start();
     }
 }
@@ -0,0 +1,77 @@
+package com.mio.bus;
+
+/**
+ * Histograma de latencias con buckets log-lineales (precisión ~0.4%).
+ * Permite registrar millones de muestras con memoria constante y
+ * calcular percentiles al final del envío.
+ *
+ * Los valores se registran en microsegundos.
+ */
+public class LatencyHistogram {
+    // Sub-buckets por potencia de 2 (2^8 = 256)
+    private static final int SUB_BITS = 8;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB];
+    private long total;
+    private long max;
+
+    /**
+     * Registra una muestra (thread-safe).
+     */
+    public synchronized void record(long micros) {
+        long v = Math.max(0, micros);
+        counts[index(v)]++;
+        total++;
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Valor aproximado del percentil indicado (0-100), en microsegundos.
+     */
+    public synchronized long percentile(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * p / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < counts.length; i++) {
+            acumulado += counts[i];
+            if (acumulado >= objetivo) {
+                return Math.min(valueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return total;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Valores menores a 2*SUB van directo a su bucket; los mayores se agrupan
+     * conservando los SUB_BITS bits más significativos.
+     */
+    private static int index(long v) {
+        if (v < 2 * SUB) {
+            return (int) v;
+        }
+        int exp = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS;
+        return exp * SUB + (int) (v >>> exp);
+    }
+
+    private static long valueAt(int index) {
+        if (index < 2 * SUB) {
+            return index;
+        }
+        int exp = index / SUB - 1;
+        long mantisa = index - (long) exp * SUB;
+        return mantisa << exp;
+    }
+}
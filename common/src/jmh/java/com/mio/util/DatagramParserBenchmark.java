@@ -0,0 +1,140 @@
+package com.mio.util;
+
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el parseo de líneas CSV de datagramas: la implementación anterior
+ * de Datagram.fromCsvLine (split + trim + LocalDateTime.parse) contra
+ * DatagramParser sobre String y sobre bytes.
+ *
+ * Ejecutar con: gradlew :common:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DatagramParserBenchmark {
+    private static final int LINES = 10_000;
+    private static final DateTimeFormatter DATE_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        
+    private String[] lines;
+    private byte[] bytes;
+    private int[] lineStarts;
+    private DatagramParser parser;
+    private MutableDatagram record;
+    
+    @Setup
+    public void setup() {
+        // Líneas sintéticas con el formato de datagrams4streaming
+        Random random = new Random(42);
+        lines = new String[LINES];
+        StringBuilder todo = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            int segundo = random.nextInt(86400);
+            String fecha = String.format(Locale.ROOT, "2019-05-%02d %02d:%02d:%02d",
+                1 + random.nextInt(28), segundo / 3600, segundo / 60 % 60, segundo % 60);
+            lines[i] = String.format(Locale.ROOT, "%d,%s,%d,%.1f,%.7f,%.7f,%d,%d,%d,%d,%s,%d",
+                random.nextInt(5), fecha, 500000 + random.nextInt(3000), random.nextInt(500000) / 10.0,
+                3.3 + random.nextDouble() * 0.2, -76.6 + random.nextDouble() * 0.1,
+                random.nextInt(10000), 100 + random.nextInt(150), random.nextInt(100000),
+                -1, fecha, 1000 + random.nextInt(1000));
+            todo.append(lines[i]).append('\n');
+        }
+        
+        bytes = todo.toString().getBytes(StandardCharsets.UTF_8);
+        lineStarts = new int[LINES + 1];
+        int n = 1;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lineStarts[n++] = i + 1;
+            }
+        }
+        parser = new DatagramParser();
+        record = new MutableDatagram();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void splitLocalDateTime(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(splitLine(line));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void fromCsvLine(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(Datagram.fromCsvLine(line));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parserString(Blackhole bh) {
+        for (String line : lines) {
+            parser.parse(line, record);
+            bh.consume(record.getDatagramEpoch());
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parserBytes(Blackhole bh) {
+        for (int i = 0; i < LINES; i++) {
+            parser.parse(bytes, lineStarts[i], lineStarts[i + 1] - 1, record);
+            bh.consume(record.getDatagramEpoch());
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parserToDatagram(Blackhole bh) {
+        for (String line : lines) {
+            parser.parse(line, record);
+            bh.consume(record.toDatagram());
+        }
+    }
+    
+    /**
+     * Parseo anterior a DatagramParser, como línea base.
+     */
+    private static Datagram splitLine(String csvLine) {
+        String[] fields = csvLine.split(",");
+        return new Datagram(fields[0].trim(), parseDateTime(fields[1].trim()),
+            Integer.parseInt(fields[2].trim()), Double.parseDouble(fields[3].trim()),
+            Double.parseDouble(fields[4].trim()), Double.parseDouble(fields[5].trim()),
+            Integer.parseInt(fields[6].trim()), Integer.parseInt(fields[7].trim()),
+            Integer.parseInt(fields[8].trim()), fields[9].trim(),
+            parseDateTime(fields[10].trim()), Integer.parseInt(fields[11].trim()));
+    }
+    
+    private static LocalDateTime parseDateTime(String dateStr) {
+        if (dateStr.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(dateStr, DATE_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.mio.model;
 
+import com.mio.util.DatagramParser;
+
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -35,7 +37,7 @@ public class Datagram {
     private LocalDateTime datagramDate;
     private int busId;
     
-    // Formateador para parsear fechas del CSV
+    // Formateador para fechas del CSV
     private static final DateTimeFormatter DATE_FORMATTER = 
         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -69,55 +71,24 @@ public class Datagram {
             throw new IllegalArgumentException("Línea CSV vacía o nula");
         }
         
-        String[] fields = csvLine.split(",");
-        
-        if (fields.length < 12) {
-            throw new IllegalArgumentException(
-                "Línea CSV no tiene suficientes campos (esperados: 12, encontrados: " + 
-                fields.length + ")");
-        }
-        
-        try {
-            String eventType = fields[0].trim();
-            LocalDateTime registerDate = parseDateTime(fields[1].trim());
-            int stopId = Integer.parseInt(fields[2].trim());
-            double odometer = Double.parseDouble(fields[3].trim());
-            double latitude = Double.parseDouble(fields[4].trim());
-            double longitude = Double.parseDouble(fields[5].trim());
-            int taskId = Integer.parseInt(fields[6].trim());
-            int lineId = Integer.parseInt(fields[7].trim());
-            int tripId = Integer.parseInt(fields[8].trim());
-            String unknown1 = fields[9].trim();
-            LocalDateTime datagramDate = parseDateTime(fields[10].trim());
-            int busId = Integer.parseInt(fields[11].trim());
-            
-            return new Datagram(eventType, registerDate, stopId, odometer, 
-                              latitude, longitude, taskId, lineId, tripId,
-                              unknown1, datagramDate, busId);
-        } catch (Exception e) {
-            throw new IllegalArgumentException(
-                "Error parseando línea CSV: " + csvLine + " - " + e.getMessage(), e);
-        }
+        MutableDatagram record = new MutableDatagram();
+        new DatagramParser().parse(csvLine, record);
+        return record.toDatagram();
     }
     
     /**
-     * Parsea una fecha/hora del formato del CSV
+     * Parsea una línea CSV dada como rango de bytes [start, end). Mismo formato
+     * y semántica que {@link #fromCsvLine(String)}.
+     *
+     * Para volúmenes grandes conviene usar directamente un {@link DatagramParser}
+     * y un {@link MutableDatagram} reutilizables.
+     *
+     * @throws IllegalArgumentException si la línea no tiene el formato esperado
      */
-    private static LocalDateTime parseDateTime(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return null;
-        }
-        try {
-            return LocalDateTime.parse(dateStr, DATE_FORMATTER);
-        } catch (Exception e) {
-            // Si falla el formato estándar, intentar sin segundos
-            try {
-                return LocalDateTime.parse(dateStr, 
-                    DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
-            } catch (Exception ex) {
-                return null;
-            }
-        }
+    public static Datagram fromCsvBytes(byte[] buf, int start, int end) {
+        MutableDatagram record = new MutableDatagram();
+        new DatagramParser().parse(buf, start, end, record);
+        return record.toDatagram();
     }
     
     // Getters
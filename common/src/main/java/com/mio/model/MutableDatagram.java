@@ -0,0 +1,115 @@
+package com.mio.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Datagrama mutable y reutilizable para rutas de parseo de alto volumen
+ * (ver DatagramParser). Las fechas se guardan como segundos epoch de la hora
+ * local sin zona (convención UTC, igual que el formato binario), o NO_DATE.
+ */
+public class MutableDatagram {
+    /** Marca de fecha ausente o inválida. */
+    public static final long NO_DATE = Long.MIN_VALUE;
+    
+    private String eventType;
+    private long registerEpoch = NO_DATE;
+    private int stopId;
+    private double odometer;
+    private double latitude;
+    private double longitude;
+    private int taskId;
+    private int lineId;
+    private int tripId;
+    private String unknown1;
+    private long datagramEpoch = NO_DATE;
+    private int busId;
+    
+    /**
+     * Reemplaza todos los campos (mismo orden que las columnas del CSV).
+     */
+    public void set(String eventType, long registerEpoch, int stopId,
+                    double odometer, double latitude, double longitude,
+                    int taskId, int lineId, int tripId, String unknown1,
+                    long datagramEpoch, int busId) {
+        this.eventType = eventType;
+        this.registerEpoch = registerEpoch;
+        this.stopId = stopId;
+        this.odometer = odometer;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.taskId = taskId;
+        this.lineId = lineId;
+        this.tripId = tripId;
+        this.unknown1 = unknown1;
+        this.datagramEpoch = datagramEpoch;
+        this.busId = busId;
+    }
+    
+    /**
+     * Crea un Datagram inmutable con los valores actuales.
+     */
+    public Datagram toDatagram() {
+        return new Datagram(eventType, toDateTime(registerEpoch), stopId, odometer,
+            latitude, longitude, taskId, lineId, tripId, unknown1,
+            toDateTime(datagramEpoch), busId);
+    }
+    
+    public static LocalDateTime toDateTime(long epochSeconds) {
+        return epochSeconds == NO_DATE ? null : LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+    }
+    
+    public static long toEpoch(LocalDateTime dateTime) {
+        return dateTime == null ? NO_DATE : dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+    
+    // Getters
+    
+    public String getEventType() {
+        return eventType;
+    }
+    
+    public long getRegisterEpoch() {
+        return registerEpoch;
+    }
+    
+    public int getStopId() {
+        return stopId;
+    }
+    
+    public double getOdometer() {
+        return odometer;
+    }
+    
+    public double getLatitude() {
+        return latitude;
+    }
+    
+    public double getLongitude() {
+        return longitude;
+    }
+    
+    public int getTaskId() {
+        return taskId;
+    }
+    
+    public int getLineId() {
+        return lineId;
+    }
+    
+    public int getTripId() {
+        return tripId;
+    }
+    
+    public String getUnknown1() {
+        return unknown1;
+    }
+    
+    public long getDatagramEpoch() {
+        return datagramEpoch;
+    }
+    
+    public int getBusId() {
+        return busId;
+    }
+}
@@ -0,0 +1,248 @@
+package com.mio.util;
+
+import MIO.LoteColumnar;
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Formato binario de ancho fijo para datagramas persistidos.
+ *
+ * Alternativa compacta al CSV: cada registro ocupa RECORD_SIZE bytes, sin
+ * separadores ni texto que parsear. Los campos de texto (eventType y
+ * unknown1) se guardan como códigos de un DatagramDictionary.
+ *
+ * Layout del registro (big-endian):
+ *   0  short  eventType (código)
+ *   2  short  unknown1 (código)
+ *   4  int    stopId
+ *   8  int    taskId
+ *   12 int    lineId
+ *   16 int    tripId
+ *   20 int    busId
+ *   24 int    registerDate (segundos epoch, sin signo; NO_DATE si es nula)
+ *   28 int    datagramDate (segundos epoch, sin signo; NO_DATE si es nula)
+ *   32 int    latitude  * 1e6
+ *   36 int    longitude * 1e6
+ *   40 double odometer
+ *
+ * Las fechas se interpretan como hora local sin zona (igual que en el CSV)
+ * y se codifican con offset UTC solo como convención de almacenamiento.
+ */
+public final class DatagramBinaryFormat {
+    public static final int RECORD_SIZE = 48;
+    public static final int HEADER_SIZE = 16;
+    public static final int MAGIC = 0x4D494F42; // "MIOB"
+    public static final short VERSION = 1;
+    /** Offset del campo reservado del header; en segmentos guarda los registros confirmados. */
+    public static final int HEADER_RECORDS_OFFSET = 8;
+    
+    /** Marca de fecha ausente. */
+    public static final int NO_DATE = -1;
+    
+    private static final double COORD_SCALE = 1_000_000.0;
+    
+    private DatagramBinaryFormat() {
+    }
+    
+    /**
+     * Escribe el header del archivo: magic, versión y tamaño de registro.
+     */
+    public static void writeHeader(ByteBuffer out) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) RECORD_SIZE);
+        out.putLong(0L); // Reservado
+    }
+    
+    /**
+     * Valida el header que empieza en la posición indicada.
+     */
+    public static void checkHeader(ByteBuffer in, int offset) throws IOException {
+        if (in.getInt(offset) != MAGIC) {
+            throw new IOException("El archivo no tiene formato binario MIO");
+        }
+        short version = in.getShort(offset + 4);
+        short recordSize = in.getShort(offset + 6);
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException("Versión de formato binario no soportada: v" + version +
+                " / " + recordSize + " bytes");
+        }
+    }
+    
+    /**
+     * Codifica un datagrama en la posición actual del buffer.
+     */
+    public static void write(Datagram d, DatagramDictionary dict, ByteBuffer out) throws IOException {
+        // Resolver códigos antes de tocar el buffer para no dejar registros a medias
+        int eventType = dict.codeOf(d.getEventType());
+        int unknown1 = dict.codeOf(d.getUnknown1());
+        
+        out.putShort((short) eventType);
+        out.putShort((short) unknown1);
+        out.putInt(d.getStopId());
+        out.putInt(d.getTaskId());
+        out.putInt(d.getLineId());
+        out.putInt(d.getTripId());
+        out.putInt(d.getBusId());
+        out.putInt(toEpochSeconds(d.getRegisterDate()));
+        out.putInt(toEpochSeconds(d.getDatagramDate()));
+        out.putInt((int) Math.round(d.getLatitude() * COORD_SCALE));
+        out.putInt((int) Math.round(d.getLongitude() * COORD_SCALE));
+        out.putDouble(d.getOdometer());
+    }
+    
+    /**
+     * Codifica un datagrama parseado (ver DatagramParser) sin pasar por Datagram.
+     */
+    public static void write(MutableDatagram d, DatagramDictionary dict, ByteBuffer out) throws IOException {
+        int eventType = dict.codeOf(d.getEventType());
+        int unknown1 = dict.codeOf(d.getUnknown1());
+        
+        out.putShort((short) eventType);
+        out.putShort((short) unknown1);
+        out.putInt(d.getStopId());
+        out.putInt(d.getTaskId());
+        out.putInt(d.getLineId());
+        out.putInt(d.getTripId());
+        out.putInt(d.getBusId());
+        out.putInt(toEpochSeconds(d.getRegisterEpoch()));
+        out.putInt(toEpochSeconds(d.getDatagramEpoch()));
+        out.putInt((int) Math.round(d.getLatitude() * COORD_SCALE));
+        out.putInt((int) Math.round(d.getLongitude() * COORD_SCALE));
+        out.putDouble(d.getOdometer());
+    }
+    
+    /**
+     * Decodifica el registro que empieza en offset (no mueve la posición del buffer).
+     */
+    public static Datagram read(ByteBuffer in, int offset, DatagramDictionary dict) throws IOException {
+        return new Datagram(
+            dict.valueOf(in.getShort(offset) & 0xFFFF),
+            fromEpochSeconds(in.getInt(offset + 24)),
+            in.getInt(offset + 4),
+            in.getDouble(offset + 40),
+            in.getInt(offset + 32) / COORD_SCALE,
+            in.getInt(offset + 36) / COORD_SCALE,
+            in.getInt(offset + 8),
+            in.getInt(offset + 12),
+            in.getInt(offset + 16),
+            dict.valueOf(in.getShort(offset + 2) & 0xFFFF),
+            fromEpochSeconds(in.getInt(offset + 28)),
+            in.getInt(offset + 20)
+        );
+    }
+    
+    /**
+     * Decodifica el registro que empieza en offset sobre un datagrama
+     * reutilizable, sin crear objetos por registro.
+     */
+    public static void read(ByteBuffer in, int offset, DatagramDictionary dict, MutableDatagram out) throws IOException {
+        out.set(
+            dict.valueOf(in.getShort(offset) & 0xFFFF),
+            toEpoch(in.getInt(offset + 24)),
+            in.getInt(offset + 4),
+            in.getDouble(offset + 40),
+            in.getInt(offset + 32) / COORD_SCALE,
+            in.getInt(offset + 36) / COORD_SCALE,
+            in.getInt(offset + 8),
+            in.getInt(offset + 12),
+            in.getInt(offset + 16),
+            dict.valueOf(in.getShort(offset + 2) & 0xFFFF),
+            toEpoch(in.getInt(offset + 28)),
+            in.getInt(offset + 20)
+        );
+    }
+    
+    /**
+     * Decodifica los registros entre position y limit directo a un lote
+     * columnar, sin crear Datagram: los códigos de texto se usan como
+     * índices en el diccionario dado (no mueve la posición del buffer).
+     * @throws IllegalArgumentException si hay bytes sobrantes o un código desconocido
+     */
+    public static LoteColumnar readColumnar(int loteId, ByteBuffer registros, String[] diccionario) {
+        if (registros.remaining() % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Registros incompletos: " + registros.remaining() + " bytes");
+        }
+        ByteBuffer in = registros.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int base = in.position();
+        int n = in.remaining() / RECORD_SIZE;
+        
+        LoteColumnar lote = new LoteColumnar();
+        lote.loteId = loteId;
+        lote.diccionario = diccionario;
+        lote.eventType = new int[n];
+        lote.unknown1 = new int[n];
+        lote.stopId = new int[n];
+        lote.taskId = new int[n];
+        lote.lineId = new int[n];
+        lote.tripId = new int[n];
+        lote.busId = new int[n];
+        lote.odometer = new double[n];
+        lote.latitude = new double[n];
+        lote.longitude = new double[n];
+        lote.registerEpoch = new long[n];
+        lote.datagramEpoch = new long[n];
+        
+        for (int i = 0; i < n; i++) {
+            int offset = base + i * RECORD_SIZE;
+            lote.eventType[i] = codigo(in.getShort(offset), diccionario);
+            lote.unknown1[i] = codigo(in.getShort(offset + 2), diccionario);
+            lote.stopId[i] = in.getInt(offset + 4);
+            lote.taskId[i] = in.getInt(offset + 8);
+            lote.lineId[i] = in.getInt(offset + 12);
+            lote.tripId[i] = in.getInt(offset + 16);
+            lote.busId[i] = in.getInt(offset + 20);
+            lote.registerEpoch[i] = toEpoch(in.getInt(offset + 24));
+            lote.datagramEpoch[i] = toEpoch(in.getInt(offset + 28));
+            lote.latitude[i] = in.getInt(offset + 32) / COORD_SCALE;
+            lote.longitude[i] = in.getInt(offset + 36) / COORD_SCALE;
+            lote.odometer[i] = in.getDouble(offset + 40);
+        }
+        return lote;
+    }
+    
+    private static int codigo(short valor, String[] diccionario) {
+        int code = valor & 0xFFFF;
+        if (code >= diccionario.length) {
+            throw new IllegalArgumentException("Código de diccionario desconocido: " + code);
+        }
+        return code;
+    }
+    
+    /**
+     * Segundos epoch del registro como long (NO_DATE → MutableDatagram.NO_DATE).
+     */
+    private static long toEpoch(int epochSeconds) {
+        return epochSeconds == NO_DATE ? MutableDatagram.NO_DATE : Integer.toUnsignedLong(epochSeconds);
+    }
+    
+    /**
+     * Segundos epoch (sin signo, en un int) de una fecha local.
+     */
+    public static int toEpochSeconds(LocalDateTime dateTime) {
+        if (dateTime == null) {
+            return NO_DATE;
+        }
+        return (int) dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+    
+    /**
+     * Segundos epoch en el int del registro (MutableDatagram.NO_DATE → NO_DATE).
+     */
+    public static int toEpochSeconds(long epochSeconds) {
+        return epochSeconds == MutableDatagram.NO_DATE ? NO_DATE : (int) epochSeconds;
+    }
+    
+    public static LocalDateTime fromEpochSeconds(int epochSeconds) {
+        if (epochSeconds == NO_DATE) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Integer.toUnsignedLong(epochSeconds), 0, ZoneOffset.UTC);
+    }
+}
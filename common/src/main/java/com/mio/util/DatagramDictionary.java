@@ -0,0 +1,121 @@
+package com.mio.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diccionario de códigos para los campos de texto del formato binario
+ * (eventType y unknown1).
+ *
+ * Se persiste en un archivo lateral "<archivo>.dict" con una línea
+ * "codigo,valor" por entrada. Las entradas nuevas se escriben al archivo
+ * antes de retornar su código, así un lector nunca ve un registro cuyo
+ * código no esté ya en el diccionario.
+ */
+public class DatagramDictionary {
+    private final Path file;
+    private final Map<String, Integer> codes;
+    private final List<String> values;
+    private String[] snapshot;
+    
+    public DatagramDictionary(Path file) throws IOException {
+        this.file = file;
+        this.codes = new HashMap<>();
+        this.values = new ArrayList<>();
+        reload();
+    }
+    
+    /**
+     * Archivo de diccionario asociado a un archivo de datos binario.
+     */
+    public static Path pathFor(Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + ".dict");
+    }
+    
+    /**
+     * Código de un valor; si es nuevo lo registra y lo persiste.
+     */
+    public synchronized int codeOf(String value) throws IOException {
+        String key = value != null ? value : "";
+        Integer code = codes.get(key);
+        if (code != null) {
+            return code;
+        }
+        if (values.size() >= 0xFFFF) {
+            throw new IOException("Diccionario lleno (" + values.size() + " entradas)");
+        }
+        
+        int nuevo = values.size();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(nuevo + "," + key);
+            writer.newLine();
+        }
+        values.add(key);
+        codes.put(key, nuevo);
+        return nuevo;
+    }
+    
+    /**
+     * Valor de un código; recarga el archivo si el código aún no se conoce
+     * (otro proceso pudo haberlo agregado).
+     */
+    public synchronized String valueOf(int code) throws IOException {
+        if (code >= values.size()) {
+            reload();
+            if (code >= values.size()) {
+                throw new IOException("Código de diccionario desconocido: " + code);
+            }
+        }
+        return values.get(code);
+    }
+    
+    /**
+     * Relee el archivo de diccionario.
+     */
+    public synchronized void reload() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        // Solo se aceptan líneas completas: una entrada a medio escribir
+        // se leerá en la siguiente recarga
+        String contenido = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int inicio = 0;
+        int index = 0;
+        int fin;
+        while ((fin = contenido.indexOf('\n', inicio)) >= 0) {
+            String line = contenido.substring(inicio, fin).replace("\r", "");
+            inicio = fin + 1;
+            if (index++ < values.size()) {
+                continue; // Ya cargada
+            }
+            int coma = line.indexOf(',');
+            String value = coma >= 0 ? line.substring(coma + 1) : "";
+            codes.put(value, values.size());
+            values.add(value);
+        }
+    }
+    
+    /**
+     * Valores actuales indexados por código (arreglo compartido: no modificar).
+     * Solo se copia cuando el diccionario creció desde la última llamada.
+     */
+    public synchronized String[] snapshot() {
+        if (snapshot == null || snapshot.length != values.size()) {
+            snapshot = values.toArray(new String[0]);
+        }
+        return snapshot;
+    }
+    
+    public synchronized int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,28 @@
+package com.mio.util;
+
+/**
+ * Formato de un archivo de datagramas persistidos, deducido de su extensión.
+ */
+public enum DatagramFileFormat {
+    /** Texto CSV con header (formato original). */
+    CSV,
+    /** Registros binarios de ancho fijo (ver DatagramBinaryFormat). */
+    BINARY,
+    /** Directorio de segmentos binarios mapeados en memoria (ver SegmentedLog). */
+    SEGMENTED;
+    
+    /**
+     * Los archivos ".bin" usan el formato binario, los directorios ".seg"
+     * el log segmentado; cualquier otro, CSV.
+     */
+    public static DatagramFileFormat fromPath(String path) {
+        if (path == null) {
+            return CSV;
+        }
+        String lower = path.toLowerCase().replaceAll("[/\\\\]+$", "");
+        if (lower.endsWith(".bin")) {
+            return BINARY;
+        }
+        return lower.endsWith(".seg") ? SEGMENTED : CSV;
+    }
+}
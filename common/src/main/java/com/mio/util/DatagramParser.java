@@ -0,0 +1,327 @@
+package com.mio.util;
+
+import com.mio.model.MutableDatagram;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser de líneas CSV de datagramas sin asignaciones en el caso normal.
+ *
+ * Recorre la línea una sola vez (como rango de bytes UTF-8; un CharSequence
+ * ASCII se copia antes a un buffer reutilizable), decodifica enteros y decimales en el lugar y convierte las fechas
+ * "yyyy-MM-dd HH:mm:ss" a segundos epoch con aritmética, sin LocalDateTime
+ * ni DateTimeFormatter. El resultado se escribe en un MutableDatagram
+ * reutilizable. Los textos repetidos (eventType, unknown1) se reutilizan
+ * desde una caché pequeña.
+ *
+ * Una instancia no es thread-safe; cada hilo debe usar la suya.
+ */
+public class DatagramParser {
+    private static final int FIELDS = 12;
+    private static final int TEXT_CACHE_SIZE = 64;
+    
+    private static final double[] POWERS_OF_10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    
+    // Inicio y fin (exclusivo) de cada campo de la línea actual
+    private final int[] bounds = new int[FIELDS * 2];
+    private final String[] textCache = new String[TEXT_CACHE_SIZE];
+    // Copia de la línea cuando llega como CharSequence
+    private byte[] scratch = new byte[256];
+    
+    /**
+     * Parsea una línea CSV en el registro dado.
+     * @throws IllegalArgumentException si la línea no tiene el formato esperado
+     */
+    public void parse(CharSequence line, MutableDatagram out) {
+        int len = line.length();
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, 2 * scratch.length)];
+        }
+        byte[] buf = scratch;
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                // Texto no ASCII: codificar como UTF-8 (caso raro)
+                byte[] utf8 = line.toString().getBytes(StandardCharsets.UTF_8);
+                parse(utf8, 0, utf8.length, out);
+                return;
+            }
+            buf[i] = (byte) c;
+        }
+        parse(buf, 0, len, out);
+    }
+    
+    /**
+     * Parsea una línea CSV dada como rango de bytes [start, end).
+     * @throws IllegalArgumentException si la línea no tiene el formato esperado
+     */
+    public void parse(byte[] buf, int start, int end, MutableDatagram out) {
+        int n = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end && n < FIELDS; i++) {
+            if (i == end || buf[i] == ',') {
+                // Recortar espacios (y el \r de fin de línea)
+                int s = fieldStart;
+                int e = i;
+                while (s < e && (buf[s] & 0xFF) <= ' ') {
+                    s++;
+                }
+                while (e > s && (buf[e - 1] & 0xFF) <= ' ') {
+                    e--;
+                }
+                bounds[2 * n] = s;
+                bounds[2 * n + 1] = e;
+                n++;
+                fieldStart = i + 1;
+            }
+        }
+        if (n < FIELDS) {
+            throw new IllegalArgumentException(
+                "Línea CSV no tiene suficientes campos (esperados: 12, encontrados: " + n + ")");
+        }
+        
+        try {
+            out.set(
+                text(buf, 0),
+                parseEpoch(buf, bounds[2], bounds[3]),
+                parseInt(buf, bounds[4], bounds[5]),
+                parseDouble(buf, bounds[6], bounds[7]),
+                parseDouble(buf, bounds[8], bounds[9]),
+                parseDouble(buf, bounds[10], bounds[11]),
+                parseInt(buf, bounds[12], bounds[13]),
+                parseInt(buf, bounds[14], bounds[15]),
+                parseInt(buf, bounds[16], bounds[17]),
+                text(buf, 9),
+                parseEpoch(buf, bounds[20], bounds[21]),
+                parseInt(buf, bounds[22], bounds[23])
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                "Error parseando línea CSV: " + new String(buf, start, end - start, StandardCharsets.UTF_8) +
+                " - " + e.getMessage(), e);
+        }
+    }
+    
+    // ==================== Campos ====================
+    
+    /**
+     * Texto del campo, reutilizando la instancia si ya se vio el mismo valor.
+     */
+    private String text(byte[] buf, int field) {
+        int s = bounds[2 * field];
+        int e = bounds[2 * field + 1];
+        int hash = 0;
+        for (int i = s; i < e; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TEXT_CACHE_SIZE - 1);
+        String cached = textCache[slot];
+        if (cached != null && cached.length() == e - s) {
+            boolean igual = true;
+            for (int i = s; i < e && igual; i++) {
+                igual = cached.charAt(i - s) == buf[i];
+            }
+            if (igual) {
+                return cached;
+            }
+        }
+        String value = new String(buf, s, e - s, StandardCharsets.UTF_8);
+        textCache[slot] = value;
+        return value;
+    }
+    
+    private static int parseInt(byte[] buf, int s, int e) {
+        boolean negativo = s < e && buf[s] == '-';
+        int i = negativo || (s < e && buf[s] == '+') ? s + 1 : s;
+        if (i == e) {
+            throw new NumberFormatException("Entero vacío");
+        }
+        long valor = 0;
+        for (; i < e; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9 || valor > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("Entero inválido: " + new String(buf, s, e - s, StandardCharsets.UTF_8));
+            }
+            valor = valor * 10 + d;
+        }
+        valor = negativo ? -valor : valor;
+        if (valor < Integer.MIN_VALUE || valor > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Entero fuera de rango: " + new String(buf, s, e - s, StandardCharsets.UTF_8));
+        }
+        return (int) valor;
+    }
+    
+    /**
+     * Decimal simple (signo, dígitos, punto, dígitos). Con hasta 15 dígitos
+     * significativos la mantisa y la potencia de 10 son exactas en double, así
+     * que la división da el mismo resultado que Double.parseDouble; cualquier
+     * otro caso (exponente, más dígitos) usa Double.parseDouble.
+     */
+    private static double parseDouble(byte[] buf, int s, int e) {
+        boolean negativo = s < e && buf[s] == '-';
+        int i = negativo || (s < e && buf[s] == '+') ? s + 1 : s;
+        long mantisa = 0;
+        int digitos = 0;
+        int decimales = -1;
+        for (; i < e; i++) {
+            int c = buf[i];
+            if (c >= '0' && c <= '9') {
+                mantisa = mantisa * 10 + (c - '0');
+                digitos++;
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            } else if (c == '.' && decimales < 0) {
+                decimales = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < e || digitos == 0 || digitos > 15 || decimales >= POWERS_OF_10.length) {
+            return Double.parseDouble(new String(buf, s, e - s, StandardCharsets.UTF_8));
+        }
+        double valor = decimales > 0 ? mantisa / POWERS_OF_10[decimales] : mantisa;
+        return negativo ? -valor : valor;
+    }
+    
+    /**
+     * Fecha "yyyy-MM-dd HH:mm:ss" (o sin segundos) como segundos epoch.
+     * Como el DateTimeFormatter original, un día mayor al del mes se ajusta
+     * al último día válido. NO_DATE si está vacía o no tiene ese formato.
+     */
+    private static long parseEpoch(byte[] buf, int s, int e) {
+        int len = e - s;
+        if (len != 19 && len != 16) {
+            return MutableDatagram.NO_DATE;
+        }
+        if (buf[s + 4] != '-' || buf[s + 7] != '-' || buf[s + 10] != ' ' || buf[s + 13] != ':'
+                || (len == 19 && buf[s + 16] != ':')) {
+            return MutableDatagram.NO_DATE;
+        }
+        int anio = digits(buf, s, 4);
+        int mes = digits(buf, s + 5, 2);
+        int dia = digits(buf, s + 8, 2);
+        int hora = digits(buf, s + 11, 2);
+        int minuto = digits(buf, s + 14, 2);
+        int segundo = len == 19 ? digits(buf, s + 17, 2) : 0;
+        if ((anio | mes | dia | hora | minuto | segundo) < 0
+                || mes < 1 || mes > 12 || dia < 1 || dia > 31 || hora > 23 || minuto > 59 || segundo > 59) {
+            return MutableDatagram.NO_DATE;
+        }
+        dia = Math.min(dia, daysInMonth(anio, mes));
+        return toEpochSeconds(anio, mes, dia, hora, minuto, segundo);
+    }
+    
+    /**
+     * Fecha "yyyy-MM-dd HH:mm:ss" (o sin segundos) como segundos epoch, con
+     * las mismas reglas que el parseo de líneas; NO_DATE si es nula o inválida.
+     */
+    public static long parseEpoch(CharSequence text) {
+        if (text == null) {
+            return MutableDatagram.NO_DATE;
+        }
+        int s = 0;
+        int e = text.length();
+        while (s < e && text.charAt(s) <= ' ') {
+            s++;
+        }
+        while (e > s && text.charAt(e - 1) <= ' ') {
+            e--;
+        }
+        if (e - s != 19 && e - s != 16) {
+            return MutableDatagram.NO_DATE;
+        }
+        byte[] buf = new byte[e - s];
+        for (int i = s; i < e; i++) {
+            char c = text.charAt(i);
+            buf[i - s] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return parseEpoch(buf, 0, buf.length);
+    }
+
+    /**
+     * Valor de n dígitos decimales, o -1 si alguno no es dígito.
+     */
+    private static int digits(byte[] buf, int s, int n) {
+        int valor = 0;
+        for (int i = s; i < s + n; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            valor = valor * 10 + d;
+        }
+        return valor;
+    }
+    
+    // ==================== Fechas ====================
+    
+    /**
+     * Segundos epoch de una fecha civil (calendario gregoriano proléptico, UTC).
+     */
+    public static long toEpochSeconds(int year, int month, int day, int hour, int minute, int second) {
+        // Días desde 1970-01-01 (algoritmo days_from_civil de H. Hinnant)
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097 + doe - 719468;
+        return days * 86400 + hour * 3600 + minute * 60 + second;
+    }
+    
+    /**
+     * Formatea segundos epoch como "yyyy-MM-dd HH:mm:ss" ("" si es NO_DATE),
+     * sin pasar por LocalDateTime.
+     */
+    public static String formatEpoch(long epochSeconds) {
+        if (epochSeconds == MutableDatagram.NO_DATE) {
+            return "";
+        }
+        long days = Math.floorDiv(epochSeconds, 86400);
+        int secs = (int) Math.floorMod(epochSeconds, 86400);
+        
+        // Inverso de toEpochSeconds (civil_from_days)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        
+        char[] out = new char[19];
+        put(out, 0, (int) year, 4);
+        out[4] = '-';
+        put(out, 5, month, 2);
+        out[7] = '-';
+        put(out, 8, day, 2);
+        out[10] = ' ';
+        put(out, 11, secs / 3600, 2);
+        out[13] = ':';
+        put(out, 14, secs / 60 % 60, 2);
+        out[16] = ':';
+        put(out, 17, secs % 60, 2);
+        return new String(out);
+    }
+    
+    private static void put(char[] out, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+    
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+}
@@ -0,0 +1,173 @@
+package com.mio.util;
+
+import MIO.DatagramEpochStruct;
+import MIO.DatagramStruct;
+import MIO.LoteColumnar;
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+
+/**
+ * Conversiones entre Datagram y las estructuras ICE.
+ *
+ * DatagramEpochStruct es la forma usada en el camino principal (fechas como
+ * segundos epoch). DatagramStruct, con fechas como texto, se mantiene para
+ * clientes que aún usan sendDatagram/sendDatagrams/getLote.
+ */
+public final class DatagramStructs {
+    
+    private DatagramStructs() {
+    }
+    
+    public static DatagramEpochStruct toEpochStruct(Datagram d) {
+        DatagramEpochStruct ice = new DatagramEpochStruct();
+        ice.eventType = d.getEventType() != null ? d.getEventType() : "";
+        ice.registerEpoch = MutableDatagram.toEpoch(d.getRegisterDate());
+        ice.stopId = d.getStopId();
+        ice.odometer = d.getOdometer();
+        ice.latitude = d.getLatitude();
+        ice.longitude = d.getLongitude();
+        ice.taskId = d.getTaskId();
+        ice.lineId = d.getLineId();
+        ice.tripId = d.getTripId();
+        ice.unknown1 = d.getUnknown1() != null ? d.getUnknown1() : "";
+        ice.datagramEpoch = MutableDatagram.toEpoch(d.getDatagramDate());
+        ice.busId = d.getBusId();
+        return ice;
+    }
+    
+    public static DatagramEpochStruct toEpochStruct(MutableDatagram d) {
+        DatagramEpochStruct ice = new DatagramEpochStruct();
+        ice.eventType = d.getEventType();
+        ice.registerEpoch = d.getRegisterEpoch();
+        ice.stopId = d.getStopId();
+        ice.odometer = d.getOdometer();
+        ice.latitude = d.getLatitude();
+        ice.longitude = d.getLongitude();
+        ice.taskId = d.getTaskId();
+        ice.lineId = d.getLineId();
+        ice.tripId = d.getTripId();
+        ice.unknown1 = d.getUnknown1();
+        ice.datagramEpoch = d.getDatagramEpoch();
+        ice.busId = d.getBusId();
+        return ice;
+    }
+    
+    public static Datagram fromEpochStruct(DatagramEpochStruct ice) {
+        return new Datagram(
+            ice.eventType,
+            MutableDatagram.toDateTime(ice.registerEpoch),
+            ice.stopId,
+            ice.odometer,
+            ice.latitude,
+            ice.longitude,
+            ice.taskId,
+            ice.lineId,
+            ice.tripId,
+            ice.unknown1,
+            MutableDatagram.toDateTime(ice.datagramEpoch),
+            ice.busId
+        );
+    }
+    
+    /**
+     * Datagramas de un lote columnar, uno por struct.
+     */
+    public static DatagramEpochStruct[] toEpochStructs(LoteColumnar lote) {
+        int n = LoteColumnarBuilder.size(lote);
+        DatagramEpochStruct[] structs = new DatagramEpochStruct[n];
+        for (int i = 0; i < n; i++) {
+            DatagramEpochStruct ice = new DatagramEpochStruct();
+            ice.eventType = lote.diccionario[lote.eventType[i]];
+            ice.registerEpoch = lote.registerEpoch[i];
+            ice.stopId = lote.stopId[i];
+            ice.odometer = lote.odometer[i];
+            ice.latitude = lote.latitude[i];
+            ice.longitude = lote.longitude[i];
+            ice.taskId = lote.taskId[i];
+            ice.lineId = lote.lineId[i];
+            ice.tripId = lote.tripId[i];
+            ice.unknown1 = lote.diccionario[lote.unknown1[i]];
+            ice.datagramEpoch = lote.datagramEpoch[i];
+            ice.busId = lote.busId[i];
+            structs[i] = ice;
+        }
+        return structs;
+    }
+
+    // ==================== Forma con fechas como texto ====================
+    
+    public static DatagramStruct toStringStruct(Datagram d) {
+        DatagramStruct ice = new DatagramStruct();
+        ice.eventType = d.getEventType() != null ? d.getEventType() : "";
+        ice.registerDate = DatagramParser.formatEpoch(MutableDatagram.toEpoch(d.getRegisterDate()));
+        ice.stopId = d.getStopId();
+        ice.odometer = d.getOdometer();
+        ice.latitude = d.getLatitude();
+        ice.longitude = d.getLongitude();
+        ice.taskId = d.getTaskId();
+        ice.lineId = d.getLineId();
+        ice.tripId = d.getTripId();
+        ice.unknown1 = d.getUnknown1() != null ? d.getUnknown1() : "";
+        ice.datagramDate = DatagramParser.formatEpoch(MutableDatagram.toEpoch(d.getDatagramDate()));
+        ice.busId = d.getBusId();
+        return ice;
+    }
+    
+    public static DatagramStruct toStringStruct(DatagramEpochStruct d) {
+        DatagramStruct ice = new DatagramStruct();
+        ice.eventType = d.eventType;
+        ice.registerDate = DatagramParser.formatEpoch(d.registerEpoch);
+        ice.stopId = d.stopId;
+        ice.odometer = d.odometer;
+        ice.latitude = d.latitude;
+        ice.longitude = d.longitude;
+        ice.taskId = d.taskId;
+        ice.lineId = d.lineId;
+        ice.tripId = d.tripId;
+        ice.unknown1 = d.unknown1;
+        ice.datagramDate = DatagramParser.formatEpoch(d.datagramEpoch);
+        ice.busId = d.busId;
+        return ice;
+    }
+    
+    /**
+     * Convierte la forma con fechas como texto a la forma epoch (fechas
+     * inválidas o vacías quedan en NO_DATE).
+     */
+    public static DatagramEpochStruct toEpochStruct(DatagramStruct d) {
+        DatagramEpochStruct ice = new DatagramEpochStruct();
+        ice.eventType = d.eventType;
+        ice.registerEpoch = DatagramParser.parseEpoch(d.registerDate);
+        ice.stopId = d.stopId;
+        ice.odometer = d.odometer;
+        ice.latitude = d.latitude;
+        ice.longitude = d.longitude;
+        ice.taskId = d.taskId;
+        ice.lineId = d.lineId;
+        ice.tripId = d.tripId;
+        ice.unknown1 = d.unknown1;
+        ice.datagramEpoch = DatagramParser.parseEpoch(d.datagramDate);
+        ice.busId = d.busId;
+        return ice;
+    }
+    
+    /**
+     * Fechas inválidas o vacías quedan en null, como antes.
+     */
+    public static Datagram fromStringStruct(DatagramStruct ice) {
+        return new Datagram(
+            ice.eventType,
+            MutableDatagram.toDateTime(DatagramParser.parseEpoch(ice.registerDate)),
+            ice.stopId,
+            ice.odometer,
+            ice.latitude,
+            ice.longitude,
+            ice.taskId,
+            ice.lineId,
+            ice.tripId,
+            ice.unknown1,
+            MutableDatagram.toDateTime(DatagramParser.parseEpoch(ice.datagramDate)),
+            ice.busId
+        );
+    }
+}
@@ -0,0 +1,471 @@
+package com.mio.util;
+
+import MIO.LoteColumnar;
+import com.mio.model.MutableDatagram;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codificación compacta de un LoteColumnar para enviarlo como bytes.
+ *
+ * Cada registro se codifica como diferencia contra el registro anterior del
+ * mismo bus (viaje, línea, parada, tarea, fecha, odómetro y coordenadas
+ * cambian poco entre datagramas consecutivos de un bus), con varints
+ * zig-zag. Las coordenadas van en punto fijo (1e-7 grados) solo si el valor
+ * se recupera exacto; si no, y lo mismo para odómetros no enteros, se escribe
+ * el double completo. La decodificación reproduce el lote original.
+ *
+ * Formato:
+ * <pre>
+ *   byte     versión
+ *   varint   cantidad de registros
+ *   varint   tamaño del diccionario, y por cada texto: varint largo + UTF-8
+ *   registros:
+ *     byte   flags (ver FLAG_*)
+ *     varint índice del bus en la tabla del lote (= tamaño de la tabla si es
+ *            nuevo, seguido de zig-zag busId)
+ *     varint eventType, varint unknown1 (códigos del diccionario)
+ *     zig-zag Δ tripId, Δ lineId, Δ stopId, Δ taskId
+ *     zig-zag Δ datagramEpoch (si tiene fecha)
+ *     zig-zag registerEpoch - datagramEpoch (si tiene fecha)
+ *     odómetro: zig-zag Δ (entero) o double de 8 bytes
+ *     lat/lon: zig-zag Δ en punto fijo o dos doubles de 8 bytes
+ * </pre>
+ */
+public final class LoteCodec {
+    public static final byte VERSION = 1;
+    
+    private static final int FLAG_ODOMETRO_ENTERO = 1;
+    private static final int FLAG_COORD_FIJAS = 1 << 1;
+    private static final int FLAG_SIN_FECHA = 1 << 2;
+    private static final int FLAG_SIN_REGISTRO = 1 << 3;
+    
+    private static final double COORD_SCALE = 10_000_000.0;
+    
+    private LoteCodec() {
+    }
+    
+    /**
+     * Codifica el lote (el loteId no se incluye: viaja aparte).
+     */
+    public static byte[] encode(LoteColumnar lote) {
+        int n = LoteColumnarBuilder.size(lote);
+        Encoder encoder = new Encoder(64 + n * 24);
+        encoder.encode(lote, n);
+        return encoder.toByteArray();
+    }
+    
+    /**
+     * Codificador reutilizable: conserva su buffer y su tabla de buses entre
+     * lotes, así codificar en estado estable no reserva memoria.
+     */
+    public static final class Encoder {
+        private final Output out;
+        private final BusTable buses;
+        
+        public Encoder(int capacity) {
+            this.out = new Output(capacity);
+            this.buses = new BusTable();
+        }
+        
+        /**
+         * Codifica los primeros n registros del lote en el buffer propio
+         * (reemplaza lo codificado antes).
+         * @return cantidad de bytes escritos
+         */
+        public int encode(LoteColumnar lote, int n) {
+            out.pos = 0;
+            buses.clear();
+            write(lote, n, out, buses);
+            return out.pos;
+        }
+        
+        /**
+         * Reemplaza el contenido por bytes ya codificados (p. ej. leídos de
+         * disco), consumiendo lo que queda en src.
+         */
+        public void load(ByteBuffer src) {
+            out.pos = 0;
+            out.ensure(src.remaining());
+            int n = src.remaining();
+            src.get(out.buf, 0, n);
+            out.pos = n;
+        }
+        
+        /**
+         * Buffer con el último lote codificado en [0, length()).
+         */
+        public byte[] buffer() {
+            return out.buf;
+        }
+        
+        public int length() {
+            return out.pos;
+        }
+        
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+    
+    private static void write(LoteColumnar lote, int n, Output out, BusTable buses) {
+        out.writeByte(VERSION);
+        out.writeVarint(n);
+        out.writeVarint(lote.diccionario.length);
+        for (String texto : lote.diccionario) {
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(bytes.length);
+            out.writeBytes(bytes);
+        }
+        
+        for (int i = 0; i < n; i++) {
+            double odometro = lote.odometer[i];
+            long latFija = Math.round(lote.latitude[i] * COORD_SCALE);
+            long lonFija = Math.round(lote.longitude[i] * COORD_SCALE);
+            boolean odometroEntero = odometro == Math.rint(odometro) && Math.abs(odometro) < 1e15;
+            boolean coordFijas = latFija / COORD_SCALE == lote.latitude[i] && lonFija / COORD_SCALE == lote.longitude[i];
+            boolean sinFecha = lote.datagramEpoch[i] == MutableDatagram.NO_DATE;
+            boolean sinRegistro = lote.registerEpoch[i] == MutableDatagram.NO_DATE;
+            
+            int flags = (odometroEntero ? FLAG_ODOMETRO_ENTERO : 0)
+                | (coordFijas ? FLAG_COORD_FIJAS : 0)
+                | (sinFecha ? FLAG_SIN_FECHA : 0)
+                | (sinRegistro ? FLAG_SIN_REGISTRO : 0);
+            out.writeByte(flags);
+            
+            int b = buses.indexOf(lote.busId[i]);
+            out.writeVarint(b);
+            if (b == buses.size) {
+                out.writeZigZag(lote.busId[i]);
+                buses.add(lote.busId[i]);
+            }
+            
+            out.writeVarint(lote.eventType[i]);
+            out.writeVarint(lote.unknown1[i]);
+            out.writeZigZag((long) lote.tripId[i] - buses.tripId[b]);
+            out.writeZigZag((long) lote.lineId[i] - buses.lineId[b]);
+            out.writeZigZag((long) lote.stopId[i] - buses.stopId[b]);
+            out.writeZigZag((long) lote.taskId[i] - buses.taskId[b]);
+            buses.tripId[b] = lote.tripId[i];
+            buses.lineId[b] = lote.lineId[i];
+            buses.stopId[b] = lote.stopId[i];
+            buses.taskId[b] = lote.taskId[i];
+            
+            long fecha = lote.datagramEpoch[i];
+            if (!sinFecha) {
+                out.writeZigZag(fecha - buses.epoch[b]);
+                buses.epoch[b] = fecha;
+            }
+            if (!sinRegistro) {
+                out.writeZigZag(lote.registerEpoch[i] - (sinFecha ? 0 : fecha));
+            }
+            
+            if (odometroEntero) {
+                long valor = (long) odometro;
+                out.writeZigZag(valor - buses.odometro[b]);
+                buses.odometro[b] = valor;
+            } else {
+                out.writeDouble(odometro);
+            }
+            
+            if (coordFijas) {
+                out.writeZigZag(latFija - buses.lat[b]);
+                out.writeZigZag(lonFija - buses.lon[b]);
+                buses.lat[b] = latFija;
+                buses.lon[b] = lonFija;
+            } else {
+                out.writeDouble(lote.latitude[i]);
+                out.writeDouble(lote.longitude[i]);
+            }
+        }
+    }
+    
+    /**
+     * Reconstruye el lote codificado con encode.
+     * @throws IllegalArgumentException si los datos no tienen el formato esperado
+     */
+    public static LoteColumnar decode(int loteId, byte[] datos) {
+        Input in = new Input(datos);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Versión de lote codificado no soportada: " + version);
+        }
+        int n = in.readVarint();
+        String[] diccionario = new String[in.readVarint()];
+        for (int i = 0; i < diccionario.length; i++) {
+            int largo = in.readVarint();
+            diccionario[i] = in.readString(largo);
+        }
+        
+        LoteColumnar lote = new LoteColumnar();
+        lote.loteId = loteId;
+        lote.diccionario = diccionario;
+        lote.eventType = new int[n];
+        lote.unknown1 = new int[n];
+        lote.stopId = new int[n];
+        lote.taskId = new int[n];
+        lote.lineId = new int[n];
+        lote.tripId = new int[n];
+        lote.busId = new int[n];
+        lote.odometer = new double[n];
+        lote.latitude = new double[n];
+        lote.longitude = new double[n];
+        lote.registerEpoch = new long[n];
+        lote.datagramEpoch = new long[n];
+        
+        BusTable buses = new BusTable();
+        for (int i = 0; i < n; i++) {
+            int flags = in.readByte();
+            
+            int b = in.readVarint();
+            if (b == buses.size) {
+                buses.add((int) in.readZigZag());
+            } else if (b > buses.size) {
+                throw new IllegalArgumentException("Índice de bus inválido en el registro " + i);
+            }
+            lote.busId[i] = buses.busId[b];
+            
+            lote.eventType[i] = in.readVarint();
+            lote.unknown1[i] = in.readVarint();
+            buses.tripId[b] += (int) in.readZigZag();
+            buses.lineId[b] += (int) in.readZigZag();
+            buses.stopId[b] += (int) in.readZigZag();
+            buses.taskId[b] += (int) in.readZigZag();
+            lote.tripId[i] = buses.tripId[b];
+            lote.lineId[i] = buses.lineId[b];
+            lote.stopId[i] = buses.stopId[b];
+            lote.taskId[i] = buses.taskId[b];
+            
+            boolean sinFecha = (flags & FLAG_SIN_FECHA) != 0;
+            if (sinFecha) {
+                lote.datagramEpoch[i] = MutableDatagram.NO_DATE;
+            } else {
+                buses.epoch[b] += in.readZigZag();
+                lote.datagramEpoch[i] = buses.epoch[b];
+            }
+            if ((flags & FLAG_SIN_REGISTRO) != 0) {
+                lote.registerEpoch[i] = MutableDatagram.NO_DATE;
+            } else {
+                lote.registerEpoch[i] = in.readZigZag() + (sinFecha ? 0 : lote.datagramEpoch[i]);
+            }
+            
+            if ((flags & FLAG_ODOMETRO_ENTERO) != 0) {
+                buses.odometro[b] += in.readZigZag();
+                lote.odometer[i] = buses.odometro[b];
+            } else {
+                lote.odometer[i] = in.readDouble();
+            }
+            
+            if ((flags & FLAG_COORD_FIJAS) != 0) {
+                buses.lat[b] += in.readZigZag();
+                buses.lon[b] += in.readZigZag();
+                lote.latitude[i] = buses.lat[b] / COORD_SCALE;
+                lote.longitude[i] = buses.lon[b] / COORD_SCALE;
+            } else {
+                lote.latitude[i] = in.readDouble();
+                lote.longitude[i] = in.readDouble();
+            }
+        }
+        return lote;
+    }
+    
+    // ==================== Estado por bus ====================
+    
+    /**
+     * Último registro visto de cada bus del lote, indexado por orden de aparición.
+     */
+    private static final class BusTable {
+        int size;
+        int[] busId = new int[64];
+        int[] tripId = new int[64];
+        int[] lineId = new int[64];
+        int[] stopId = new int[64];
+        int[] taskId = new int[64];
+        long[] epoch = new long[64];
+        long[] odometro = new long[64];
+        long[] lat = new long[64];
+        long[] lon = new long[64];
+        // busId → índice + 1 (0 = libre), direccionamiento abierto
+        int[] slots = new int[128];
+        
+        /**
+         * Vacía la tabla conservando los arreglos.
+         */
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(slots, 0);
+                Arrays.fill(tripId, 0, size, 0);
+                Arrays.fill(lineId, 0, size, 0);
+                Arrays.fill(stopId, 0, size, 0);
+                Arrays.fill(taskId, 0, size, 0);
+                Arrays.fill(epoch, 0, size, 0L);
+                Arrays.fill(odometro, 0, size, 0L);
+                Arrays.fill(lat, 0, size, 0L);
+                Arrays.fill(lon, 0, size, 0L);
+                size = 0;
+            }
+        }
+        
+        int indexOf(int bus) {
+            int mask = slots.length - 1;
+            for (int s = hash(bus) & mask; slots[s] != 0; s = (s + 1) & mask) {
+                if (busId[slots[s] - 1] == bus) {
+                    return slots[s] - 1;
+                }
+            }
+            return size;
+        }
+        
+        void add(int bus) {
+            if (size == busId.length) {
+                int capacidad = size * 2;
+                busId = Arrays.copyOf(busId, capacidad);
+                tripId = Arrays.copyOf(tripId, capacidad);
+                lineId = Arrays.copyOf(lineId, capacidad);
+                stopId = Arrays.copyOf(stopId, capacidad);
+                taskId = Arrays.copyOf(taskId, capacidad);
+                epoch = Arrays.copyOf(epoch, capacidad);
+                odometro = Arrays.copyOf(odometro, capacidad);
+                lat = Arrays.copyOf(lat, capacidad);
+                lon = Arrays.copyOf(lon, capacidad);
+                slots = new int[capacidad * 2];
+                for (int i = 0; i < size; i++) {
+                    insertar(busId[i], i);
+                }
+            }
+            busId[size] = bus;
+            insertar(bus, size);
+            size++;
+        }
+        
+        private void insertar(int bus, int index) {
+            int mask = slots.length - 1;
+            int s = hash(bus) & mask;
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = index + 1;
+        }
+        
+        private static int hash(int bus) {
+            int h = bus * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    
+    // ==================== Varints ====================
+    
+    private static final class Output {
+        private byte[] buf;
+        private int pos;
+        
+        Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+        
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+        
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+        
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+        
+        void writeZigZag(long v) {
+            writeVarint((v << 1) ^ (v >> 63));
+        }
+        
+        void writeDouble(double d) {
+            long bits = Double.doubleToRawLongBits(d);
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (bits >>> (8 * i));
+            }
+        }
+        
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(pos + n, buf.length * 2));
+            }
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+    
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+        
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+        
+        int readByte() {
+            check(1);
+            return buf[pos++] & 0xFF;
+        }
+        
+        String readString(int largo) {
+            check(largo);
+            String s = new String(buf, pos, largo, StandardCharsets.UTF_8);
+            pos += largo;
+            return s;
+        }
+        
+        int readVarint() {
+            long v = readVarLong();
+            if (v < 0 || v > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Varint fuera de rango en la posición " + pos);
+            }
+            return (int) v;
+        }
+        
+        long readZigZag() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+        
+        private long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                long b = readByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("Varint mal formado en la posición " + pos);
+        }
+        
+        double readDouble() {
+            check(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (buf[pos++] & 0xFFL) << (8 * i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+        
+        private void check(int n) {
+            if (pos + n > buf.length) {
+                throw new IllegalArgumentException("Lote codificado truncado en la posición " + pos);
+            }
+        }
+    }
+}
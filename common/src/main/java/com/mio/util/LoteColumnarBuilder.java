@@ -0,0 +1,229 @@
+package com.mio.util;
+
+import MIO.DatagramEpochStruct;
+import MIO.LoteColumnar;
+import MIO.LoteCrudo;
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arma un LoteColumnar de tamaño conocido, agregando un datagrama a la vez.
+ * Los textos (eventType, unknown1) se codifican en un diccionario propio del lote.
+ *
+ * Los productores reutilizan un mismo builder para todos sus lotes (ver
+ * {@link #reset()}): las columnas se reservan una sola vez.
+ */
+public class LoteColumnarBuilder {
+    /** Formatos de LoteCrudo: registros de DatagramBinaryFormat o bytes de LoteCodec. */
+    public static final int CRUDO_REGISTROS = 0;
+    public static final int CRUDO_CODEC = 1;
+    // Textos distintos que se conservan entre reset(); más allá se reinicia el diccionario
+    private static final int MAX_DICCIONARIO_REUSADO = 1024;
+    
+    private final LoteColumnar lote;
+    private final Map<String, Integer> codigos;
+    private final List<String> diccionario;
+    private int size;
+    private boolean diccionarioCambio;
+    
+    public LoteColumnarBuilder(int capacity) {
+        this.lote = new LoteColumnar();
+        this.lote.eventType = new int[capacity];
+        this.lote.unknown1 = new int[capacity];
+        this.lote.stopId = new int[capacity];
+        this.lote.taskId = new int[capacity];
+        this.lote.lineId = new int[capacity];
+        this.lote.tripId = new int[capacity];
+        this.lote.busId = new int[capacity];
+        this.lote.odometer = new double[capacity];
+        this.lote.latitude = new double[capacity];
+        this.lote.longitude = new double[capacity];
+        this.lote.registerEpoch = new long[capacity];
+        this.lote.datagramEpoch = new long[capacity];
+        this.codigos = new HashMap<>();
+        this.diccionario = new ArrayList<>();
+        this.size = 0;
+    }
+    
+    public void add(Datagram d) {
+        int i = size++;
+        lote.eventType[i] = codigo(d.getEventType());
+        lote.unknown1[i] = codigo(d.getUnknown1());
+        lote.stopId[i] = d.getStopId();
+        lote.taskId[i] = d.getTaskId();
+        lote.lineId[i] = d.getLineId();
+        lote.tripId[i] = d.getTripId();
+        lote.busId[i] = d.getBusId();
+        lote.odometer[i] = d.getOdometer();
+        lote.latitude[i] = d.getLatitude();
+        lote.longitude[i] = d.getLongitude();
+        lote.registerEpoch[i] = MutableDatagram.toEpoch(d.getRegisterDate());
+        lote.datagramEpoch[i] = MutableDatagram.toEpoch(d.getDatagramDate());
+    }
+    
+    public void add(MutableDatagram d) {
+        int i = size++;
+        lote.eventType[i] = codigo(d.getEventType());
+        lote.unknown1[i] = codigo(d.getUnknown1());
+        lote.stopId[i] = d.getStopId();
+        lote.taskId[i] = d.getTaskId();
+        lote.lineId[i] = d.getLineId();
+        lote.tripId[i] = d.getTripId();
+        lote.busId[i] = d.getBusId();
+        lote.odometer[i] = d.getOdometer();
+        lote.latitude[i] = d.getLatitude();
+        lote.longitude[i] = d.getLongitude();
+        lote.registerEpoch[i] = d.getRegisterEpoch();
+        lote.datagramEpoch[i] = d.getDatagramEpoch();
+    }
+    
+    public void add(DatagramEpochStruct d) {
+        int i = size++;
+        lote.eventType[i] = codigo(d.eventType);
+        lote.unknown1[i] = codigo(d.unknown1);
+        lote.stopId[i] = d.stopId;
+        lote.taskId[i] = d.taskId;
+        lote.lineId[i] = d.lineId;
+        lote.tripId[i] = d.tripId;
+        lote.busId[i] = d.busId;
+        lote.odometer[i] = d.odometer;
+        lote.latitude[i] = d.latitude;
+        lote.longitude[i] = d.longitude;
+        lote.registerEpoch[i] = d.registerEpoch;
+        lote.datagramEpoch[i] = d.datagramEpoch;
+    }
+    
+    /**
+     * Cierra el lote con el id dado. Debe haberse llenado hasta la capacidad.
+     */
+    public LoteColumnar build(int loteId) {
+        if (size != lote.busId.length) {
+            throw new IllegalStateException("Lote columnar incompleto: " + size + " de " + lote.busId.length);
+        }
+        lote.loteId = loteId;
+        lote.diccionario = diccionario.toArray(new String[0]);
+        return lote;
+    }
+    
+    /**
+     * Columnas internas con el diccionario al día, sin copiar: solo las
+     * primeras {@link #size()} posiciones son válidas y el contenido cambia
+     * con el siguiente add o reset.
+     */
+    public LoteColumnar columnas() {
+        if (diccionarioCambio || lote.diccionario == null) {
+            lote.diccionario = diccionario.toArray(new String[0]);
+            diccionarioCambio = false;
+        }
+        return lote;
+    }
+    
+    /**
+     * Vacía el lote para reutilizar el builder. El diccionario se conserva
+     * (los textos se repiten entre lotes) salvo que haya crecido demasiado.
+     */
+    public void reset() {
+        size = 0;
+        if (diccionario.size() > MAX_DICCIONARIO_REUSADO) {
+            codigos.clear();
+            diccionario.clear();
+            diccionarioCambio = true;
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public boolean isFull() {
+        return size == lote.busId.length;
+    }
+    
+    private int codigo(String valor) {
+        String clave = valor != null ? valor : "";
+        Integer codigo = codigos.get(clave);
+        if (codigo == null) {
+            codigo = diccionario.size();
+            codigos.put(clave, codigo);
+            diccionario.add(clave);
+            diccionarioCambio = true;
+        }
+        return codigo;
+    }
+    
+    // ==================== Utilidades ====================
+    
+    public static LoteColumnar fromList(int loteId, List<Datagram> datagramas) {
+        LoteColumnarBuilder builder = new LoteColumnarBuilder(datagramas.size());
+        for (Datagram d : datagramas) {
+            builder.add(d);
+        }
+        return builder.build(loteId);
+    }
+    
+    public static LoteColumnar fromStructs(int loteId, DatagramEpochStruct[] datagramas) {
+        LoteColumnarBuilder builder = new LoteColumnarBuilder(datagramas.length);
+        for (DatagramEpochStruct d : datagramas) {
+            builder.add(d);
+        }
+        return builder.build(loteId);
+    }
+    
+    /**
+     * Parsea un lote crudo (ver getLoteCrudo); es el trabajo que el Master
+     * delega en el Worker.
+     * @throws IllegalArgumentException si el formato es desconocido o los datos no son válidos
+     */
+    public static LoteColumnar fromCrudo(LoteCrudo lote) {
+        ByteBuffer datos = lote.datos;
+        if (lote.loteId < 0 || datos == null || !datos.hasRemaining()) {
+            return empty();
+        }
+        switch (lote.formato) {
+            case CRUDO_REGISTROS:
+                return DatagramBinaryFormat.readColumnar(lote.loteId, datos,
+                    lote.diccionario != null ? lote.diccionario : new String[0]);
+            case CRUDO_CODEC:
+                byte[] bytes = new byte[datos.remaining()];
+                datos.duplicate().get(bytes);
+                return LoteCodec.decode(lote.loteId, bytes);
+            default:
+                throw new IllegalArgumentException("Formato de lote crudo desconocido: " + lote.formato);
+        }
+    }
+    
+    /**
+     * Lote vacío (loteId -1): no hay trabajo disponible.
+     */
+    public static LoteColumnar empty() {
+        return new LoteColumnarBuilder(0).build(-1);
+    }
+    
+    /**
+     * Cantidad de datagramas del lote (0 si llegó sin columnas).
+     */
+    public static int size(LoteColumnar lote) {
+        return lote.busId != null ? lote.busId.length : 0;
+    }
+    
+    /**
+     * Partición de un bus entre particiones (lotes en armado del productor y
+     * asignación estable a Workers). El id se mezcla antes del módulo para que
+     * ids con un factor común con la cantidad de particiones no caigan en las
+     * mismas. El Worker reparte cada lote entre sus tareas con otra mezcla
+     * (LoteProcessor.particionHilo): con esta, solo algunas recibirían datagramas.
+     */
+    public static int particion(int busId, int particiones) {
+        return Math.floorMod(Integer.rotateLeft(busId * 0x9E3779B1, 16), particiones);
+    }
+}
@@ -0,0 +1,169 @@
+package com.mio;
+
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.DatagramDictionary;
+import com.mio.util.DatagramFileFormat;
+import com.mio.util.DatagramParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Convierte archivos de datagramas entre CSV y el formato binario de ancho fijo.
+ * La dirección se deduce de las extensiones (".bin" = binario).
+ *
+ * Uso: ConvertirDatagramas <entrada> <salida>
+ *   Ejemplo: ConvertirDatagramas data/received_datagrams.csv data/received_datagrams.bin
+ */
+public class ConvertirDatagramas {
+    
+    private static final String CSV_HEADER =
+        "eventType,registerDate,stopId,odometer,latitude,longitude,taskId,lineId,tripId,unknown1,datagramDate,busId";
+    private static final int RECORDS_PER_BLOCK = 4096;
+    
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Uso: ConvertirDatagramas <entrada> <salida>");
+            System.exit(1);
+        }
+        
+        Path entrada = Paths.get(args[0]);
+        Path salida = Paths.get(args[1]);
+        DatagramFileFormat formatoEntrada = DatagramFileFormat.fromPath(args[0]);
+        DatagramFileFormat formatoSalida = DatagramFileFormat.fromPath(args[1]);
+        
+        if (formatoEntrada == DatagramFileFormat.SEGMENTED || formatoSalida == DatagramFileFormat.SEGMENTED) {
+            System.err.println("El log segmentado (.seg) no se convierte; solo CSV <-> .bin");
+            System.exit(1);
+        }
+        
+        if (formatoEntrada == formatoSalida) {
+            System.err.println("Entrada y salida tienen el mismo formato (" + formatoEntrada + ")");
+            System.exit(1);
+        }
+        
+        try {
+            long inicio = System.currentTimeMillis();
+            long convertidos = formatoSalida == DatagramFileFormat.BINARY
+                ? csvABinario(entrada, salida)
+                : binarioACsv(entrada, salida);
+            long tiempo = System.currentTimeMillis() - inicio;
+            
+            System.out.printf("Convertidos %d datagramas en %.2f s%n", convertidos, tiempo / 1000.0);
+            System.out.printf("Tamaño: %,d bytes (%s) -> %,d bytes (%s)%n",
+                Files.size(entrada), formatoEntrada, Files.size(salida), formatoSalida);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * CSV -> binario. Las líneas que no se pueden parsear se omiten.
+     */
+    private static long csvABinario(Path entrada, Path salida) throws IOException {
+        Path dictPath = DatagramDictionary.pathFor(salida);
+        Files.deleteIfExists(dictPath);
+        DatagramDictionary dict = new DatagramDictionary(dictPath);
+        
+        long convertidos = 0;
+        long omitidos = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(DatagramBinaryFormat.RECORD_SIZE * RECORDS_PER_BLOCK);
+        
+        try (BufferedReader reader = Files.newBufferedReader(entrada, StandardCharsets.UTF_8);
+             FileChannel out = FileChannel.open(salida, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                 
+            DatagramBinaryFormat.writeHeader(buffer);
+            
+            String line;
+            boolean isFirstLine = true;
+            DatagramParser parser = new DatagramParser();
+            MutableDatagram d = new MutableDatagram();
+            while ((line = reader.readLine()) != null) {
+                if (isFirstLine) {
+                    isFirstLine = false;
+                    if (line.contains("eventType") || line.contains("registerdate")) {
+                        continue;
+                    }
+                }
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                
+                try {
+                    parser.parse(line, d);
+                    if (buffer.remaining() < DatagramBinaryFormat.RECORD_SIZE) {
+                        escribir(out, buffer);
+                    }
+                    DatagramBinaryFormat.write(d, dict, buffer);
+                    convertidos++;
+                } catch (IllegalArgumentException e) {
+                    omitidos++;
+                }
+            }
+            escribir(out, buffer);
+        }
+        
+        if (omitidos > 0) {
+            System.out.println("Líneas omitidas (no parseables): " + omitidos);
+        }
+        return convertidos;
+    }
+    
+    /**
+     * Binario -> CSV (con header).
+     */
+    private static long binarioACsv(Path entrada, Path salida) throws IOException {
+        DatagramDictionary dict = new DatagramDictionary(DatagramDictionary.pathFor(entrada));
+        long convertidos = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(DatagramBinaryFormat.RECORD_SIZE * RECORDS_PER_BLOCK);
+        
+        try (FileChannel in = FileChannel.open(entrada, StandardOpenOption.READ);
+             BufferedWriter writer = Files.newBufferedWriter(salida, StandardCharsets.UTF_8)) {
+             
+            ByteBuffer header = ByteBuffer.allocate(DatagramBinaryFormat.HEADER_SIZE);
+            in.read(header, 0);
+            DatagramBinaryFormat.checkHeader(header, 0);
+            
+            writer.write(CSV_HEADER);
+            writer.newLine();
+            
+            long posicion = DatagramBinaryFormat.HEADER_SIZE;
+            int n;
+            while ((n = in.read(buffer, posicion)) > 0) {
+                int completos = n / DatagramBinaryFormat.RECORD_SIZE;
+                if (completos == 0) {
+                    break; // Registro final truncado
+                }
+                for (int i = 0; i < completos; i++) {
+                    Datagram d = DatagramBinaryFormat.read(buffer, i * DatagramBinaryFormat.RECORD_SIZE, dict);
+                    writer.write(d.toCsvLine());
+                    writer.newLine();
+                }
+                posicion += (long) completos * DatagramBinaryFormat.RECORD_SIZE;
+                convertidos += completos;
+                buffer.clear();
+            }
+        }
+        return convertidos;
+    }
+    
+    private static void escribir(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
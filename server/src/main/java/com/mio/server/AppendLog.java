@@ -0,0 +1,272 @@
+package com.mio.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Log de solo-agregar sobre un FileChannel que permanece abierto.
+ *
+ * Los registros se codifican en un buffer directo reutilizable y se escriben
+ * al canal con una política de group-commit: cada N registros o cada T ms
+ * (lo que ocurra primero), con fsync opcional. Cada llamada puede además
+ * exigir un nivel de durabilidad propio.
+ */
+public class AppendLog implements AutoCloseable {
+    
+    /**
+     * Nivel de durabilidad exigido al confirmar registros.
+     */
+    public enum Durability {
+        /** Queda en el buffer; se escribe según la política de group-commit. */
+        NONE,
+        /** Se escribe al archivo (page cache del SO) antes de retornar. */
+        FLUSH,
+        /** Se escribe y se sincroniza a disco (fsync) antes de retornar. */
+        FSYNC
+    }
+    
+    /**
+     * Política de group-commit.
+     */
+    public static class GroupCommitPolicy {
+        final int maxRecords;
+        final long maxDelayMs;
+        final boolean fsync;
+        
+        /**
+         * @param maxRecords registros pendientes que disparan una escritura
+         * @param maxDelayMs tiempo máximo que un registro puede esperar en el buffer
+         * @param fsync si cada escritura de grupo también sincroniza a disco
+         */
+        public GroupCommitPolicy(int maxRecords, long maxDelayMs, boolean fsync) {
+            this.maxRecords = Math.max(1, maxRecords);
+            this.maxDelayMs = Math.max(1, maxDelayMs);
+            this.fsync = fsync;
+        }
+        
+        public static GroupCommitPolicy defaults() {
+            return new GroupCommitPolicy(1000, 50, false);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("cada %d registros o %d ms%s", maxRecords, maxDelayMs, fsync ? " + fsync" : "");
+        }
+    }
+    
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20; // 1 MB
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final GroupCommitPolicy policy;
+    private final ReentrantLock lock;
+    private final Thread flusherThread;
+    private volatile Runnable writeListener;
+    
+    private int pendingRecords;
+    private long firstPendingAt;
+    private long bytesWritten;
+    private volatile boolean closed;
+    
+    public AppendLog(Path path, GroupCommitPolicy policy) throws IOException {
+        this(path, policy, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public AppendLog(Path path, GroupCommitPolicy policy, int bufferSize) throws IOException {
+        this.path = path;
+        this.policy = policy;
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.lock = new ReentrantLock();
+        this.bytesWritten = channel.size();
+        
+        // Hilo que garantiza el límite de tiempo del group-commit
+        this.flusherThread = new Thread(this::flusherLoop, "AppendLog-Flusher");
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+    
+    /**
+     * Agrega una línea de texto (se le añade el salto de línea).
+     * Debe llamarse con el lock tomado (ver {@link #lock()}).
+     */
+    public void appendLine(CharSequence line) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                writeBuffer();
+                continue;
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            break;
+        }
+        claim(1).put((byte) '\n');
+    }
+    
+    /**
+     * Reserva espacio contiguo en el buffer para escribir un registro binario.
+     * Debe llamarse con el lock tomado (ver {@link #lock()}).
+     * @return el buffer posicionado donde debe escribirse el registro
+     */
+    public ByteBuffer claim(int bytes) throws IOException {
+        if (bytes > buffer.capacity()) {
+            throw new IOException("Registro de " + bytes + " bytes excede el buffer del log");
+        }
+        if (buffer.remaining() < bytes) {
+            writeBuffer();
+        }
+        return buffer;
+    }
+    
+    /**
+     * Confirma los registros agregados desde la última confirmación
+     * y aplica la durabilidad pedida o la política de group-commit.
+     * Debe llamarse con el lock tomado (ver {@link #lock()}).
+     */
+    public void commit(int records, Durability durability) throws IOException {
+        if (pendingRecords == 0 && records > 0) {
+            firstPendingAt = System.currentTimeMillis();
+        }
+        pendingRecords += records;
+        
+        switch (durability) {
+            case FSYNC:
+                writeBuffer();
+                channel.force(false);
+                pendingRecords = 0;
+                break;
+            case FLUSH:
+                flushGroup(false);
+                break;
+            default:
+                if (pendingRecords >= policy.maxRecords) {
+                    flushGroup(policy.fsync);
+                }
+        }
+    }
+    
+    /**
+     * Toma el lock del log; agrupa varias operaciones append/commit.
+     */
+    public void lock() {
+        lock.lock();
+    }
+    
+    public void unlock() {
+        lock.unlock();
+    }
+    
+    /**
+     * Escribe al archivo todo lo pendiente (y sincroniza si se pide).
+     */
+    public void flush(boolean fsync) throws IOException {
+        lock.lock();
+        try {
+            flushGroup(fsync);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void flushGroup(boolean fsync) throws IOException {
+        writeBuffer();
+        if (fsync) {
+            channel.force(false);
+        }
+        pendingRecords = 0;
+    }
+    
+    private void writeBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+        
+        Runnable listener = writeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+    
+    /**
+     * Acción a ejecutar cada vez que se escriben bytes al archivo
+     * (con el lock del log tomado; debe ser rápida).
+     */
+    public void setWriteListener(Runnable writeListener) {
+        this.writeListener = writeListener;
+    }
+    
+    /**
+     * Aplica el límite de tiempo del group-commit.
+     */
+    private void flusherLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(Math.max(1, policy.maxDelayMs / 2));
+            } catch (InterruptedException e) {
+                break;
+            }
+            lock.lock();
+            try {
+                if (!closed && pendingRecords > 0 &&
+                        System.currentTimeMillis() - firstPendingAt >= policy.maxDelayMs) {
+                    flushGroup(policy.fsync);
+                }
+            } catch (IOException e) {
+                System.err.println("[AppendLog] Error en group-commit de " + path + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Bytes escritos al archivo (sin contar lo que sigue en el buffer).
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+    
+    public GroupCommitPolicy getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Escribe lo pendiente, sincroniza y cierra el canal.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushGroup(true);
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+        flusherThread.interrupt();
+    }
+}
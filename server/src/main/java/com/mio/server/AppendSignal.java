@@ -0,0 +1,44 @@
+package com.mio.server;
+
+/**
+ * Señal de "hay datos nuevos" entre el repositorio (quien escribe) y
+ * CCOController (quien lee), para no depender de sondeos con sleep.
+ *
+ * Funciona con un número de secuencia: el lector toma la secuencia antes de
+ * leer y, si no encontró datos, espera a que cambie. Así no se pierde una
+ * señal que llegue entre la lectura y la espera.
+ */
+public class AppendSignal {
+    private long sequence;
+    
+    /**
+     * Notifica que se agregaron datos visibles para los lectores.
+     */
+    public synchronized void signal() {
+        sequence++;
+        notifyAll();
+    }
+    
+    /**
+     * Secuencia actual; se pasa luego a {@link #await(long, long)}.
+     */
+    public synchronized long current() {
+        return sequence;
+    }
+    
+    /**
+     * Espera hasta que la secuencia cambie respecto a seen o pase el timeout.
+     * @return true si hubo una señal, false si se cumplió el timeout
+     */
+    public synchronized boolean await(long seen, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (sequence == seen) {
+            long restante = deadline - System.currentTimeMillis();
+            if (restante <= 0) {
+                return false;
+            }
+            wait(restante);
+        }
+        return true;
+    }
+}
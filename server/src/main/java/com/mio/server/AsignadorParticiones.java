@@ -0,0 +1,348 @@
+package com.mio.server;
+
+import MIO.EstadoBus;
+import MIO.LoteAsignado;
+import MIO.LoteCrudo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Asignación estable de particiones de bus a Workers (getLotesAsignados).
+ *
+ * Cada partición tiene un dueño y sus lotes se entregan solo a él, en orden:
+ * los que salen de DataQueue para otra partición quedan apartados en la
+ * misma DataQueue (ver {@link DataQueue#apartar}) hasta que su dueño los pide.
+ * Así el Worker puede conservar el último datagrama de cada bus entre lotes y
+ * contar los arcos que cruzan de un lote al siguiente.
+ *
+ * Las particiones se reparten en partes iguales entre los Workers activos
+ * (los que pidieron lotes o enviaron resultados dentro del lease). Si un
+ * Worker vence, sus lotes en vuelo vuelven al frente de su partición y sus
+ * particiones pasan a otros; si llega uno nuevo, recibe
+ * particiones sin lotes en vuelo de los que tienen de más. En ambos casos el
+ * nuevo dueño recibe con el primer lote el estado de los buses de la
+ * partición, armado con los resultados recibidos (traspaso).
+ *
+ * Thread-safe: los métodos públicos se sincronizan sobre la instancia.
+ */
+public class AsignadorParticiones {
+    private static final EstadoBus[] SIN_ESTADO = new EstadoBus[0];
+
+    /**
+     * Lote entregado al dueño de su partición y aún sin resultados: su
+     * contenido se conserva para volver a encolarlo si el Worker vence.
+     */
+    private static final class EnVuelo {
+        final int loteId;
+        final ByteBuffer codificado;
+        final int cantidad;
+
+        EnVuelo(int loteId, ByteBuffer codificado, int cantidad) {
+            this.loteId = loteId;
+            this.codificado = codificado;
+            this.cantidad = cantidad;
+        }
+    }
+
+    /**
+     * Partición de bus: su dueño, lotes en vuelo y estado de sus buses.
+     */
+    private static final class Particion {
+        final int indice;
+        final ArrayDeque<EnVuelo> enVuelo = new ArrayDeque<>();
+        final Map<Integer, EstadoBus> estado = new HashMap<>();
+        WorkerActivo dueno;
+        boolean traspaso;
+
+        Particion(int indice) {
+            this.indice = indice;
+        }
+    }
+
+    /**
+     * Worker que usa getLotesAsignados y sus particiones.
+     */
+    private static final class WorkerActivo {
+        final String id;
+        final List<Particion> particiones = new ArrayList<>();
+        long ultimoContacto;
+
+        WorkerActivo(String id) {
+            this.id = id;
+        }
+    }
+
+    private final DataQueue dataQueue;
+    private final Particion[] particiones;
+    private final long leaseMs;
+    private final Map<String, WorkerActivo> workers;
+    private long traspasos;
+    private long reencolados;
+
+    /**
+     * @param particiones particiones de bus del productor (ver LotePartitioner)
+     * @param leaseMs tiempo sin contacto tras el cual un Worker pierde sus particiones
+     */
+    public AsignadorParticiones(DataQueue dataQueue, int particiones, long leaseMs) {
+        this.dataQueue = dataQueue;
+        this.particiones = new Particion[Math.max(1, particiones)];
+        for (int i = 0; i < this.particiones.length; i++) {
+            this.particiones[i] = new Particion(i);
+        }
+        this.leaseMs = leaseMs;
+        this.workers = new HashMap<>();
+    }
+
+    /**
+     * Lotes para el Worker: primero los apartados de sus particiones y luego
+     * los de DataQueue (los de otras particiones se apartan para su dueño,
+     * como máximo maxLotes por partición en cada solicitud, así una sola
+     * solicitud no vacía la cola). Los lotes sin partición se entregan a
+     * quien los pida.
+     * @param maxDatagramas límite de datagramas (el primer lote se entrega aunque lo supere)
+     * @param armar arma la respuesta de un lote y recicla su contenedor
+     * @return los lotes entregados, vacía si no hay lotes para el Worker
+     */
+    public synchronized List<LoteAsignado> tomar(String workerId, int maxLotes, long maxDatagramas,
+                                                 Function<LotePreparado, LoteCrudo> armar) {
+        long ahora = System.currentTimeMillis();
+        WorkerActivo worker = contactar(workerId, ahora);
+        vencerWorkers(ahora);
+        equilibrar(worker);
+
+        List<LoteAsignado> lotes = new ArrayList<>();
+        long restantes = maxDatagramas;
+        for (Particion p : worker.particiones) {
+            while (lotes.size() < maxLotes) {
+                LotePreparado preparado = dataQueue.tomarApartado(p.indice,
+                    lotes.isEmpty() ? Long.MAX_VALUE : restantes);
+                if (preparado == null) {
+                    break;
+                }
+                restantes -= preparado.size();
+                lotes.add(entregar(p, preparado, armar));
+            }
+        }
+
+        long maxApartados = (long) maxLotes * particiones.length;
+        int apartados = 0;
+        while (lotes.size() < maxLotes && apartados < maxApartados) {
+            LotePreparado preparado = dataQueue.tryDequeueLote(lotes.isEmpty() ? Long.MAX_VALUE : restantes);
+            if (preparado == null) {
+                break;
+            }
+            if (preparado.size() == 0) {
+                dataQueue.release(preparado);
+                continue;
+            }
+            Particion p = particion(preparado.getParticion());
+            // Un lote propio detrás de apartados más antiguos también espera su turno
+            if (p != null && (p.dueno != worker || dataQueue.hayApartados(p.indice))) {
+                dataQueue.apartar(preparado);
+                apartados++;
+                continue;
+            }
+            restantes -= preparado.size();
+            lotes.add(entregar(p, preparado, armar));
+        }
+        return lotes;
+    }
+
+    /**
+     * Un lote apartado de una partición sin dueño, para las solicitudes sin
+     * asignación (getLotes, getLoteWait, ...), o null si no hay.
+     */
+    public synchronized LotePreparado tomarHuerfano(long maxDatagramas) {
+        if (dataQueue.getApartados() == 0) {
+            return null;
+        }
+        vencerWorkers(System.currentTimeMillis());
+        for (Particion p : particiones) {
+            if (p.dueno == null) {
+                LotePreparado preparado = dataQueue.tomarApartado(p.indice, maxDatagramas);
+                if (preparado != null) {
+                    return preparado;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registra los resultados de un lote asignado: el fin del lote en vuelo y
+     * el estado de sus buses (se conserva el datagrama más reciente de cada uno).
+     * @return false si el lote ya no estaba en vuelo (el Worker venció y el
+     *         lote se volvió a encolar): sus resultados no deben agregarse
+     */
+    public synchronized boolean registrarResultados(String workerId, int particion, int loteId,
+                                                    EstadoBus[] estado) {
+        WorkerActivo worker = workers.get(workerId);
+        if (worker != null) {
+            worker.ultimoContacto = System.currentTimeMillis();
+        }
+        Particion p = particion(particion);
+        if (p == null) {
+            return true;
+        }
+        if (!p.enVuelo.removeIf(lote -> lote.loteId == loteId)) {
+            return false;
+        }
+        if (estado != null) {
+            for (EstadoBus bus : estado) {
+                EstadoBus anterior = p.estado.get(bus.busId);
+                if (anterior == null || bus.datagramEpoch >= anterior.datagramEpoch) {
+                    p.estado.put(bus.busId, bus);
+                }
+            }
+        }
+        return true;
+    }
+
+    private Particion particion(int indice) {
+        return indice >= 0 && indice < particiones.length ? particiones[indice] : null;
+    }
+
+    private WorkerActivo contactar(String workerId, long ahora) {
+        WorkerActivo worker = workers.get(workerId);
+        if (worker == null) {
+            worker = new WorkerActivo(workerId);
+            workers.put(workerId, worker);
+            System.out.println("[Master] Worker con asignación estable: " + workerId);
+        }
+        worker.ultimoContacto = ahora;
+        return worker;
+    }
+
+    /**
+     * Libera las particiones de los Workers sin contacto dentro del lease.
+     * Sus lotes en vuelo vuelven al frente de los apartados de su partición,
+     * en el orden en que se habían entregado.
+     */
+    private void vencerWorkers(long ahora) {
+        Iterator<WorkerActivo> it = workers.values().iterator();
+        while (it.hasNext()) {
+            WorkerActivo worker = it.next();
+            if (ahora - worker.ultimoContacto <= leaseMs) {
+                continue;
+            }
+            it.remove();
+            int devueltos = 0;
+            for (Particion p : worker.particiones) {
+                p.dueno = null;
+                Iterator<EnVuelo> lotes = p.enVuelo.descendingIterator();
+                while (lotes.hasNext()) {
+                    EnVuelo lote = lotes.next();
+                    dataQueue.reapartar(lote.codificado, lote.cantidad, p.indice);
+                    devueltos++;
+                }
+                p.enVuelo.clear();
+            }
+            reencolados += devueltos;
+            System.out.println("[Master] Worker " + worker.id + " sin contacto, se liberan " +
+                worker.particiones.size() + " particiones y se vuelven a encolar " + devueltos + " lotes");
+            worker.particiones.clear();
+        }
+    }
+
+    /**
+     * Completa la parte del Worker (particiones / Workers activos, redondeado
+     * hacia arriba): primero con particiones libres y luego con particiones
+     * sin lotes en vuelo de los Workers que tienen de más.
+     */
+    private void equilibrar(WorkerActivo worker) {
+        int objetivo = (particiones.length + workers.size() - 1) / workers.size();
+        for (Particion p : particiones) {
+            if (worker.particiones.size() >= objetivo) {
+                return;
+            }
+            if (p.dueno == null) {
+                asignar(p, worker);
+            }
+        }
+        while (worker.particiones.size() < objetivo) {
+            Particion candidata = null;
+            for (Particion p : particiones) {
+                if (p.dueno != null && p.dueno != worker && p.enVuelo.isEmpty()
+                        && p.dueno.particiones.size() > objetivo
+                        && (candidata == null || p.dueno.particiones.size() > candidata.dueno.particiones.size())) {
+                    candidata = p;
+                }
+            }
+            if (candidata == null) {
+                return;
+            }
+            asignar(candidata, worker);
+        }
+    }
+
+    private void asignar(Particion p, WorkerActivo worker) {
+        if (p.dueno != null) {
+            p.dueno.particiones.remove(p);
+        }
+        p.dueno = worker;
+        p.traspaso = true;
+        worker.particiones.add(p);
+        traspasos++;
+    }
+
+    private LoteAsignado entregar(Particion p, LotePreparado preparado, Function<LotePreparado, LoteCrudo> armar) {
+        LoteAsignado lote = new LoteAsignado();
+        lote.particiones = particiones.length;
+        lote.estado = SIN_ESTADO;
+        int cantidad = preparado.size();
+        lote.lote = armar.apply(preparado);
+        if (p == null) {
+            lote.particion = LotePreparado.SIN_PARTICION;
+        } else {
+            lote.particion = p.indice;
+            lote.traspaso = p.traspaso;
+            if (p.traspaso) {
+                lote.estado = p.estado.values().toArray(SIN_ESTADO);
+                p.traspaso = false;
+            }
+            // Los lotes de partición son LoteCodec: se conserva una vista propia
+            // (ICE consume la posición de lote.datos al enviarlo)
+            p.enVuelo.addLast(new EnVuelo(lote.lote.loteId, lote.lote.datos.duplicate(), cantidad));
+        }
+        return lote;
+    }
+
+    /**
+     * Lotes apartados a la espera de su dueño.
+     */
+    public int getGuardados() {
+        return dataQueue.getApartados();
+    }
+
+    /**
+     * Lotes en vuelo de Workers vencidos que se volvieron a encolar.
+     */
+    public synchronized long getReencolados() {
+        return reencolados;
+    }
+
+    /**
+     * Workers con particiones asignadas (activos dentro del lease).
+     */
+    public synchronized int getWorkersActivos() {
+        return workers.size();
+    }
+
+    /**
+     * Veces que una partición cambió de dueño (incluye la primera asignación).
+     */
+    public synchronized long getTraspasos() {
+        return traspasos;
+    }
+
+    public int getParticiones() {
+        return particiones.length;
+    }
+}
@@ -1,12 +1,15 @@
 package com.mio.server;
 
-import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.DatagramDictionary;
+import com.mio.util.DatagramFileFormat;
+import com.mio.util.DatagramParser;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
 
 /**
  * CCOController - Producer del patrón Producer-Consumer.
@@ -14,25 +17,75 @@ import java.util.List;
  * los agrupa en lotes y los encola en DataQueue.
  * 
  * IMPORTANTE: Este controlador hace "tail" del archivo, es decir,
- * espera nuevos datos que el DataReceiver va agregando.
+ * espera nuevos datos que el DataReceiver va agregando. La lectura usa un
+ * FileTailer (canal abierto y buffer reutilizable) y parsea cada línea
+ * directamente desde sus bytes.
+ * Soporta el CSV original, el formato binario de ancho fijo (".bin") y
+ * el log segmentado (".seg"), que se lee como vistas de los segmentos mapeados.
+ * Con el log segmentado puede además reenviar los registros sin parsearlos
+ * (ver {@link #setRawForwarding(boolean)}).
+ *
+ * Si se configura una AppendSignal (ver DatagramRepository), el controlador
+ * despierta apenas hay datos nuevos; el sondeo por tiempo queda solo como
+ * respaldo.
+ *
+ * Los lotes se arman por partición de bus (ver LotePartitioner y
+ * {@link #setParticiones(int)}), no por orden de llegada.
  */
-public class CCOController implements Runnable {
+public class CCOController implements Runnable, LoteProducer {
+    // Espera entre sondeos sin señal, y de respaldo cuando hay señal
+    private static final long POLL_MS = 500;
+    private static final long FALLBACK_POLL_MS = 2000;
+
     private final String dataFilePath;
     private final DataQueue dataQueue;
     private final int batchSize;
+    private final DatagramFileFormat format;
+    private final SegmentedLog segmentedLog;
+    private DatagramDictionary dictionary;
+    // Lotes en armado por partición, reutilizados (DataQueue copia lo que encola)
+    private LotePartitioner lotes;
     private volatile boolean running;
     private long totalProcessed;
     private long totalBatches;
-    private long lastFilePosition;
+    private final FileTailer tailer;
+    private boolean headerChecked;
+    // Parser y registro reutilizados para las líneas CSV y registros binarios
+    private final DatagramParser parser;
+    private final MutableDatagram parsed;
+    private long nextIndex;
+    private volatile AppendSignal appendSignal;
+    // Reenvío de registros crudos (solo log segmentado)
+    private boolean rawForwarding;
+    private int crudosPendientes;
 
     public CCOController(String dataFilePath, DataQueue dataQueue, int batchSize) {
+        this(dataFilePath, null, dataQueue, batchSize);
+    }
+
+    /**
+     * Lee del log segmentado en que escribe el DataReceiver.
+     */
+    public CCOController(SegmentedLog segmentedLog, DataQueue dataQueue, int batchSize) {
+        this(segmentedLog.getDirectory().toString(), segmentedLog, dataQueue, batchSize);
+    }
+
+    private CCOController(String dataFilePath, SegmentedLog segmentedLog, DataQueue dataQueue, int batchSize) {
         this.dataFilePath = dataFilePath;
+        this.segmentedLog = segmentedLog;
         this.dataQueue = dataQueue;
         this.batchSize = batchSize;
+        this.format = segmentedLog != null ? DatagramFileFormat.SEGMENTED : DatagramFileFormat.fromPath(dataFilePath);
+        this.dictionary = segmentedLog != null ? segmentedLog.getDictionary() : null;
+        this.lotes = new LotePartitioner(dataQueue, batchSize, 1);
         this.running = false;
         this.totalProcessed = 0;
         this.totalBatches = 0;
-        this.lastFilePosition = 0;
+        this.tailer = new FileTailer(Paths.get(dataFilePath));
+        this.headerChecked = false;
+        this.parser = new DatagramParser();
+        this.parsed = new MutableDatagram();
+        this.nextIndex = segmentedLog != null ? segmentedLog.getFirstIndex() : 0;
     }
 
     @Override
@@ -40,86 +93,60 @@ public class CCOController implements Runnable {
         running = true;
         System.out.println("[CCOController] Iniciado - monitoreando archivo: " + dataFilePath);
         System.out.println("[CCOController] Tamaño de lote: " + batchSize);
-        System.out.println("[CCOController] Modo: tail continuo (espera nuevos datos)");
+        System.out.println("[CCOController] Modo: tail continuo (espera nuevos datos), formato " + format);
 
-        List<Datagram> currentBatch = new ArrayList<>();
         int emptyReads = 0;
-        boolean headerSkipped = false;
 
         while (running) {
             try {
-                // Usar RandomAccessFile para poder hacer "tail"
-                java.io.File file = new java.io.File(dataFilePath);
-                
+                // Tomar la secuencia antes de leer para no perder señales
+                AppendSignal signal = appendSignal;
+                long seq = signal != null ? signal.current() : 0;
+
+                // Log segmentado: los registros nuevos se leen del segmento mapeado
+                if (segmentedLog != null) {
+                    int leidos = rawForwarding ? leerSegmentosCrudos(false) : leerSegmentos();
+                    if (leidos > 0) {
+                        emptyReads = 0;
+                    } else {
+                        emptyReads++;
+                        if (emptyReads % 60 == 0) {
+                            System.out.println("[CCOController] Esperando más datos... (índice: " + nextIndex + ")");
+                        }
+                        esperarDatos(signal, seq, POLL_MS);
+                    }
+                    continue;
+                }
+
                 // Esperar a que el archivo exista
-                if (!file.exists()) {
+                if (!tailer.open()) {
                     if (emptyReads % 20 == 0) {
                         System.out.println("[CCOController] Esperando archivo: " + dataFilePath);
                     }
                     emptyReads++;
-                    Thread.sleep(1000);
+                    esperarDatos(signal, seq, 2 * POLL_MS);
                     continue;
                 }
 
-                long fileLength = file.length();
-                
-                // Si no hay datos nuevos, esperar
-                if (fileLength <= lastFilePosition) {
-                    emptyReads++;
-                    if (emptyReads % 60 == 0) {
-                        System.out.println("[CCOController] Esperando más datos... (posición: " + lastFilePosition + ")");
-                    }
-                    Thread.sleep(500);
+                // Leer lo nuevo: registros binarios o líneas CSV como rangos de bytes
+                int leidos = format == DatagramFileFormat.BINARY ? leerRegistrosBinarios() : leerLineas();
+                if (leidos > 0) {
+                    emptyReads = 0;
                     continue;
                 }
 
-                // Leer nuevos datos desde la última posición
-                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                    raf.seek(lastFilePosition);
-                    
-                    String line;
-                    while (running && (line = raf.readLine()) != null) {
-                        // Convertir de ISO-8859-1 (default de readLine) a UTF-8
-                        line = new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
-                        
-                        // Saltar header si es la primera línea
-                        if (!headerSkipped && lastFilePosition == 0) {
-                            headerSkipped = true;
-                            if (line.contains("eventType") || line.contains("registerDate") || line.contains("registerdate")) {
-                                lastFilePosition = raf.getFilePointer();
-                                continue;
-                            }
-                        }
-
-                        // Saltar líneas vacías
-                        if (line.trim().isEmpty()) {
-                            continue;
-                        }
-
-                        try {
-                            // Parsear datagrama
-                            Datagram datagram = Datagram.fromCsvLine(line);
-                            currentBatch.add(datagram);
-                            totalProcessed++;
-                            emptyReads = 0; // Reiniciar contador
-
-                            // Si el lote está completo, encolarlo
-                            if (currentBatch.size() >= batchSize) {
-                                enqueueBatch(currentBatch);
-                                currentBatch = new ArrayList<>();
-                            }
-
-                        } catch (Exception e) {
-                            // Log solo cada ciertos errores para no saturar
-                            if (totalProcessed % 10000 == 0) {
-                                System.err.println("[CCOController] Error parseando (ignorando): " + e.getMessage());
-                            }
-                        }
-                    }
-                    
-                    // Actualizar posición
-                    lastFilePosition = raf.getFilePointer();
+                // Si no hay datos nuevos, esperar
+                emptyReads++;
+                if (emptyReads % 60 == 0) {
+                    System.out.println("[CCOController] Esperando más datos... (posición: " + tailer.getPosition() + ")");
+                }
+                if (tailer.checkReset()) {
+                    System.out.println("[CCOController] Archivo truncado o reemplazado, leyendo desde el inicio");
+                    headerChecked = false;
+                    dictionary = null;
+                    continue;
                 }
+                esperarDatos(signal, seq, POLL_MS);
 
             } catch (InterruptedException e) {
                 System.out.println("[CCOController] Interrumpido");
@@ -135,14 +162,26 @@ public class CCOController implements Runnable {
                 }
             }
         }
+        
+        try {
+            tailer.close();
+        } catch (IOException e) {
+            System.err.println("[CCOController] Error cerrando archivo: " + e.getMessage());
+        }
 
-        // Encolar el último lote si tiene datos
-        if (!currentBatch.isEmpty()) {
+        // Encolar los últimos lotes si tienen datos
+        if (!lotes.isEmpty() || rawForwarding) {
             try {
-                enqueueBatch(currentBatch);
+                if (rawForwarding) {
+                    leerSegmentosCrudos(true);
+                } else {
+                    encolarPendientes();
+                }
             } catch (InterruptedException e) {
                 System.err.println("[CCOController] Interrumpido al encolar último lote");
                 Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("[CCOController] Error leyendo el último lote: " + e.getMessage());
             }
         }
 
@@ -150,16 +189,228 @@ public class CCOController implements Runnable {
         System.out.println("  - Total datagramas procesados: " + totalProcessed);
         System.out.println("  - Total lotes encolados: " + totalBatches);
         running = false;
-    }    /**
-     * Encola un lote en DataQueue (bloqueante).
+    }
+
+    /**
+     * Espera datos nuevos: con señal, hasta que el repositorio notifique
+     * (o venza el sondeo de respaldo); sin señal, duerme el intervalo de sondeo.
+     */
+    private void esperarDatos(AppendSignal signal, long seq, long pollMs) throws InterruptedException {
+        if (signal != null) {
+            signal.await(seq, FALLBACK_POLL_MS);
+        } else {
+            Thread.sleep(pollMs);
+        }
+    }
+
+    /**
+     * Activa el reenvío crudo: en lugar de parsear el log segmentado, cada
+     * lote es una vista de sus registros que el Master entrega tal cual
+     * (getLoteCrudo) y que el Worker decodifica. Solo aplica al log
+     * segmentado; debe llamarse antes de iniciar el hilo.
+     */
+    public void setRawForwarding(boolean rawForwarding) {
+        if (rawForwarding && segmentedLog == null) {
+            System.err.println("[CCOController] El reenvío crudo requiere log segmentado (.seg); se parsea " + format);
+            return;
+        }
+        this.rawForwarding = rawForwarding;
+    }
+
+    /**
+     * Arma los lotes en la cantidad de particiones de bus indicada (1 = un
+     * solo lote en armado, por orden de llegada). No aplica al reenvío crudo,
+     * cuyos lotes son rangos del log. Debe llamarse antes de iniciar el hilo.
+     */
+    public void setParticiones(int particiones) {
+        this.lotes = new LotePartitioner(dataQueue, batchSize, particiones);
+    }
+
+    /**
+     * Configura la señal de datos nuevos del repositorio que escribe el archivo.
+     */
+    public void setAppendSignal(AppendSignal appendSignal) {
+        this.appendSignal = appendSignal;
+    }
+
+    /**
+     * Agrega el datagrama parseado al lote de su partición; si el lote se
+     * completa, se encola.
+     */
+    private void agregarAlLote(MutableDatagram datagram) throws InterruptedException {
+        totalProcessed++;
+        if (lotes.add(datagram)) {
+            contarLote();
+        }
+    }
+
+    /**
+     * Lee las líneas CSV completas disponibles desde la última posición.
+     * @return cantidad de líneas leídas
+     */
+    private int leerLineas() throws IOException, InterruptedException {
+        int total = 0;
+        int n;
+        while (running && (n = tailer.readLines(this::procesarLinea)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+    
+    /**
+     * Parsea una línea dada como rango de bytes y la agrega al lote.
+     */
+    private void procesarLinea(byte[] buf, int start, int end) throws InterruptedException {
+        // Saltar header si es la primera línea del archivo
+        if (!headerChecked) {
+            headerChecked = true;
+            String primera = new String(buf, start, end - start, StandardCharsets.UTF_8);
+            if (primera.contains("eventType") || primera.contains("registerDate") || primera.contains("registerdate")) {
+                return;
+            }
+        }
+        
+        // Saltar líneas vacías
+        if (esVacia(buf, start, end)) {
+            return;
+        }
+        
+        try {
+            parser.parse(buf, start, end, parsed);
+            agregarAlLote(parsed);
+        } catch (IllegalArgumentException e) {
+            // Log solo cada ciertos errores para no saturar
+            if (totalProcessed % 10000 == 0) {
+                System.err.println("[CCOController] Error parseando (ignorando): " + e.getMessage());
+            }
+        }
+    }
+    
+    private static boolean esVacia(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buf[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Lee los registros binarios completos disponibles desde la última posición.
+     * Un registro a medio escribir se deja para la siguiente lectura.
+     * @return cantidad de registros leídos
      */
-    private void enqueueBatch(List<Datagram> batch) throws InterruptedException {
-        dataQueue.enqueueLote(batch);
+    private int leerRegistrosBinarios() throws IOException, InterruptedException {
+        // Validar header la primera vez
+        if (dictionary == null) {
+            ByteBuffer header = tailer.readExactly(DatagramBinaryFormat.HEADER_SIZE);
+            if (header == null) {
+                return 0;
+            }
+            DatagramBinaryFormat.checkHeader(header, 0);
+            dictionary = new DatagramDictionary(DatagramDictionary.pathFor(tailer.getPath()));
+        }
+
+        int total = 0;
+        int n;
+        while (running && (n = tailer.readRecords(DatagramBinaryFormat.RECORD_SIZE, this::procesarRegistro)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    private void procesarRegistro(ByteBuffer buf, int offset) throws InterruptedException {
+        try {
+            DatagramBinaryFormat.read(buf, offset, dictionary, parsed);
+            agregarAlLote(parsed);
+        } catch (IOException e) {
+            if (totalProcessed % 10000 == 0) {
+                System.err.println("[CCOController] Registro binario inválido (ignorando): " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lee los registros confirmados del log segmentado desde el último índice.
+     * Cada lectura es una vista del segmento mapeado, sin copiar a un buffer propio.
+     * @return cantidad de registros leídos
+     */
+    private int leerSegmentos() throws IOException, InterruptedException {
+        int leidos = 0;
+        while (running) {
+            ByteBuffer registros = segmentedLog.read(nextIndex, 4096);
+            int completos = registros.remaining() / DatagramBinaryFormat.RECORD_SIZE;
+            if (completos == 0) {
+                break;
+            }
+
+            for (int i = 0; i < completos; i++) {
+                try {
+                    DatagramBinaryFormat.read(registros, i * DatagramBinaryFormat.RECORD_SIZE, dictionary, parsed);
+                    agregarAlLote(parsed);
+                } catch (IOException e) {
+                    if (totalProcessed % 10000 == 0) {
+                        System.err.println("[CCOController] Registro binario inválido (ignorando): " + e.getMessage());
+                    }
+                }
+            }
+            nextIndex += completos;
+            leidos += completos;
+            segmentedLog.markConsumed(nextIndex);
+        }
+        return leidos;
+    }
+
+    /**
+     * Como leerSegmentos, pero sin parsear: cada lote es una vista de hasta
+     * batchSize registros de un segmento (no cruza de segmento) y se encola
+     * tal cual. Un lote incompleto al final del log espera más registros,
+     * salvo que el log no haya crecido desde la pasada anterior.
+     * @param vaciar encola lo que haya aunque el lote quede incompleto
+     * @return cantidad de registros encolados
+     */
+    private int leerSegmentosCrudos(boolean vaciar) throws IOException, InterruptedException {
+        int leidos = 0;
+        while (running || vaciar) {
+            ByteBuffer registros = segmentedLog.read(nextIndex, batchSize);
+            int completos = registros.remaining() / DatagramBinaryFormat.RECORD_SIZE;
+            if (completos == 0) {
+                break;
+            }
+
+            boolean alFinal = nextIndex + completos >= segmentedLog.getNextIndex();
+            if (!vaciar && completos < batchSize && alFinal && completos > crudosPendientes) {
+                crudosPendientes = completos;
+                break;
+            }
+            crudosPendientes = 0;
+
+            // El diccionario ya tiene los códigos de estos registros: se registran antes de escribirlos
+            dataQueue.enqueueCrudo(registros, dictionary.snapshot());
+            totalProcessed += completos;
+            contarLote();
+            nextIndex += completos;
+            leidos += completos;
+            segmentedLog.markConsumed(nextIndex);
+        }
+        return leidos;
+    }
+
+    /**
+     * Encola en DataQueue los lotes parciales de todas las particiones (bloqueante).
+     */
+    private void encolarPendientes() throws InterruptedException {
+        for (int encolados = lotes.flush(); encolados > 0; encolados--) {
+            contarLote();
+        }
+    }
+    
+    private void contarLote() {
         totalBatches++;
         
         if (totalBatches % 10 == 0) {
-            System.out.printf("[CCOController] Lotes encolados: %d | Datagramas: %d | Cola: %d/%d lotes\n",
-                totalBatches, totalProcessed, dataQueue.size(), dataQueue.getCapacity());
+            System.out.printf("[CCOController] Lotes encolados: %d | Datagramas: %d | Cola: %s\n",
+                totalBatches, totalProcessed, dataQueue.describirLlenado());
         }
     }
     
@@ -168,6 +419,11 @@ public class CCOController implements Runnable {
      */
     public void stop() {
         running = false;
+        // Despertarlo si está esperando datos
+        AppendSignal signal = appendSignal;
+        if (signal != null) {
+            signal.signal();
+        }
     }
     
     /**
@@ -180,6 +436,7 @@ public class CCOController implements Runnable {
     /**
      * Total de datagramas procesados.
      */
+    @Override
     public long getTotalProcessed() {
         return totalProcessed;
     }
@@ -187,6 +444,7 @@ public class CCOController implements Runnable {
     /**
      * Total de lotes encolados.
      */
+    @Override
     public long getTotalBatches() {
         return totalBatches;
     }
@@ -1,78 +1,792 @@
 package com.mio.server;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.List;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-import com.mio.model.Datagram;
+import com.mio.util.LoteColumnarBuilder;
 
 /**
  * Cola thread-safe para el patrón Producer-Consumer con lotes.
  * CCOController produce lotes de datagramas (Producer).
  * Master consumirá lotes de datagramas (Consumer).
+ *
+ * Es un buffer circular acotado sobre un pool fijo de contenedores
+ * (LotePreparado) que se reservan al crear la cola y se reciclan después de
+ * despachar cada lote, así el ciclo encolar → despachar no reserva memoria
+ * en estado estable. Los lotes se guardan ya codificados: la codificación
+ * corre en el hilo del productor al encolar, fuera del camino de las
+ * solicitudes de los Workers.
+ *
+ * La capacidad se expresa en registros (datagramas) y opcionalmente en
+ * bytes; el productor espera mientras encolar el lote la exceda.
+ *
+ * Con un nivel en disco (ver {@link #enableSpill}) el productor no espera:
+ * los lotes que no caben en memoria se escriben a disco y, mientras quede
+ * alguno allí, los siguientes también, así el orden FIFO se mantiene entre
+ * ambos niveles. Los consumidores leen primero la memoria y luego el disco.
+ *
+ * Los lotes de una partición de bus que salen de la cola para un Worker que
+ * no es su dueño quedan apartados aquí, por partición (ver {@link #apartar}):
+ * siguen contando en la capacidad y, con nivel en disco, van a disco cuando
+ * no caben en memoria.
  */
 public class DataQueue {
-    private final BlockingQueue<List<Datagram>> queue;
-    private final int capacity;
+    // Contenedores extra para lotes en despacho y el que arma el productor
+    private static final int HOLGURA_CONTENEDORES = 4;
+    // Estimación para dimensionar el pool cuando solo hay límite en bytes
+    private static final int BYTES_POR_REGISTRO_ESTIMADOS = 24;
+    // Tamaño de cada archivo del nivel en disco
+    private static final long SPILL_SEGMENT_BYTES = 64L * 1024 * 1024;
     
-    public DataQueue(int capacity) {
-        this.capacity = capacity;
-        this.queue = new LinkedBlockingQueue<>(capacity);
+    /**
+     * Lotes apartados de una partición: primero los de memoria y luego los
+     * de disco (mientras quede alguno en disco los nuevos también van a
+     * disco, así se mantiene el orden como en la cola principal).
+     */
+    private static final class Apartados {
+        final ArrayDeque<LotePreparado> memoria = new ArrayDeque<>();
+        SpillLog disco;
+        
+        boolean hayEnDisco() {
+            return disco != null && !disco.isEmpty();
+        }
+    }
+    
+    private final long maxRecords;
+    private final long maxBytes;
+    private final LotePreparado[] listos;
+    private final LotePreparado[] libres;
+    private final ReentrantLock lock;
+    private final Condition hayLotes;
+    private final Condition hayEspacio;
+    
+    private int head;
+    private int count;
+    private int libresCount;
+    private long records;
+    private long bytes;
+    private SpillLog spill;
+    private long spillMaxBytes;
+    private final Map<Integer, Apartados> apartados;
+    private int apartadosLotes;
+    private volatile Runnable publishListener;
+    
+    // Métricas de llenado
+    private long peakRecords;
+    private long peakBytes;
+    private long producerWaits;
+    
+    /**
+     * @param maxRecords datagramas que puede retener la cola (0 = sin límite en registros)
+     * @param maxBytes bytes que pueden ocupar los lotes en cola (0 = sin límite en bytes)
+     * @param batchSize datagramas por lote, para dimensionar el pool de contenedores
+     */
+    public DataQueue(long maxRecords, long maxBytes, int batchSize) {
+        if (maxRecords <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("DataQueue necesita capacidad en registros o en bytes");
+        }
+        this.maxRecords = Math.max(0, maxRecords);
+        this.maxBytes = Math.max(0, maxBytes);
+        
+        long porRegistros = this.maxRecords > 0 ? (this.maxRecords + batchSize - 1) / batchSize : Long.MAX_VALUE;
+        long porBytes = this.maxBytes > 0
+            ? (this.maxBytes + (long) batchSize * BYTES_POR_REGISTRO_ESTIMADOS - 1) / ((long) batchSize * BYTES_POR_REGISTRO_ESTIMADOS)
+            : Long.MAX_VALUE;
+        int lotes = (int) Math.max(1, Math.min(Math.min(porRegistros, porBytes), Integer.MAX_VALUE / 2));
+        int contenedores = lotes + HOLGURA_CONTENEDORES;
+        
+        this.listos = new LotePreparado[contenedores];
+        this.libres = new LotePreparado[contenedores];
+        int capacidadBytes = 64 + batchSize * BYTES_POR_REGISTRO_ESTIMADOS;
+        for (int i = 0; i < contenedores; i++) {
+            libres[i] = new LotePreparado(capacidadBytes);
+        }
+        this.libresCount = contenedores;
+        this.apartados = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.hayLotes = lock.newCondition();
+        this.hayEspacio = lock.newCondition();
+    }
+    
+    /**
+     * Activa el nivel en disco (debe llamarse antes de encolar).
+     * @param maxBytes tamaño máximo en disco, incluidos los lotes apartados (0 = sin límite);
+     *                 al llenarse el productor vuelve a esperar
+     */
+    public void enableSpill(Path directory, long maxBytes) throws IOException {
+        SpillLog nuevo = new SpillLog(directory, SPILL_SEGMENT_BYTES, maxBytes);
+        lock.lock();
+        try {
+            this.spill = nuevo;
+            this.spillMaxBytes = Math.max(0, maxBytes);
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
-     * Agrega un lote de datagramas a la cola (bloqueante si está llena).
-     * @param lote el lote de datagramas a encolar
+     * Codifica el contenido del builder y lo encola (bloqueante si la cola
+     * está llena). El builder puede reutilizarse al retornar.
      * @throws InterruptedException si el thread es interrumpido
      */
-    public void enqueueLote(List<Datagram> lote) throws InterruptedException {
-        queue.put(lote);
+    public void enqueueLote(LoteColumnarBuilder lote) throws InterruptedException {
+        enqueueLote(lote, LotePreparado.SIN_PARTICION);
+    }
+    
+    /**
+     * Como {@link #enqueueLote(LoteColumnarBuilder)}, para el lote de una partición de bus.
+     */
+    public void enqueueLote(LoteColumnarBuilder lote, int particion) throws InterruptedException {
+        LotePreparado contenedor = tomarContenedor(true);
+        contenedor.codificar(lote, particion);
+        publicar(contenedor, true);
     }
     
     /**
-     * Intenta agregar un lote sin bloquear.
-     * @param lote el lote de datagramas a encolar
+     * Intenta encolar sin bloquear.
      * @return true si se agregó, false si la cola estaba llena
      */
-    public boolean tryEnqueueLote(List<Datagram> lote) {
-        return queue.offer(lote);
+    public boolean tryEnqueueLote(LoteColumnarBuilder lote) {
+        return tryEnqueueLote(lote, LotePreparado.SIN_PARTICION);
+    }
+    
+    /**
+     * Como {@link #tryEnqueueLote(LoteColumnarBuilder)}, para el lote de una partición de bus.
+     */
+    public boolean tryEnqueueLote(LoteColumnarBuilder lote, int particion) {
+        try {
+            LotePreparado contenedor = tomarContenedor(false);
+            if (contenedor == null) {
+                return false;
+            }
+            contenedor.codificar(lote, particion);
+            return publicar(contenedor, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Encola registros crudos del log segmentado (ver LotePreparado).
+     * @throws InterruptedException si el thread es interrumpido
+     */
+    public void enqueueCrudo(ByteBuffer registros, String[] diccionario) throws InterruptedException {
+        LotePreparado contenedor = tomarContenedor(true);
+        contenedor.crudo(registros, diccionario);
+        publicar(contenedor, true);
+    }
+    
+    private LotePreparado tomarContenedor(boolean esperar) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (libresCount == 0) {
+                if (!esperar) {
+                    return null;
+                }
+                producerWaits++;
+                hayEspacio.await();
+            }
+            return libres[--libresCount];
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Acción a ejecutar después de cada lote encolado (en memoria o en disco),
+     * fuera del lock de la cola. La usa el Master para despertar solicitudes
+     * en espera (getLoteWait).
+     */
+    public void setPublishListener(Runnable publishListener) {
+        this.publishListener = publishListener;
+    }
+    
+    private boolean publicar(LotePreparado contenedor, boolean esperar) throws InterruptedException {
+        boolean publicado = encolar(contenedor, esperar);
+        Runnable listener = publishListener;
+        if (publicado && listener != null) {
+            listener.run();
+        }
+        return publicado;
+    }
+    
+    private boolean encolar(LotePreparado contenedor, boolean esperar) throws InterruptedException {
+        lock.lock();
+        try {
+            // Un lote mayor que toda la capacidad pasa solo si la cola está vacía
+            while (hayEnDisco() || (count > 0 && excede(contenedor))) {
+                if (derramar(contenedor)) {
+                    return true;
+                }
+                if (!esperar) {
+                    devolver(contenedor);
+                    return false;
+                }
+                producerWaits++;
+                try {
+                    hayEspacio.await();
+                } catch (InterruptedException e) {
+                    devolver(contenedor);
+                    throw e;
+                }
+            }
+            listos[(head + count) % listos.length] = contenedor;
+            count++;
+            sumar(contenedor);
+            hayLotes.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void sumar(LotePreparado contenedor) {
+        records += contenedor.size();
+        bytes += contenedor.getBytes();
+        peakRecords = Math.max(peakRecords, records);
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+    
+    private void restar(LotePreparado contenedor) {
+        records -= contenedor.size();
+        bytes -= contenedor.getBytes();
+        hayEspacio.signalAll();
+    }
+    
+    private boolean hayEnDisco() {
+        return spill != null && !spill.isEmpty();
+    }
+    
+    /**
+     * Lotes en disco de la cola y apartados.
+     */
+    private int lotesEnDisco() {
+        if (spill == null) {
+            return 0;
+        }
+        int total = spill.getLotes();
+        for (Apartados a : apartados.values()) {
+            if (a.disco != null) {
+                total += a.disco.getLotes();
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Bytes en disco de la cola y de los lotes apartados.
+     */
+    private long bytesEnDisco() {
+        if (spill == null) {
+            return 0;
+        }
+        long total = spill.getBytes();
+        for (Apartados a : apartados.values()) {
+            if (a.disco != null) {
+                total += a.disco.getBytes();
+            }
+        }
+        return total;
+    }
+    
+    private boolean excedeDisco(LotePreparado contenedor) {
+        long enDisco = bytesEnDisco();
+        return spillMaxBytes > 0 && enDisco > 0 && enDisco + contenedor.getBytes() > spillMaxBytes;
+    }
+    
+    /**
+     * Escribe el lote en el nivel en disco y recicla el contenedor.
+     * @return false si no hay nivel en disco, está lleno o falló la escritura
+     */
+    private boolean derramar(LotePreparado contenedor) {
+        if (spill == null || excedeDisco(contenedor)) {
+            return false;
+        }
+        try {
+            if (!spill.write(contenedor)) {
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("[DataQueue] Error escribiendo lote a disco: " + e.getMessage());
+            return false;
+        }
+        devolver(contenedor);
+        hayLotes.signal();
+        return true;
+    }
+    
+    private boolean excede(LotePreparado contenedor) {
+        return (maxRecords > 0 && records + contenedor.size() > maxRecords)
+            || (maxBytes > 0 && bytes + contenedor.getBytes() > maxBytes);
     }
     
     /**
      * Obtiene y remueve el siguiente lote (bloqueante si está vacía).
+     * El llamador debe devolverlo con {@link #release} al terminar de usarlo.
      * @return el siguiente lote de datagramas
      * @throws InterruptedException si el thread es interrumpido
      */
-    public List<Datagram> dequeueLote() throws InterruptedException {
-        return queue.take();
+    public LotePreparado dequeueLote() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            LotePreparado lote;
+            while ((lote = siguiente()) == null) {
+                hayLotes.await();
+            }
+            return lote;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
-     * Intenta obtener un lote sin bloquear.
+     * Intenta obtener un lote sin bloquear (devolverlo luego con {@link #release}).
      * @return el siguiente lote, o null si está vacía
      */
-    public List<Datagram> tryDequeueLote() {
-        return queue.poll();
+    public LotePreparado tryDequeueLote() {
+        lock.lock();
+        try {
+            return siguiente();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Como {@link #tryDequeueLote()}, pero solo si el lote más antiguo tiene
+     * como máximo maxRecords datagramas (si no, queda en la cola).
+     */
+    public LotePreparado tryDequeueLote(long maxRecords) {
+        lock.lock();
+        try {
+            if (maxRecords < Long.MAX_VALUE && tamanoSiguiente() > maxRecords) {
+                return null;
+            }
+            return siguiente();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private long tamanoSiguiente() {
+        if (count > 0) {
+            return listos[head].size();
+        }
+        if (hayEnDisco()) {
+            try {
+                return Math.max(0, spill.peekCantidad());
+            } catch (IOException e) {
+                System.err.println("[DataQueue] Error leyendo lote de disco: " + e.getMessage());
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Lote más antiguo: de memoria, o del disco si la memoria está vacía.
+     */
+    private LotePreparado siguiente() {
+        if (count > 0) {
+            return sacar();
+        }
+        if (!hayEnDisco() || libresCount == 0) {
+            return null;
+        }
+        LotePreparado contenedor = libres[--libresCount];
+        try {
+            if (spill.read(contenedor)) {
+                hayEspacio.signalAll();
+                return contenedor;
+            }
+        } catch (IOException e) {
+            System.err.println("[DataQueue] Error leyendo lote de disco: " + e.getMessage());
+        }
+        devolver(contenedor);
+        return null;
+    }
+    
+    private LotePreparado sacar() {
+        LotePreparado contenedor = listos[head];
+        listos[head] = null;
+        head = (head + 1) % listos.length;
+        count--;
+        restar(contenedor);
+        return contenedor;
+    }
+    
+    // ==================== Lotes apartados por partición ====================
+    
+    /**
+     * Aparta un lote de partición ya sacado de la cola hasta que lo pida el
+     * dueño de la partición (ver AsignadorParticiones). Sigue contando en la
+     * capacidad; si no cabe en memoria y hay nivel en disco, va a disco (si el
+     * disco está lleno queda en memoria).
+     */
+    public void apartar(LotePreparado contenedor) {
+        lock.lock();
+        try {
+            Apartados a = apartados(contenedor.getParticion());
+            apartadosLotes++;
+            if ((a.hayEnDisco() || excede(contenedor)) && derramarApartado(a, contenedor)) {
+                return;
+            }
+            a.memoria.addLast(contenedor);
+            sumar(contenedor);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Devuelve al frente de los apartados de su partición un lote codificado
+     * que ya se había entregado (en vuelo en un Worker que venció). Si no hay
+     * contenedores libres usa uno nuevo, que se descarta al reciclarlo.
+     */
+    public void reapartar(ByteBuffer codificado, int cantidad, int particion) {
+        lock.lock();
+        try {
+            LotePreparado contenedor = libresCount > 0
+                ? libres[--libresCount] : new LotePreparado(codificado.remaining());
+            contenedor.cargarCodificado(codificado.duplicate(), cantidad, particion);
+            apartados(particion).memoria.addFirst(contenedor);
+            apartadosLotes++;
+            sumar(contenedor);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Saca el lote apartado más antiguo de la partición (de memoria, o de
+     * disco si la memoria no tiene), si tiene como máximo maxRecords
+     * datagramas. Devolverlo luego con {@link #release}.
+     * @return el lote, o null si no hay
+     */
+    public LotePreparado tomarApartado(int particion, long maxRecords) {
+        lock.lock();
+        try {
+            Apartados a = apartados.get(particion);
+            if (a == null) {
+                return null;
+            }
+            LotePreparado contenedor = a.memoria.peekFirst();
+            if (contenedor != null) {
+                if (contenedor.size() > maxRecords) {
+                    return null;
+                }
+                a.memoria.pollFirst();
+                apartadosLotes--;
+                restar(contenedor);
+                return contenedor;
+            }
+            if (!a.hayEnDisco() || libresCount == 0) {
+                return null;
+            }
+            try {
+                if (a.disco.peekCantidad() > maxRecords) {
+                    return null;
+                }
+            } catch (IOException e) {
+                System.err.println("[DataQueue] Error leyendo lote apartado de disco: " + e.getMessage());
+                return null;
+            }
+            contenedor = libres[--libresCount];
+            try {
+                if (a.disco.read(contenedor)) {
+                    apartadosLotes--;
+                    hayEspacio.signalAll();
+                    return contenedor;
+                }
+            } catch (IOException e) {
+                System.err.println("[DataQueue] Error leyendo lote apartado de disco: " + e.getMessage());
+            }
+            devolver(contenedor);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Indica si la partición tiene lotes apartados.
+     */
+    public boolean hayApartados(int particion) {
+        lock.lock();
+        try {
+            Apartados a = apartados.get(particion);
+            return a != null && (!a.memoria.isEmpty() || a.hayEnDisco());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Lotes apartados (memoria y disco) de todas las particiones.
+     */
+    public int getApartados() {
+        lock.lock();
+        try {
+            return apartadosLotes;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private Apartados apartados(int particion) {
+        return apartados.computeIfAbsent(particion, p -> new Apartados());
+    }
+    
+    /**
+     * Escribe un lote apartado en el disco de su partición (un SpillLog por
+     * partición, en un subdirectorio del nivel en disco) y recicla el contenedor.
+     * @return false si no hay nivel en disco, está lleno o falló la escritura
+     */
+    private boolean derramarApartado(Apartados a, LotePreparado contenedor) {
+        if (spill == null || excedeDisco(contenedor)) {
+            return false;
+        }
+        try {
+            if (a.disco == null) {
+                a.disco = new SpillLog(spill.getDirectory().resolve("particion-" + contenedor.getParticion()),
+                    SPILL_SEGMENT_BYTES, 0);
+            }
+            if (!a.disco.write(contenedor)) {
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("[DataQueue] Error escribiendo lote apartado a disco: " + e.getMessage());
+            return false;
+        }
+        devolver(contenedor);
+        return true;
     }
     
     /**
-     * Número de lotes en la cola.
+     * Recicla el contenedor de un lote ya despachado.
+     */
+    public void release(LotePreparado contenedor) {
+        lock.lock();
+        try {
+            devolver(contenedor);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void devolver(LotePreparado contenedor) {
+        contenedor.limpiar();
+        if (libresCount < libres.length) {
+            // Si no, es un contenedor extra de reapartar: se descarta
+            libres[libresCount++] = contenedor;
+        }
+        hayEspacio.signalAll();
+        if (hayEnDisco()) {
+            // Un consumidor pudo quedar esperando un contenedor para leer del disco
+            hayLotes.signal();
+        }
+    }
+    
+    /**
+     * Número de lotes en la cola (memoria y disco).
      */
     public int size() {
-        return queue.size();
+        lock.lock();
+        try {
+            return count + (spill != null ? spill.getLotes() : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Lotes en el nivel en memoria.
+     */
+    public int getMemoryLotes() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Lotes en el nivel en disco, incluidos los apartados (0 sin spill).
+     */
+    public int getDiskLotes() {
+        lock.lock();
+        try {
+            return lotesEnDisco();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Bytes en el nivel en disco, incluidos los apartados.
+     */
+    public long getDiskBytes() {
+        lock.lock();
+        try {
+            return bytesEnDisco();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Lotes que pasaron por disco desde que se activó el spill.
+     */
+    public long getSpilledLotes() {
+        lock.lock();
+        try {
+            return spill != null ? spill.getTotalEscritos() : 0;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
      * Verifica si la cola está vacía.
      */
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return size() == 0;
     }
     
     /**
-     * Capacidad máxima de la cola (en número de lotes).
+     * Capacidad máxima de la cola (en número de lotes del pool).
      */
     public int getCapacity() {
-        return capacity;
+        return listos.length;
+    }
+    
+    // ==================== Métricas de llenado ====================
+    
+    /**
+     * Datagramas en el nivel en memoria (incluidos los apartados).
+     */
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Bytes de los lotes en el nivel en memoria.
+     */
+    public long getByteCount() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Fracción de la capacidad ocupada (la mayor entre registros y bytes), de 0 a 1.
+     */
+    public double getFillRatio() {
+        lock.lock();
+        try {
+            double porRegistros = maxRecords > 0 ? (double) records / maxRecords : 0;
+            double porBytes = maxBytes > 0 ? (double) bytes / maxBytes : 0;
+            return Math.max(porRegistros, porBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Máximo de datagramas que llegó a retener la cola.
+     */
+    public long getPeakRecords() {
+        lock.lock();
+        try {
+            return peakRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getPeakBytes() {
+        lock.lock();
+        try {
+            return peakBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Veces que un productor esperó por falta de espacio (backpressure).
+     */
+    public long getProducerWaits() {
+        lock.lock();
+        try {
+            return producerWaits;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getMaxRecords() {
+        return maxRecords;
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    /**
+     * Resumen del llenado para los logs.
+     */
+    public String describirLlenado() {
+        lock.lock();
+        try {
+            String memoria = String.format("%d lotes, %d datagramas, %d KB (%.0f%%)",
+                count, records, bytes / 1024, getFillRatio() * 100);
+            if (apartadosLotes > 0) {
+                memoria += String.format(", %d apartados", apartadosLotes);
+            }
+            if (spill == null) {
+                return memoria;
+            }
+            return memoria + String.format(" + disco: %d lotes, %d MB",
+                lotesEnDisco(), bytesEnDisco() / (1024 * 1024));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Cierra el nivel en disco y borra sus archivos.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (spill != null) {
+                spill.close();
+            }
+            for (Apartados a : apartados.values()) {
+                if (a.disco != null) {
+                    a.disco.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[DataQueue] Error cerrando el nivel en disco: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -1,102 +1,195 @@
 package com.mio.server;
 
-import MIO.DataReceiverPrx;
+import MIO.DatagramEpochStruct;
 import MIO.DatagramStruct;
 import com.mio.model.Datagram;
+import com.mio.util.DatagramStructs;
 import com.zeroc.Ice.Current;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Implementación del servidor ICE que recibe datagramas.
- * Persiste datagramas en archivo para procesamiento posterior por CCOController.
+ * Persiste datagramas en archivo para procesamiento posterior por CCOController,
+ * o los entrega directo a la ingesta en memoria (ver IngestMode).
+ *
+ * La recepción está dividida en dos etapas:
+ * 1. Los hilos de despacho ICE solo convierten la estructura y la publican
+ *    en un buffer circular sin locks (IngestRingBuffer).
+ * 2. Un único hilo escritor drena el buffer en bloque hacia el destino
+ *    (repositorio o MemoryBatcher).
+ * Así varios buses pueden ser atendidos en paralelo sin serializarse
+ * en un monitor ni en la E/S de archivo.
+ *
+ * Los buses envían DatagramEpochStruct (fechas como segundos epoch); las
+ * operaciones con DatagramStruct (fechas como texto) se mantienen por
+ * compatibilidad.
  */
 public class DataReceiverImpl implements MIO.DataReceiver {
-    private static final DateTimeFormatter DATE_FORMATTER = 
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int DEFAULT_BUFFER_CAPACITY = 65536;
+    private static final int MAX_DRAIN = 4096;
     
-    private final DatagramRepository repository;
-    private long datagramsReceived = 0;
-    private long datagramsRejected = 0;
+    private final DatagramSink sink;
+    private final IngestRingBuffer<Datagram> buffer;
+    private final Thread writerThread;
+    private volatile boolean running;
     
-    public DataReceiverImpl(DatagramRepository repository) {
-        this.repository = repository;
+    private final LongAdder datagramsReceived = new LongAdder();
+    private final LongAdder datagramsRejected = new LongAdder();
+    private final LongAdder persistFailures = new LongAdder();
+    
+    public DataReceiverImpl(DatagramSink sink) {
+        this(sink, DEFAULT_BUFFER_CAPACITY);
+    }
+    
+    public DataReceiverImpl(DatagramSink sink, int bufferCapacity) {
+        this.sink = sink;
+        this.buffer = new IngestRingBuffer<>(bufferCapacity);
+        this.running = true;
+        this.writerThread = new Thread(this::writerLoop, "DataReceiver-Writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+    
+    @Override
+    public boolean sendDatagram(DatagramStruct iceStruct, Current current) {
+        return publicar(iceStruct, DatagramStructs::fromStringStruct);
     }
     
     @Override
-    public synchronized boolean sendDatagram(DatagramStruct iceStruct, Current current) {
+    public boolean[] sendDatagrams(DatagramStruct[] iceStructs, Current current) {
+        return publicarLote(iceStructs, DatagramStructs::fromStringStruct);
+    }
+    
+    @Override
+    public boolean sendDatagramEpoch(DatagramEpochStruct iceStruct, Current current) {
+        return publicar(iceStruct, DatagramStructs::fromEpochStruct);
+    }
+    
+    @Override
+    public boolean[] sendDatagramsEpoch(DatagramEpochStruct[] iceStructs, Current current) {
+        return publicarLote(iceStructs, DatagramStructs::fromEpochStruct);
+    }
+    
+    private <T> boolean publicar(T iceStruct, Function<T, Datagram> conversion) {
         try {
-            // Convertir estructura ICE a Datagram Java
-            Datagram datagram = fromIceStruct(iceStruct);
-            
-            // Persistir en archivo
-            repository.save(datagram);
-            
-            datagramsReceived++;
-            if (datagramsReceived % 1000 == 0) {
-                System.out.printf("[DataReceiver] Recibidos: %d | Persistidos: %d\n",
-                    datagramsReceived, repository.getTotalSaved());
-            }
+            // Convertir estructura ICE a Datagram Java y publicarlo para el escritor
+            buffer.put(conversion.apply(iceStruct));
+            datagramsReceived.increment();
             return true;
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            datagramsRejected.increment();
+            return false;
         } catch (Exception e) {
-            datagramsRejected++;
-            System.err.println("[DataReceiver] Error persistiendo datagrama: " + e.getMessage());
+            datagramsRejected.increment();
+            System.err.println("[DataReceiver] Datagrama inválido: " + e.getMessage());
             return false;
         }
     }
     
+    private <T> boolean[] publicarLote(T[] iceStructs, Function<T, Datagram> conversion) {
+        boolean[] aceptados = new boolean[iceStructs.length];
+        int publicados = 0;
+        
+        // Convertir cada estructura; las inválidas se rechazan individualmente
+        for (int i = 0; i < iceStructs.length; i++) {
+            try {
+                buffer.put(conversion.apply(iceStructs[i]));
+                aceptados[i] = true;
+                publicados++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                datagramsRejected.add(iceStructs.length - i);
+                break;
+            } catch (Exception e) {
+                datagramsRejected.increment();
+                System.err.println("[DataReceiver] Datagrama inválido en lote: " + e.getMessage());
+            }
+        }
+        
+        datagramsReceived.add(publicados);
+        return aceptados;
+    }
+    
     @Override
     public boolean ping(Current current) {
         return true;
     }
     
     /**
-     * Convierte DatagramStruct de ICE a Datagram Java.
+     * Hilo escritor: drena el buffer en bloque y lo entrega con una sola llamada.
      */
-    private Datagram fromIceStruct(DatagramStruct ice) {
-        LocalDateTime registerDate = parseDateTime(ice.registerDate);
-        LocalDateTime datagramDate = parseDateTime(ice.datagramDate);
+    private void writerLoop() {
+        List<Datagram> pendientes = new ArrayList<>(MAX_DRAIN);
+        long entregados = 0;
         
-        return new Datagram(
-            ice.eventType,
-            registerDate,
-            ice.stopId,
-            ice.odometer,
-            ice.latitude,
-            ice.longitude,
-            ice.taskId,
-            ice.lineId,
-            ice.tripId,
-            ice.unknown1,
-            datagramDate,
-            ice.busId
-        );
+        while (running || !buffer.isEmpty()) {
+            if (buffer.drainTo(pendientes, MAX_DRAIN) == 0) {
+                buffer.awaitData(1, TimeUnit.MILLISECONDS);
+                continue;
+            }
+            
+            try {
+                sink.accept(pendientes);
+                long anterior = entregados;
+                entregados += pendientes.size();
+                if (anterior / 1000 != entregados / 1000) {
+                    System.out.printf("[DataReceiver] Recibidos: %d | Entregados: %d\n",
+                        datagramsReceived.sum(), entregados);
+                }
+            } catch (InterruptedException e) {
+                persistFailures.add(pendientes.size());
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                persistFailures.add(pendientes.size());
+                System.err.println("[DataReceiver] Error persistiendo " + pendientes.size() +
+                    " datagramas: " + e.getMessage());
+            }
+            pendientes.clear();
+        }
     }
     
     /**
-     * Parsea fecha/hora del formato ICE.
+     * Detiene el hilo escritor después de entregar lo que quede en el buffer.
      */
-    private LocalDateTime parseDateTime(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return null;
-        }
+    public void shutdown() {
+        running = false;
         try {
-            return LocalDateTime.parse(dateStr, DATE_FORMATTER);
-        } catch (Exception e) {
-            return null;
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     
     /**
      * Estadísticas del receiver.
      */
-    public synchronized long getReceivedCount() {
-        return datagramsReceived;
+    public long getReceivedCount() {
+        return datagramsReceived.sum();
+    }
+    
+    public long getRejectedCount() {
+        return datagramsRejected.sum();
     }
     
-    public synchronized long getRejectedCount() {
-        return datagramsRejected;
+    /**
+     * Datagramas aceptados que no pudieron persistirse (o entregarse a la ingesta en memoria).
+     */
+    public long getPersistFailureCount() {
+        return persistFailures.sum();
+    }
+    
+    /**
+     * Datagramas publicados que el escritor aún no ha entregado.
+     */
+    public int getPendingCount() {
+        return buffer.size();
     }
 }
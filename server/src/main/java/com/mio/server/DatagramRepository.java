@@ -1,29 +1,53 @@
 package com.mio.server;
 
 import com.mio.model.Datagram;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.DatagramDictionary;
+import com.mio.util.DatagramFileFormat;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 /**
  * Repositorio para persistir datagramas recibidos del Bus.
- * Guarda en archivo CSV para procesamiento posterior por CCOController.
+ * Guarda en archivo CSV (o en formato binario de ancho fijo si el archivo
+ * termina en ".bin") para procesamiento posterior por CCOController.
+ *
+ * La escritura pasa por un AppendLog que mantiene el archivo abierto y
+ * agrupa registros (group-commit), en lugar de abrir y cerrar el archivo
+ * por cada datagrama. Con un directorio ".seg" la escritura va a un
+ * SegmentedLog (segmentos mapeados en memoria con retención).
  */
-public class DatagramRepository {
+public class DatagramRepository implements DatagramSink, AutoCloseable {
+    private static final String CSV_HEADER =
+        "eventType,registerDate,stopId,odometer,latitude,longitude,taskId,lineId,tripId,unknown1,datagramDate,busId";
+        
     private final String filePath;
-    private final Lock writeLock;
-    private long totalSaved;
+    private final DatagramFileFormat format;
+    private final DatagramDictionary dictionary;
+    private final AppendLog log;
+    private final SegmentedLog segmentedLog;
+    private final AppendLog.Durability defaultDurability;
+    private final AppendSignal appendSignal = new AppendSignal();
+    private final long initialRecords;
+    private volatile long totalSaved;
+    
+    public DatagramRepository(String filePath) throws IOException {
+        this(filePath, AppendLog.GroupCommitPolicy.defaults(), AppendLog.Durability.NONE);
+    }
     
-    public DatagramRepository(String filePath) {
+    /**
+     * @param policy política de group-commit del log
+     * @param defaultDurability durabilidad usada por save/saveAll sin parámetro
+     */
+    public DatagramRepository(String filePath, AppendLog.GroupCommitPolicy policy,
+                              AppendLog.Durability defaultDurability) throws IOException {
         this.filePath = filePath;
-        this.writeLock = new ReentrantLock();
+        this.format = DatagramFileFormat.fromPath(filePath);
+        this.defaultDurability = defaultDurability;
         this.totalSaved = 0;
         
         // Crear directorio si no existe
@@ -33,23 +57,64 @@ public class DatagramRepository {
             parent.mkdirs();
         }
         
-        // Crear archivo con header si no existe
-        if (!file.exists()) {
-            try {
-                writeHeader();
-            } catch (IOException e) {
-                System.err.println("[DatagramRepository] Error creando archivo: " + e.getMessage());
-            }
+        boolean nuevo = !file.exists() || file.length() == 0;
+        this.dictionary = format == DatagramFileFormat.BINARY
+            ? new DatagramDictionary(DatagramDictionary.pathFor(file.toPath()))
+            : null;
+        this.initialRecords = nuevo ? 0 : countExisting(file);
+        this.log = new AppendLog(file.toPath(), policy);
+        this.log.setWriteListener(appendSignal::signal);
+        this.segmentedLog = null;
+        
+        // Escribir header si el archivo es nuevo
+        if (nuevo) {
+            writeHeader();
         }
     }
     
     /**
-     * Escribe el header del CSV.
+     * Repositorio sobre un log segmentado ya abierto.
+     * @param defaultDurability durabilidad usada por save/saveAll sin parámetro
+     */
+    public DatagramRepository(SegmentedLog segmentedLog, AppendLog.Durability defaultDurability) {
+        this.filePath = segmentedLog.getDirectory().toString();
+        this.format = DatagramFileFormat.SEGMENTED;
+        this.defaultDurability = defaultDurability;
+        this.dictionary = segmentedLog.getDictionary();
+        this.log = null;
+        this.segmentedLog = segmentedLog;
+        this.initialRecords = 0;
+        this.totalSaved = 0;
+    }
+    
+    /**
+     * Registros que ya tenía el archivo al abrirlo (se recorre una sola vez).
+     */
+    private long countExisting(File file) throws IOException {
+        if (format == DatagramFileFormat.BINARY) {
+            // Registros de ancho fijo: el conteo sale del tamaño del archivo
+            return Math.max(0, file.length() - DatagramBinaryFormat.HEADER_SIZE) / DatagramBinaryFormat.RECORD_SIZE;
+        }
+        try (Stream<String> lines = Files.lines(file.toPath())) {
+            long count = lines.count();
+            return count > 0 ? count - 1 : 0; // Restar header
+        }
+    }
+    
+    /**
+     * Escribe el header del CSV o del formato binario.
      */
     private void writeHeader() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath, false))) {
-            writer.write("eventType,registerDate,stopId,odometer,latitude,longitude,taskId,lineId,tripId,unknown1,datagramDate,busId");
-            writer.newLine();
+        log.lock();
+        try {
+            if (format == DatagramFileFormat.BINARY) {
+                DatagramBinaryFormat.writeHeader(log.claim(DatagramBinaryFormat.HEADER_SIZE));
+            } else {
+                log.appendLine(CSV_HEADER);
+            }
+            log.commit(0, AppendLog.Durability.FLUSH);
+        } finally {
+            log.unlock();
         }
     }
     
@@ -57,15 +122,27 @@ public class DatagramRepository {
      * Guarda un datagrama en el archivo CSV (thread-safe).
      */
     public void save(Datagram datagram) throws IOException {
-        writeLock.lock();
+        save(datagram, defaultDurability);
+    }
+    
+    /**
+     * Guarda un datagrama con el nivel de durabilidad indicado (thread-safe).
+     */
+    public void save(Datagram datagram, AppendLog.Durability durability) throws IOException {
+        if (segmentedLog != null) {
+            segmentedLog.append(datagram);
+            totalSaved++;
+            flush(durability);
+            appendSignal.signal();
+            return;
+        }
+        log.lock();
         try {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath, true))) {
-                writer.write(datagram.toCsvLine());
-                writer.newLine();
-                totalSaved++;
-            }
+            appendRecord(datagram);
+            log.commit(1, durability);
+            totalSaved++;
         } finally {
-            writeLock.unlock();
+            log.unlock();
         }
     }
     
@@ -73,20 +150,71 @@ public class DatagramRepository {
      * Guarda múltiples datagramas en batch (thread-safe).
      */
     public void saveAll(List<Datagram> datagrams) throws IOException {
-        writeLock.lock();
+        saveAll(datagrams, defaultDurability);
+    }
+    
+    /**
+     * Guarda múltiples datagramas con el nivel de durabilidad indicado (thread-safe).
+     */
+    public void saveAll(List<Datagram> datagrams, AppendLog.Durability durability) throws IOException {
+        if (segmentedLog != null) {
+            for (Datagram datagram : datagrams) {
+                segmentedLog.append(datagram);
+            }
+            totalSaved += datagrams.size();
+            flush(durability);
+            appendSignal.signal();
+            return;
+        }
+        log.lock();
         try {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath, true))) {
-                for (Datagram datagram : datagrams) {
-                    writer.write(datagram.toCsvLine());
-                    writer.newLine();
-                }
-                totalSaved += datagrams.size();
+            for (Datagram datagram : datagrams) {
+                appendRecord(datagram);
             }
+            log.commit(datagrams.size(), durability);
+            totalSaved += datagrams.size();
         } finally {
-            writeLock.unlock();
+            log.unlock();
         }
     }
     
+    /**
+     * Como destino del DataReceiver: persiste el bloque con la durabilidad por defecto.
+     */
+    @Override
+    public void accept(List<Datagram> datagrams) throws IOException {
+        saveAll(datagrams);
+    }
+    
+    /**
+     * Codifica un datagrama en el formato del archivo (con el lock del log tomado).
+     */
+    private void appendRecord(Datagram datagram) throws IOException {
+        if (format == DatagramFileFormat.BINARY) {
+            DatagramBinaryFormat.write(datagram, dictionary,
+                log.claim(DatagramBinaryFormat.RECORD_SIZE));
+        } else {
+            log.appendLine(datagram.toCsvLine());
+        }
+    }
+    
+    /**
+     * Fuerza la escritura de lo pendiente en el log.
+     */
+    public void flush(AppendLog.Durability durability) throws IOException {
+        if (durability == AppendLog.Durability.NONE) {
+            return;
+        }
+        if (segmentedLog != null) {
+            // Los registros mapeados ya están en el page cache; solo fsync aplica
+            if (durability == AppendLog.Durability.FSYNC) {
+                segmentedLog.flush(true);
+            }
+            return;
+        }
+        log.flush(durability == AppendLog.Durability.FSYNC);
+    }
+    
     /**
      * Cuenta total de datagramas guardados en esta sesión.
      */
@@ -95,15 +223,14 @@ public class DatagramRepository {
     }
     
     /**
-     * Cuenta líneas en el archivo (excluyendo header).
+     * Cuenta registros en el archivo (excluyendo header), en O(1).
+     * En el log segmentado son los registros retenidos.
      */
     public long countInFile() {
-        try {
-            long count = Files.lines(Paths.get(filePath)).count();
-            return count > 0 ? count - 1 : 0; // Restar header
-        } catch (IOException e) {
-            return 0;
+        if (segmentedLog != null) {
+            return segmentedLog.getRecordCount();
         }
+        return initialRecords + totalSaved;
     }
     
     /**
@@ -112,4 +239,38 @@ public class DatagramRepository {
     public String getFilePath() {
         return filePath;
     }
+    
+    /**
+     * Señal que se dispara cuando hay datos nuevos visibles en el archivo
+     * (al escribir el buffer del log, o al agregar al log segmentado).
+     */
+    public AppendSignal getAppendSignal() {
+        return appendSignal;
+    }
+    
+    /**
+     * Log segmentado (null si se persiste en un solo archivo).
+     */
+    public SegmentedLog getSegmentedLog() {
+        return segmentedLog;
+    }
+    
+    /**
+     * Formato del archivo de persistencia.
+     */
+    public DatagramFileFormat getFormat() {
+        return format;
+    }
+    
+    /**
+     * Escribe lo pendiente y cierra el archivo.
+     */
+    @Override
+    public void close() throws IOException {
+        if (segmentedLog != null) {
+            segmentedLog.close();
+            return;
+        }
+        log.close();
+    }
 }
@@ -0,0 +1,19 @@
+package com.mio.server;
+
+import com.mio.model.Datagram;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destino de los datagramas que el DataReceiver drena de su buffer de ingesta:
+ * el repositorio en archivo o la ingesta directa en memoria.
+ */
+public interface DatagramSink {
+    
+    /**
+     * Entrega un bloque de datagramas. La lista la reutiliza el llamador,
+     * así que no debe conservarse después de retornar.
+     */
+    void accept(List<Datagram> datagrams) throws IOException, InterruptedException;
+}
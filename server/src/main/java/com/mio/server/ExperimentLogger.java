@@ -19,6 +19,7 @@ public class ExperimentLogger {
     private final String experimentId;
     private final int numWorkers;
     private final String datasetSize;
+    private final IngestMode ingestMode;
     
     private LocalDateTime startTime;
     private LocalDateTime endTime;
@@ -32,24 +33,29 @@ public class ExperimentLogger {
     
     // Referencias a componentes del servidor
     private DataReceiverImpl dataReceiver;
-    private CCOController ccoController;
+    private LoteProducer loteProducer;
     private MasterImpl master;
     private Aggregator aggregator;
     
     public ExperimentLogger(String experimentId, int numWorkers, String datasetSize) {
+        this(experimentId, numWorkers, datasetSize, IngestMode.FILE);
+    }
+    
+    public ExperimentLogger(String experimentId, int numWorkers, String datasetSize, IngestMode ingestMode) {
         this.experimentId = experimentId;
         this.numWorkers = numWorkers;
         this.datasetSize = datasetSize;
+        this.ingestMode = ingestMode;
         this.running = false;
     }
     
     /**
      * Configura las referencias a los componentes para monitoreo.
      */
-    public void setComponents(DataReceiverImpl dataReceiver, CCOController ccoController,
+    public void setComponents(DataReceiverImpl dataReceiver, LoteProducer loteProducer,
                               MasterImpl master, Aggregator aggregator) {
         this.dataReceiver = dataReceiver;
-        this.ccoController = ccoController;
+        this.loteProducer = loteProducer;
         this.master = master;
         this.aggregator = aggregator;
     }
@@ -67,6 +73,7 @@ public class ExperimentLogger {
         System.out.printf("║  ID: %-55s ║\n", experimentId);
         System.out.printf("║  Workers: %-50d ║\n", numWorkers);
         System.out.printf("║  Dataset: %-50s ║\n", datasetSize);
+        System.out.printf("║  Ingesta: %-50s ║\n", ingestMode);
         System.out.printf("║  Inicio: %-51s ║\n", startTime.format(FORMATTER));
         System.out.println("╚══════════════════════════════════════════════════════════════╝\n");
         
@@ -87,7 +94,7 @@ public class ExperimentLogger {
             try {
                 Thread.sleep(10000); // Cada 10 segundos
                 
-                if (dataReceiver != null && ccoController != null && aggregator != null) {
+                if (dataReceiver != null && loteProducer != null && aggregator != null) {
                     long currentDatagramas = dataReceiver.getReceivedCount();
                     long currentTime = System.currentTimeMillis();
                     
@@ -103,7 +110,7 @@ public class ExperimentLogger {
                     System.out.printf("│  Datagramas recibidos: %-37s │\n", 
                         String.format("%,d", currentDatagramas));
                     System.out.printf("│  Lotes encolados: %-42s │\n", 
-                        String.format("%,d", ccoController.getTotalBatches()));
+                        String.format("%,d", loteProducer.getTotalBatches()));
                     System.out.printf("│  Lotes procesados: %-41s │\n", 
                         String.format("%,d", aggregator.getTotalLotesProcesados()));
                     System.out.printf("│  Arcos calculados: %-41s │\n", 
@@ -140,8 +147,8 @@ public class ExperimentLogger {
         if (dataReceiver != null) {
             datagramasRecibidos = dataReceiver.getReceivedCount();
         }
-        if (ccoController != null) {
-            lotesEncolados = ccoController.getTotalBatches();
+        if (loteProducer != null) {
+            lotesEncolados = loteProducer.getTotalBatches();
         }
         if (aggregator != null) {
             lotesProcesados = aggregator.getTotalLotesProcesados();
@@ -160,6 +167,7 @@ public class ExperimentLogger {
         System.out.printf("║  ID: %-55s ║\n", experimentId);
         System.out.printf("║  Workers: %-50d ║\n", numWorkers);
         System.out.printf("║  Dataset: %-50s ║\n", datasetSize);
+        System.out.printf("║  Ingesta: %-50s ║\n", ingestMode);
         System.out.println("╠══════════════════════════════════════════════════════════════╣");
         System.out.printf("║  Inicio: %-51s ║\n", startTime.format(FORMATTER));
         System.out.printf("║  Fin: %-54s ║\n", endTime.format(FORMATTER));
@@ -188,11 +196,11 @@ public class ExperimentLogger {
             if (!fileExists) {
                 writer.println("experiment_id,num_workers,dataset_size,start_time,end_time," +
                     "duration_seconds,datagramas_recibidos,lotes_encolados,lotes_procesados," +
-                    "arcos_calculados,throughput_dgm_s");
+                    "arcos_calculados,throughput_dgm_s,ingest_mode");
             }
             
             // Escribir datos del experimento
-            writer.printf("%s,%d,%s,%s,%s,%.2f,%d,%d,%d,%d,%.2f\n",
+            writer.printf("%s,%d,%s,%s,%s,%.2f,%d,%d,%d,%d,%.2f,%s\n",
                 experimentId,
                 numWorkers,
                 datasetSize,
@@ -203,7 +211,8 @@ public class ExperimentLogger {
                 lotesEncolados,
                 lotesProcesados,
                 arcosCalculados,
-                throughput
+                throughput,
+                ingestMode
             );
             
             System.out.println("[ExperimentLogger] Resultados guardados en: " + LOG_FILE);
@@ -234,6 +243,7 @@ public class ExperimentLogger {
     public String getExperimentId() { return experimentId; }
     public int getNumWorkers() { return numWorkers; }
     public String getDatasetSize() { return datasetSize; }
+    public IngestMode getIngestMode() { return ingestMode; }
     public LocalDateTime getStartTime() { return startTime; }
     public LocalDateTime getEndTime() { return endTime; }
 }
@@ -0,0 +1,211 @@
+package com.mio.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lector incremental ("tail") de un archivo al que otro componente va agregando datos.
+ *
+ * Mantiene el FileChannel abierto entre lecturas y lee en un ByteBuffer grande
+ * reutilizable. Entrega líneas completas (o registros de ancho fijo) como
+ * rangos de bytes sobre ese buffer, sin crear Strings intermedios. Lo que queda
+ * a medio escribir se conserva para la siguiente lectura.
+ */
+public class FileTailer implements AutoCloseable {
+    
+    /**
+     * Recibe una línea completa como rango [start, end) del buffer, sin el salto de línea.
+     */
+    public interface LineHandler {
+        void onLine(byte[] buf, int start, int end) throws InterruptedException;
+    }
+    
+    /**
+     * Recibe un registro de ancho fijo que empieza en offset.
+     */
+    public interface RecordHandler {
+        void onRecord(ByteBuffer buf, int offset) throws InterruptedException;
+    }
+    
+    private static final int DEFAULT_BUFFER_SIZE = 4 << 20; // 4 MB
+    
+    private final Path path;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+    // Posición en el archivo del primer byte del buffer (todo lo anterior ya se entregó)
+    private long position;
+    
+    public FileTailer(Path path) {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public FileTailer(Path path, int bufferSize) {
+        this.path = path;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.position = 0;
+    }
+    
+    /**
+     * Abre el canal si aún no está abierto.
+     * @return false si el archivo todavía no existe
+     */
+    public boolean open() throws IOException {
+        if (channel != null) {
+            return true;
+        }
+        if (!Files.exists(path)) {
+            return false;
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        return true;
+    }
+    
+    /**
+     * Bytes del archivo que aún no se han entregado (incluye lo que está en el buffer).
+     */
+    public long available() throws IOException {
+        return open() ? channel.size() - position : 0;
+    }
+    
+    /**
+     * Detecta si el archivo fue truncado o reemplazado (p. ej. borrado entre
+     * experimentos) y en ese caso vuelve a leerlo desde el inicio.
+     * @return true si hubo que reiniciar
+     */
+    public boolean checkReset() throws IOException {
+        if (channel == null) {
+            return false;
+        }
+        boolean reemplazado = !Files.exists(path) || Files.size(path) < position + buffer.position();
+        if (reemplazado) {
+            channel.close();
+            channel = null;
+            buffer.clear();
+            position = 0;
+        }
+        return reemplazado;
+    }
+    
+    /**
+     * Lee los bytes nuevos y entrega cada línea completa.
+     * @return cantidad de líneas entregadas (0 si no hay líneas completas nuevas)
+     */
+    public int readLines(LineHandler handler) throws IOException, InterruptedException {
+        if (!open() || fill() == 0 && buffer.position() == 0) {
+            return 0;
+        }
+        
+        byte[] a = buffer.array();
+        int limit = buffer.position();
+        int start = 0;
+        int lineas = 0;
+        for (int i = 0; i < limit; i++) {
+            if (a[i] == '\n') {
+                int end = i > start && a[i - 1] == '\r' ? i - 1 : i;
+                handler.onLine(a, start, end);
+                lineas++;
+                start = i + 1;
+            }
+        }
+        
+        if (start == 0 && limit == buffer.capacity()) {
+            // Una línea más larga que el buffer no es un datagrama válido: descartarla
+            System.err.println("[FileTailer] Línea de más de " + limit + " bytes descartada en posición " + position);
+            start = limit;
+        }
+        compact(start, limit);
+        return lineas;
+    }
+    
+    /**
+     * Lee los bytes nuevos y entrega cada registro completo de recordSize bytes.
+     * @return cantidad de registros entregados
+     */
+    public int readRecords(int recordSize, RecordHandler handler) throws IOException, InterruptedException {
+        if (!open() || fill() == 0 && buffer.position() < recordSize) {
+            return 0;
+        }
+        
+        int limit = buffer.position();
+        int completos = limit / recordSize;
+        for (int i = 0; i < completos; i++) {
+            handler.onRecord(buffer, i * recordSize);
+        }
+        compact(completos * recordSize, limit);
+        return completos;
+    }
+    
+    /**
+     * Lee exactamente length bytes desde la posición actual (p. ej. un header).
+     * @return los bytes leídos, o null si el archivo aún no los tiene completos
+     */
+    public ByteBuffer readExactly(int length) throws IOException {
+        if (buffer.position() > 0) {
+            throw new IllegalStateException("readExactly con datos pendientes en el buffer");
+        }
+        if (!open() || channel.size() - position < length) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                return null;
+            }
+        }
+        position += length;
+        return bytes;
+    }
+    
+    /**
+     * Agrega al buffer los bytes nuevos del archivo.
+     * @return bytes leídos
+     */
+    private int fill() throws IOException {
+        int leidos = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n <= 0) {
+                break;
+            }
+            leidos += n;
+        }
+        return leidos;
+    }
+    
+    /**
+     * Descarta los bytes ya entregados y mueve el resto al inicio del buffer.
+     */
+    private void compact(int consumidos, int limit) {
+        byte[] a = buffer.array();
+        int resto = limit - consumidos;
+        if (resto > 0 && consumidos > 0) {
+            System.arraycopy(a, consumidos, a, 0, resto);
+        }
+        buffer.clear();
+        buffer.position(resto);
+        position += consumidos;
+    }
+    
+    /**
+     * Posición en el archivo hasta donde se entregaron datos.
+     */
+    public long getPosition() {
+        return position;
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.mio.server;
+
+/**
+ * Modo de ingesta del servidor: cómo llegan los datagramas recibidos a DataQueue.
+ */
+public enum IngestMode {
+    /** DataReceiver persiste en archivo y CCOController lo lee (modo original). */
+    FILE("file"),
+    /** DataReceiver agrupa directo en lotes en memoria, sin archivo. */
+    MEMORY("memory"),
+    /** Como MEMORY, con una copia asíncrona al archivo (sin garantía de durabilidad). */
+    MEMORY_COPY("memory+file");
+    
+    private final String argName;
+    
+    IngestMode(String argName) {
+        this.argName = argName;
+    }
+    
+    /**
+     * Nombre usado en la línea de comandos y en los resultados de experimentos.
+     */
+    public String getArgName() {
+        return argName;
+    }
+    
+    public static IngestMode fromArg(String arg) {
+        for (IngestMode mode : values()) {
+            if (mode.argName.equalsIgnoreCase(arg)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Modo de ingesta desconocido: " + arg +
+            " (use file, memory o memory+file)");
+    }
+    
+    @Override
+    public String toString() {
+        return argName;
+    }
+}
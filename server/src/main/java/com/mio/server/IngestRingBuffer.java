@@ -0,0 +1,141 @@
+package com.mio.server;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffer circular acotado multi-productor / un solo consumidor, sin locks.
+ *
+ * Los hilos de despacho ICE publican elementos compitiendo solo por un CAS
+ * sobre la posición de escritura; el hilo escritor los drena en bloque.
+ * Cada celda tiene un número de secuencia que indica si está libre
+ * (seq == pos) o publicada (seq == pos + 1), así productores y consumidor
+ * nunca comparten un monitor.
+ */
+public class IngestRingBuffer<T> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    
+    // Solo lo modifica el consumidor
+    private volatile long head;
+    private volatile Thread consumerThread;
+    private volatile boolean consumerWaiting;
+    
+    /**
+     * @param capacity capacidad del buffer (se redondea a potencia de 2)
+     */
+    public IngestRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Intenta publicar un elemento sin bloquear.
+     * @return false si el buffer está lleno
+     */
+    public boolean offer(T item) {
+        while (true) {
+            long pos = tail.get();
+            int cell = (int) pos & mask;
+            long dif = sequences.get(cell) - pos;
+            
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[cell] = item;
+                    sequences.lazySet(cell, pos + 1);
+                    if (consumerWaiting) {
+                        LockSupport.unpark(consumerThread);
+                    }
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false; // Lleno
+            }
+            // dif > 0: otro productor ganó la celda, reintentar
+        }
+    }
+    
+    /**
+     * Publica un elemento; si el buffer está lleno espera (backpressure hacia ICE).
+     */
+    public void put(T item) throws InterruptedException {
+        int spins = 0;
+        while (!offer(item)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+    
+    /**
+     * Drena hasta maxItems elementos publicados (solo desde el hilo consumidor).
+     * @return cantidad de elementos agregados a destino
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(List<T> destino, int maxItems) {
+        long pos = head;
+        int drenados = 0;
+        
+        while (drenados < maxItems) {
+            int cell = (int) pos & mask;
+            if (sequences.get(cell) != pos + 1) {
+                break; // Celda aún no publicada
+            }
+            destino.add((T) slots[cell]);
+            slots[cell] = null;
+            sequences.lazySet(cell, pos + slots.length);
+            pos++;
+            drenados++;
+        }
+        
+        head = pos;
+        return drenados;
+    }
+    
+    /**
+     * Bloquea al consumidor hasta que haya datos o venza el timeout.
+     */
+    public void awaitData(long timeout, TimeUnit unit) {
+        consumerThread = Thread.currentThread();
+        consumerWaiting = true;
+        try {
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+            }
+        } finally {
+            consumerWaiting = false;
+        }
+    }
+    
+    /**
+     * Número aproximado de elementos pendientes.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+    
+    public boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+    
+    public int getCapacity() {
+        return slots.length;
+    }
+}
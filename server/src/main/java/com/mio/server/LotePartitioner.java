@@ -0,0 +1,137 @@
+package com.mio.server;
+
+import com.mio.model.Datagram;
+import com.mio.model.MutableDatagram;
+import com.mio.util.LoteColumnarBuilder;
+
+/**
+ * Arma los lotes por partición de bus (hash de busId) en lugar de por orden
+ * de llegada: cada partición tiene su propio builder, así un lote lleva
+ * fragmentos completos de los viajes de sus buses y los datagramas
+ * consecutivos de un viaje no quedan repartidos entre lotes.
+ *
+ * Cuando el builder de una partición se llena se encola solo ese lote,
+ * marcado con su partición (con una sola partición, sin marca).
+ * Lo usa un único hilo productor (CCOController o MemoryBatcher).
+ */
+public class LotePartitioner {
+    private final DataQueue dataQueue;
+    private final LoteColumnarBuilder[] builders;
+    private long descartados;
+
+    /**
+     * @param particiones cantidad de particiones (1 = un solo lote en armado, orden de llegada)
+     */
+    public LotePartitioner(DataQueue dataQueue, int batchSize, int particiones) {
+        if (particiones < 1) {
+            throw new IllegalArgumentException("Particiones inválidas: " + particiones);
+        }
+        this.dataQueue = dataQueue;
+        this.builders = new LoteColumnarBuilder[particiones];
+        for (int i = 0; i < particiones; i++) {
+            builders[i] = new LoteColumnarBuilder(batchSize);
+        }
+    }
+
+    /**
+     * Agrega el datagrama al lote de su partición y lo encola si está completo
+     * (bloqueante si DataQueue está llena).
+     * @return true si se encoló un lote
+     */
+    public boolean add(MutableDatagram datagram) throws InterruptedException {
+        int particion = LoteColumnarBuilder.particion(datagram.getBusId(), builders.length);
+        builders[particion].add(datagram);
+        return encolarSiLleno(particion);
+    }
+
+    /**
+     * Como {@link #add(MutableDatagram)}.
+     */
+    public boolean add(Datagram datagram) throws InterruptedException {
+        int particion = LoteColumnarBuilder.particion(datagram.getBusId(), builders.length);
+        builders[particion].add(datagram);
+        return encolarSiLleno(particion);
+    }
+
+    private boolean encolarSiLleno(int particion) throws InterruptedException {
+        LoteColumnarBuilder lote = builders[particion];
+        if (!lote.isFull()) {
+            return false;
+        }
+        dataQueue.enqueueLote(lote, marca(particion));
+        lote.reset();
+        return true;
+    }
+
+    /**
+     * Partición con que se encola el lote: con una sola partición el lote
+     * es por orden de llegada y no se asigna a un Worker en particular.
+     */
+    private int marca(int particion) {
+        return builders.length > 1 ? particion : LotePreparado.SIN_PARTICION;
+    }
+
+    /**
+     * Encola los lotes parciales de todas las particiones (bloqueante).
+     * @return lotes encolados
+     */
+    public int flush() throws InterruptedException {
+        int encolados = 0;
+        for (int i = 0; i < builders.length; i++) {
+            LoteColumnarBuilder lote = builders[i];
+            if (!lote.isEmpty()) {
+                dataQueue.enqueueLote(lote, marca(i));
+                lote.reset();
+                encolados++;
+            }
+        }
+        return encolados;
+    }
+
+    /**
+     * Como {@link #flush()}, sin bloquear: los lotes que no caben se descartan
+     * (ver {@link #getDescartados()}).
+     * @return lotes encolados
+     */
+    public int tryFlush() {
+        int encolados = 0;
+        for (int i = 0; i < builders.length; i++) {
+            LoteColumnarBuilder lote = builders[i];
+            if (!lote.isEmpty()) {
+                if (dataQueue.tryEnqueueLote(lote, marca(i))) {
+                    encolados++;
+                } else {
+                    descartados += lote.size();
+                }
+                lote.reset();
+            }
+        }
+        return encolados;
+    }
+
+    /**
+     * Datagramas descartados por {@link #tryFlush()} con la cola llena.
+     */
+    public long getDescartados() {
+        return descartados;
+    }
+
+    /**
+     * Datagramas en lotes aún sin encolar.
+     */
+    public int pendientes() {
+        int total = 0;
+        for (LoteColumnarBuilder lote : builders) {
+            total += lote.size();
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return pendientes() == 0;
+    }
+
+    public int getParticiones() {
+        return builders.length;
+    }
+}
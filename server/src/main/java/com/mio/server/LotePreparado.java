@@ -0,0 +1,153 @@
+package com.mio.server;
+
+import MIO.LoteColumnar;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.LoteCodec;
+import com.mio.util.LoteColumnarBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lote listo para despachar, en una de dos formas:
+ * - codificado (LoteCodec): se arma en el hilo del productor al encolarlo en
+ *   DataQueue, así el Master solo lo saca de la cola y le asigna un id;
+ * - crudo: vista de registros de DatagramBinaryFormat dentro de un segmento
+ *   mapeado del log, sin parsear ni copiar (ver {@link #crudo}).
+ *
+ * Los contenedores son de DataQueue y se reciclan después de despachar cada
+ * lote (ver {@link DataQueue#release}): el buffer de codificación crece hasta
+ * el tamaño de lote habitual y luego se reutiliza.
+ *
+ * Un lote codificado puede pertenecer a una partición de bus (ver
+ * LotePartitioner); el Master la usa para la asignación estable.
+ */
+public final class LotePreparado {
+    /** Lote armado por orden de llegada o lote crudo. */
+    public static final int SIN_PARTICION = -1;
+    
+    private final LoteCodec.Encoder encoder;
+    private ByteBuffer registros;
+    private String[] diccionario;
+    private int cantidad;
+    private int bytes;
+    private int particion = SIN_PARTICION;
+    
+    LotePreparado(int capacidadBytes) {
+        this.encoder = new LoteCodec.Encoder(capacidadBytes);
+    }
+    
+    /**
+     * Codifica el contenido actual del builder en el buffer propio.
+     */
+    void codificar(LoteColumnarBuilder lote, int particion) {
+        registros = null;
+        diccionario = null;
+        this.particion = particion;
+        cantidad = lote.size();
+        bytes = encoder.encode(lote.columnas(), cantidad);
+    }
+    
+    /**
+     * Lote crudo sobre registros del log segmentado. La vista mantiene vivo
+     * el mapeo aunque la retención borre después el archivo del segmento.
+     * @param diccionario valores de los códigos usados por los registros
+     */
+    void crudo(ByteBuffer registros, String[] diccionario) {
+        this.registros = registros.slice().asReadOnlyBuffer();
+        this.diccionario = diccionario;
+        this.particion = SIN_PARTICION;
+        this.cantidad = this.registros.remaining() / DatagramBinaryFormat.RECORD_SIZE;
+        this.bytes = this.registros.remaining();
+    }
+    
+    /**
+     * Carga un lote codificado leído de disco (ver SpillLog).
+     */
+    void cargarCodificado(ByteBuffer datos, int cantidad, int particion) {
+        registros = null;
+        diccionario = null;
+        this.particion = particion;
+        encoder.load(datos);
+        this.cantidad = cantidad;
+        this.bytes = encoder.length();
+    }
+    
+    /**
+     * Bytes del lote tal como se guardan (codificados o registros crudos), sin copiar.
+     */
+    ByteBuffer contenido() {
+        return registros != null ? registros.duplicate() : ByteBuffer.wrap(encoder.buffer(), 0, bytes);
+    }
+    
+    /**
+     * Suelta las referencias al reciclar el contenedor.
+     */
+    void limpiar() {
+        registros = null;
+        diccionario = null;
+        particion = SIN_PARTICION;
+        cantidad = 0;
+        bytes = 0;
+    }
+    
+    /**
+     * Indica si el lote son registros sin parsear del log segmentado.
+     */
+    public boolean isCrudo() {
+        return registros != null;
+    }
+    
+    /**
+     * Vista propia de los registros (ICE consume la posición al enviarla).
+     */
+    public ByteBuffer getRegistros() {
+        return registros.duplicate();
+    }
+    
+    public String[] getDiccionario() {
+        return diccionario;
+    }
+    
+    /**
+     * Copia de los bytes del lote codificado (el buffer propio se recicla).
+     * Un lote crudo se parsea y codifica en este momento.
+     */
+    public byte[] getCodificado() {
+        if (registros != null) {
+            return LoteCodec.encode(toColumnar(0));
+        }
+        return Arrays.copyOf(encoder.buffer(), bytes);
+    }
+    
+    /**
+     * Decodifica el lote para los formatos sin comprimir.
+     */
+    public LoteColumnar toColumnar(int loteId) {
+        if (registros != null) {
+            return DatagramBinaryFormat.readColumnar(loteId, registros, diccionario);
+        }
+        return LoteCodec.decode(loteId, getCodificado());
+    }
+    
+    /**
+     * Partición de bus del lote, o {@link #SIN_PARTICION}.
+     */
+    public int getParticion() {
+        return particion;
+    }
+    
+    /**
+     * Cantidad de datagramas del lote.
+     */
+    public int size() {
+        return cantidad;
+    }
+    
+    /**
+     * Bytes que ocupa el lote (codificado o vista de registros).
+     */
+    public int getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package com.mio.server;
+
+/**
+ * Componente que produce los lotes de DataQueue (CCOController o MemoryBatcher).
+ */
+public interface LoteProducer {
+    
+    /**
+     * Total de datagramas agregados a lotes.
+     */
+    long getTotalProcessed();
+    
+    /**
+     * Total de lotes encolados.
+     */
+    long getTotalBatches();
+}
@@ -1,84 +1,524 @@
 package com.mio.server;
 
 import MIO.*;
-import com.mio.model.Datagram;
+import com.mio.util.DatagramStructs;
+import com.mio.util.LoteColumnarBuilder;
 import com.zeroc.Ice.Current;
 
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MasterImpl - Consumer del patrón Producer-Consumer e interfaz ICE para Workers.
  * 
  * Responsabilidades:
  * 1. Consumir lotes de DataQueue
- * 2. Servir lotes a Workers vía ICE (getLote)
+ * 2. Servir lotes a Workers vía ICE (getLotes, getLoteWait, getLoteCrudo,
+ *    getLoteCodificado o getLoteColumnar; getLoteEpoch y getLote por compatibilidad)
  * 3. Recibir resultados parciales de Workers (sendResultadosParciales)
  * 4. Usar Aggregator para combinar resultados
+ *
+ * Los lotes llegan ya codificados desde DataQueue (LotePreparado), así que
+ * servir uno es sacarlo de la cola y asignarle un id, sin bloquear a los
+ * demás Workers.
+ *
+ * getLoteWait usa despacho asíncrono (AMD): si la cola está vacía la
+ * solicitud queda estacionada sin ocupar un hilo de ICE y se completa en
+ * cuanto DataQueue publica un lote, o con un lote vacío al vencer su espera.
+ *
+ * getLotesAsignados entrega los lotes de cada partición de bus siempre al
+ * mismo Worker (ver AsignadorParticiones) y se estaciona igual que getLoteWait.
  */
 public class MasterImpl implements MasterService {
-    private static final DateTimeFormatter DATE_FORMATTER = 
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /** Espera máxima aceptada en getLoteWait y getLotesAsignados. */
+    private static final int MAX_ESPERA_MS = 30000;
+    /** Tiempo sin contacto tras el cual un Worker pierde sus particiones. */
+    public static final long DEFAULT_LEASE_MS = 30000;
     
     private final DataQueue dataQueue;
     private final Aggregator aggregator;
-    private final Set<String> workersRegistrados;
+    private final AsignadorParticiones asignador;
+    private final long leaseMs;
+    // Workers registrados y su último contacto (registro o resultados)
+    private final Map<String, Long> workersRegistrados;
     private final AtomicInteger loteIdCounter;
     
     // Estadísticas
-    private long lotesServidos;
-    private long lotesVacios;
-    private boolean procesamientoActivo;
+    private final AtomicLong lotesServidos;
+    private final AtomicLong lotesVacios;
+    private volatile boolean procesamientoActivo;
+    
+    // Solicitudes getLoteWait y getLotesAsignados estacionadas, en orden de
+    // llegada (ambas colas se protegen con el lock de esperas)
+    private final ArrayDeque<Espera> esperas;
+    private final ArrayDeque<EsperaAsignada> esperasAsignadas;
+    private final ScheduledThreadPoolExecutor despachador;
+    
+    /**
+     * Solicitud estacionada y el timer que la vence.
+     */
+    private static final class Espera {
+        final CompletableFuture<LoteCrudo> respuesta = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timer;
+    }
+    
+    /**
+     * Solicitud getLotesAsignados estacionada.
+     */
+    private static final class EsperaAsignada {
+        final String workerId;
+        final int maxLotes;
+        final long maxDatagramas;
+        final CompletableFuture<LoteAsignado[]> respuesta = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timer;
+        
+        EsperaAsignada(String workerId, int maxLotes, long maxDatagramas) {
+            this.workerId = workerId;
+            this.maxLotes = maxLotes;
+            this.maxDatagramas = maxDatagramas;
+        }
+    }
     
     public MasterImpl(DataQueue dataQueue, Aggregator aggregator) {
+        this(dataQueue, aggregator, 1, DEFAULT_LEASE_MS);
+    }
+    
+    /**
+     * @param particiones particiones de bus del productor (ver LotePartitioner)
+     * @param leaseMs tiempo sin contacto tras el cual un Worker pierde sus particiones
+     */
+    public MasterImpl(DataQueue dataQueue, Aggregator aggregator, int particiones, long leaseMs) {
         this.dataQueue = dataQueue;
         this.aggregator = aggregator;
-        this.workersRegistrados = new HashSet<>();
+        this.asignador = new AsignadorParticiones(dataQueue, particiones, leaseMs);
+        this.leaseMs = leaseMs;
+        this.workersRegistrados = new ConcurrentHashMap<>();
         this.loteIdCounter = new AtomicInteger(0);
-        this.lotesServidos = 0;
-        this.lotesVacios = 0;
+        this.lotesServidos = new AtomicLong(0);
+        this.lotesVacios = new AtomicLong(0);
         this.procesamientoActivo = true;
+        this.esperas = new ArrayDeque<>();
+        this.esperasAsignadas = new ArrayDeque<>();
+        this.despachador = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Master-LongPoll");
+            t.setDaemon(true);
+            return t;
+        });
+        this.despachador.setRemoveOnCancelPolicy(true);
+        dataQueue.setPublishListener(this::avisarPublicacion);
     }
     
     @Override
-    public synchronized LoteDatagram getLote(Current current) {
-        LoteDatagram lote = new LoteDatagram();
+    public LoteCodificado getLoteCodificado(Current current) {
+        LoteCodificado lote = new LoteCodificado();
         
         // Intentar obtener un lote de la cola (non-blocking)
-        List<Datagram> datagramas = dataQueue.tryDequeueLote();
+        LotePreparado preparado = siguienteLote();
         
-        if (datagramas == null || datagramas.isEmpty()) {
+        if (preparado == null) {
             // No hay lotes disponibles
             lote.loteId = -1;
-            lote.datagramas = new DatagramStruct[0];
-            lotesVacios++;
+            lote.datos = new byte[0];
             return lote;
         }
         
-        // Convertir List<Datagram> a DatagramStruct[]
+        // Ya viene codificado: solo se asigna el id
         lote.loteId = loteIdCounter.incrementAndGet();
-        lote.datagramas = new DatagramStruct[datagramas.size()];
+        lote.datos = preparado.getCodificado();
         
-        for (int i = 0; i < datagramas.size(); i++) {
-            lote.datagramas[i] = toIceStruct(datagramas.get(i));
+        registrarServido(preparado);
+        return lote;
+    }
+    
+    /**
+     * Lote sin parsear: registros del log segmentado tal como están en el
+     * segmento mapeado, o los bytes ya codificados si el lote no es crudo.
+     */
+    @Override
+    public LoteCrudo getLoteCrudo(Current current) {
+        LotePreparado preparado = siguienteLote();
+        
+        if (preparado == null) {
+            return loteCrudoVacio();
+        }
+        
+        return armarLoteCrudo(preparado);
+    }
+    
+    /**
+     * Como getLoteCrudo; si no hay lotes la solicitud queda estacionada hasta
+     * que se publique uno o venza timeoutMs (máximo MAX_ESPERA_MS, 0 = no esperar).
+     */
+    @Override
+    public CompletionStage<LoteCrudo> getLoteWaitAsync(int timeoutMs, Current current) {
+        LotePreparado preparado = tomarLote();
+        if (preparado != null) {
+            return CompletableFuture.completedFuture(armarLoteCrudo(preparado));
+        }
+        if (timeoutMs <= 0 || !procesamientoActivo) {
+            lotesVacios.incrementAndGet();
+            return CompletableFuture.completedFuture(loteCrudoVacio());
+        }
+        
+        Espera espera = new Espera();
+        synchronized (esperas) {
+            esperas.addLast(espera);
+        }
+        try {
+            espera.timer = despachador.schedule(() -> vencer(espera),
+                Math.min(timeoutMs, MAX_ESPERA_MS), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Master detenido
+            vencer(espera);
         }
         
-        lotesServidos++;
+        // Un lote pudo publicarse entre el intento y el registro de la espera
+        despacharEsperas();
+        return espera.respuesta;
+    }
+    
+    /**
+     * Hasta maxLotes lotes y maxDatagramas datagramas en una sola respuesta.
+     * Cada Worker recibe como máximo su parte justa de la cola (lotes en cola
+     * repartidos entre los Workers con contacto dentro del lease), para que
+     * uno rápido no deje sin trabajo a los demás.
+     */
+    @Override
+    public LoteCrudo[] getLotes(int maxLotes, int maxDatagramas, Current current) {
+        int cupo = cuotaJusta(maxLotes);
+        long restantes = maxDatagramas > 0 ? maxDatagramas : Long.MAX_VALUE;
+        List<LoteCrudo> lotes = new ArrayList<>(cupo);
         
-        if (lotesServidos % 5 == 0) {
-            System.out.printf("[Master] Lotes servidos: %d | Datagramas: %d | Cola restante: %d\n",
-                lotesServidos, datagramas.size(), dataQueue.size());
+        while (lotes.size() < cupo) {
+            // El primer lote se entrega aunque supere el límite de datagramas
+            LotePreparado preparado = tomarLote(lotes.isEmpty() ? Long.MAX_VALUE : restantes);
+            if (preparado == null) {
+                break;
+            }
+            restantes -= preparado.size();
+            lotes.add(armarLoteCrudo(preparado));
         }
         
+        if (lotes.isEmpty()) {
+            lotesVacios.incrementAndGet();
+        }
+        return lotes.toArray(new LoteCrudo[0]);
+    }
+    
+    /**
+     * Como getLotes, con las particiones de bus del Worker asignadas de forma
+     * estable; si no hay lotes para él, la solicitud queda estacionada hasta
+     * que se publique uno de sus particiones o venza timeoutMs.
+     */
+    @Override
+    public CompletionStage<LoteAsignado[]> getLotesAsignadosAsync(String workerId, int maxLotes, int maxDatagramas,
+                                                                 int timeoutMs, Current current) {
+        long limite = maxDatagramas > 0 ? maxDatagramas : Long.MAX_VALUE;
+        int cupo = Math.max(1, maxLotes);
+        List<LoteAsignado> lotes = asignador.tomar(workerId, cupo, limite, this::armarLoteCrudo);
+        // Pudo apartar lotes de otros Workers que estén esperando
+        avisarPublicacion();
+        if (!lotes.isEmpty()) {
+            return CompletableFuture.completedFuture(lotes.toArray(new LoteAsignado[0]));
+        }
+        if (timeoutMs <= 0 || !procesamientoActivo) {
+            lotesVacios.incrementAndGet();
+            return CompletableFuture.completedFuture(new LoteAsignado[0]);
+        }
+        
+        EsperaAsignada espera = new EsperaAsignada(workerId, cupo, limite);
+        synchronized (esperas) {
+            esperasAsignadas.addLast(espera);
+        }
+        try {
+            espera.timer = despachador.schedule(() -> vencer(espera),
+                Math.min(timeoutMs, MAX_ESPERA_MS), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Master detenido
+            vencer(espera);
+        }
+        
+        despacharEsperas();
+        return espera.respuesta;
+    }
+    
+    /**
+     * Lotes que puede recibir un Worker que pide maxLotes: su parte de la cola
+     * redondeada hacia arriba, al menos uno.
+     */
+    private int cuotaJusta(int maxLotes) {
+        int workers = Math.max(1, getWorkersRecientes());
+        int justa = (dataQueue.size() + workers - 1) / workers;
+        return Math.max(1, Math.min(maxLotes, justa));
+    }
+    
+    private LoteCrudo loteCrudoVacio() {
+        LoteCrudo lote = new LoteCrudo();
+        lote.loteId = -1;
+        lote.formato = LoteColumnarBuilder.CRUDO_REGISTROS;
+        lote.diccionario = new String[0];
+        lote.datos = ByteBuffer.allocate(0);
+        return lote;
+    }
+    
+    private LoteCrudo armarLoteCrudo(LotePreparado preparado) {
+        LoteCrudo lote = new LoteCrudo();
+        lote.loteId = loteIdCounter.incrementAndGet();
+        if (preparado.isCrudo()) {
+            lote.formato = LoteColumnarBuilder.CRUDO_REGISTROS;
+            lote.diccionario = preparado.getDiccionario();
+            lote.datos = preparado.getRegistros();
+        } else {
+            lote.formato = LoteColumnarBuilder.CRUDO_CODEC;
+            lote.diccionario = new String[0];
+            lote.datos = ByteBuffer.wrap(preparado.getCodificado());
+        }
+        
+        registrarServido(preparado);
+        return lote;
+    }
+    
+    /**
+     * Versión sin comprimir (más CPU libre en el Master, más bytes en la red).
+     */
+    @Override
+    public LoteColumnar getLoteColumnar(Current current) {
+        LotePreparado preparado = siguienteLote();
+        
+        if (preparado == null) {
+            return LoteColumnarBuilder.empty();
+        }
+        
+        // Un arreglo por campo, textos en diccionario
+        LoteColumnar lote = preparado.toColumnar(loteIdCounter.incrementAndGet());
+        
+        registrarServido(preparado);
         return lote;
     }
     
+    /**
+     * Versión con un struct por datagrama, para Workers que aún no usan getLoteColumnar.
+     */
+    @Override
+    public LoteDatagramEpoch getLoteEpoch(Current current) {
+        LoteDatagramEpoch lote = new LoteDatagramEpoch();
+        
+        LotePreparado preparado = siguienteLote();
+        
+        if (preparado == null) {
+            lote.loteId = -1;
+            lote.datagramas = new DatagramEpochStruct[0];
+            return lote;
+        }
+        
+        lote.loteId = loteIdCounter.incrementAndGet();
+        lote.datagramas = DatagramStructs.toEpochStructs(preparado.toColumnar(lote.loteId));
+        
+        registrarServido(preparado);
+        return lote;
+    }
+    
+    /**
+     * Versión con fechas como texto, para Workers anteriores.
+     */
+    @Override
+    public LoteDatagram getLote(Current current) {
+        LoteDatagram lote = new LoteDatagram();
+        
+        LotePreparado preparado = siguienteLote();
+        
+        if (preparado == null) {
+            lote.loteId = -1;
+            lote.datagramas = new DatagramStruct[0];
+            return lote;
+        }
+        
+        lote.loteId = loteIdCounter.incrementAndGet();
+        DatagramEpochStruct[] epoch = DatagramStructs.toEpochStructs(preparado.toColumnar(lote.loteId));
+        lote.datagramas = new DatagramStruct[epoch.length];
+        
+        for (int i = 0; i < epoch.length; i++) {
+            lote.datagramas[i] = DatagramStructs.toStringStruct(epoch[i]);
+        }
+        
+        registrarServido(preparado);
+        return lote;
+    }
+    
+    /**
+     * Siguiente lote de la cola, o null (y se cuenta como solicitud vacía) si no hay.
+     */
+    private LotePreparado siguienteLote() {
+        LotePreparado preparado = tomarLote();
+        if (preparado == null) {
+            lotesVacios.incrementAndGet();
+        }
+        return preparado;
+    }
+    
+    /**
+     * Siguiente lote no vacío de la cola, o null, sin contar la solicitud.
+     */
+    private LotePreparado tomarLote() {
+        return tomarLote(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Como tomarLote(), si el lote tiene como máximo maxDatagramas datagramas.
+     * Incluye los lotes apartados de particiones que quedaron sin dueño.
+     */
+    private LotePreparado tomarLote(long maxDatagramas) {
+        LotePreparado huerfano = asignador.tomarHuerfano(maxDatagramas);
+        if (huerfano != null) {
+            return huerfano;
+        }
+        LotePreparado preparado = dataQueue.tryDequeueLote(maxDatagramas);
+        while (preparado != null && preparado.size() == 0) {
+            dataQueue.release(preparado);
+            preparado = dataQueue.tryDequeueLote(maxDatagramas);
+        }
+        return preparado;
+    }
+    
+    /**
+     * Llamado por DataQueue tras publicar un lote (en el hilo del productor):
+     * si hay solicitudes estacionadas, el despacho se hace en el hilo del
+     * Master para no cargar al productor con el envío de la respuesta.
+     */
+    private void avisarPublicacion() {
+        synchronized (esperas) {
+            if (esperas.isEmpty() && esperasAsignadas.isEmpty()) {
+                return;
+            }
+        }
+        try {
+            despachador.execute(this::despacharEsperas);
+        } catch (RejectedExecutionException e) {
+            // Master detenido: las esperas ya se completaron vacías
+        }
+    }
+    
+    /**
+     * Empareja solicitudes estacionadas con lotes disponibles, en orden de
+     * llegada. Las respuestas se completan fuera del lock.
+     */
+    private void despacharEsperas() {
+        despacharEsperasAsignadas();
+        while (true) {
+            Espera espera;
+            LotePreparado preparado;
+            synchronized (esperas) {
+                if (esperas.isEmpty()) {
+                    return;
+                }
+                preparado = tomarLote();
+                if (preparado == null) {
+                    return;
+                }
+                espera = esperas.pollFirst();
+            }
+            ScheduledFuture<?> timer = espera.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            espera.respuesta.complete(armarLoteCrudo(preparado));
+        }
+    }
+    
+    /**
+     * Entrega a cada solicitud getLotesAsignados estacionada los lotes de sus
+     * particiones. Repite mientras alguna reciba lotes: al buscar los suyos,
+     * un Worker puede apartar lotes de otro que ya se revisó.
+     */
+    private void despacharEsperasAsignadas() {
+        boolean entregadas = true;
+        while (entregadas) {
+            entregadas = false;
+            List<EsperaAsignada> listas = new ArrayList<>();
+            List<LoteAsignado[]> respuestas = new ArrayList<>();
+            synchronized (esperas) {
+                Iterator<EsperaAsignada> it = esperasAsignadas.iterator();
+                while (it.hasNext()) {
+                    EsperaAsignada espera = it.next();
+                    List<LoteAsignado> lotes = asignador.tomar(espera.workerId, espera.maxLotes,
+                        espera.maxDatagramas, this::armarLoteCrudo);
+                    if (!lotes.isEmpty()) {
+                        it.remove();
+                        listas.add(espera);
+                        respuestas.add(lotes.toArray(new LoteAsignado[0]));
+                    }
+                }
+            }
+            for (int i = 0; i < listas.size(); i++) {
+                EsperaAsignada espera = listas.get(i);
+                ScheduledFuture<?> timer = espera.timer;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                espera.respuesta.complete(respuestas.get(i));
+                entregadas = true;
+            }
+        }
+    }
+    
+    /**
+     * Vence una espera getLotesAsignados que sigue estacionada: responde vacío.
+     */
+    private void vencer(EsperaAsignada espera) {
+        synchronized (esperas) {
+            if (!esperasAsignadas.remove(espera)) {
+                return; // Ya fue despachada
+            }
+        }
+        lotesVacios.incrementAndGet();
+        espera.respuesta.complete(new LoteAsignado[0]);
+    }
+    
+    /**
+     * Vence una espera que sigue estacionada: responde con un lote vacío.
+     */
+    private void vencer(Espera espera) {
+        synchronized (esperas) {
+            if (!esperas.remove(espera)) {
+                return; // Ya fue despachada
+            }
+        }
+        lotesVacios.incrementAndGet();
+        espera.respuesta.complete(loteCrudoVacio());
+    }
+    
+    /**
+     * Cuenta el lote como servido y recicla su contenedor: la respuesta ya
+     * tiene su propia copia (o vista) de los datos.
+     */
+    private void registrarServido(LotePreparado preparado) {
+        int datagramas = preparado.size();
+        dataQueue.release(preparado);
+        long servidos = lotesServidos.incrementAndGet();
+        
+        if (servidos % 5 == 0) {
+            System.out.printf("[Master] Lotes servidos: %d | Datagramas: %d | Cola restante: %s\n",
+                servidos, datagramas, dataQueue.describirLlenado());
+        }
+    }
+    
     @Override
     public void sendResultadosParciales(ResultadosParciales resultados, Current current) {
+        workersRegistrados.replace(resultados.workerId, System.currentTimeMillis());
         System.out.printf("[Master] Recibidos resultados del Worker '%s' - Lote #%d - %d arcos\n",
             resultados.workerId, resultados.loteId, 
             resultados.resultados != null ? resultados.resultados.length : 0);
@@ -87,53 +527,65 @@ public class MasterImpl implements MasterService {
         aggregator.agregarResultadosParciales(resultados);
     }
     
+    /**
+     * Resultados de un lote asignado: se agregan como los demás y el estado
+     * de sus buses queda para un eventual traspaso de la partición. Si el
+     * lote se volvió a encolar (el Worker venció) se descartan, así no se
+     * cuenta dos veces.
+     */
+    @Override
+    public void sendResultadosAsignados(ResultadosAsignados resultados, Current current) {
+        if (asignador.registrarResultados(resultados.resultados.workerId, resultados.particion,
+                resultados.resultados.loteId, resultados.estado)) {
+            sendResultadosParciales(resultados.resultados, current);
+        } else {
+            System.out.printf("[Master] Descartados resultados del Worker '%s' - Lote #%d (lote vuelto a encolar)\n",
+                resultados.resultados.workerId, resultados.resultados.loteId);
+        }
+    }
+    
     @Override
     public boolean hayMasLotes(Current current) {
-        return procesamientoActivo && !dataQueue.isEmpty();
+        return procesamientoActivo && (!dataQueue.isEmpty() || asignador.getGuardados() > 0);
     }
     
     @Override
     public synchronized boolean registrarWorker(String workerId, Current current) {
-        if (workersRegistrados.add(workerId)) {
+        if (workersRegistrados.put(workerId, System.currentTimeMillis()) == null) {
             System.out.println("[Master] Worker registrado: " + workerId);
             return true;
         }
         return false; // Ya estaba registrado
     }
     
-    /**
-     * Convierte un Datagram Java a DatagramStruct ICE.
-     */
-    private DatagramStruct toIceStruct(Datagram d) {
-        DatagramStruct ice = new DatagramStruct();
-        ice.eventType = d.getEventType() != null ? d.getEventType() : "";
-        ice.registerDate = d.getRegisterDate() != null ? 
-            d.getRegisterDate().format(DATE_FORMATTER) : "";
-        ice.stopId = d.getStopId();
-        ice.odometer = d.getOdometer();
-        ice.latitude = d.getLatitude();
-        ice.longitude = d.getLongitude();
-        ice.taskId = d.getTaskId();
-        ice.lineId = d.getLineId();
-        ice.tripId = d.getTripId();
-        ice.unknown1 = d.getUnknown1() != null ? d.getUnknown1() : "";
-        ice.datagramDate = d.getDatagramDate() != null ? 
-            d.getDatagramDate().format(DATE_FORMATTER) : "";
-        ice.busId = d.getBusId();
-        return ice;
-    }
-    
     /**
      * Detiene el procesamiento.
      */
     public void stop() {
         procesamientoActivo = false;
+        
+        // Responder vacío a las solicitudes estacionadas
+        List<Espera> pendientes;
+        List<EsperaAsignada> pendientesAsignadas;
+        synchronized (esperas) {
+            pendientes = new ArrayList<>(esperas);
+            esperas.clear();
+            pendientesAsignadas = new ArrayList<>(esperasAsignadas);
+            esperasAsignadas.clear();
+        }
+        for (Espera espera : pendientes) {
+            espera.respuesta.complete(loteCrudoVacio());
+        }
+        for (EsperaAsignada espera : pendientesAsignadas) {
+            espera.respuesta.complete(new LoteAsignado[0]);
+        }
+        despachador.shutdownNow();
     }
     
     /**
      * Número de Workers registrados.
      */
-    public int getNumeroWorkers() {
+    public synchronized int getNumeroWorkers() {
         return workersRegistrados.size();
     }
     
@@ -144,25 +596,47 @@ public class MasterImpl implements MasterService {
         return workersRegistrados.size();
     }
     
+    /**
+     * Workers registrados con contacto (registro o resultados) dentro del
+     * lease: los que se fueron no cuentan para la parte justa de la cola.
+     */
+    public int getWorkersRecientes() {
+        long desde = System.currentTimeMillis() - leaseMs;
+        int recientes = 0;
+        for (long contacto : workersRegistrados.values()) {
+            if (contacto >= desde) {
+                recientes++;
+            }
+        }
+        return recientes;
+    }
+    
     /**
      * Total de lotes servidos.
      */
     public long getLotesServidos() {
-        return lotesServidos;
+        return lotesServidos.get();
     }
     
     /**
      * Alias para estadísticas (usado por ServerApp).
      */
     public long getLotesDespachados() {
-        return lotesServidos;
+        return lotesServidos.get();
+    }
+    
+    /**
+     * Asignación de particiones de bus (getLotesAsignados).
+     */
+    public AsignadorParticiones getAsignador() {
+        return asignador;
     }
     
     /**
      * Total de solicitudes vacías (cola vacía).
      */
     public long getLotesVacios() {
-        return lotesVacios;
+        return lotesVacios.get();
     }
     
     /**
@@ -0,0 +1,157 @@
+package com.mio.server;
+
+import com.mio.model.Datagram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingesta directa en memoria: agrupa los datagramas que drena el DataReceiver
+ * en lotes y los encola en DataQueue, sin el ciclo escribir → sondear → leer
+ * → parsear del archivo.
+ *
+ * Opcionalmente escribe una copia asíncrona al repositorio. La copia nunca
+ * frena el camino en memoria: si su cola se llena, los bloques se descartan
+ * y se contabilizan.
+ *
+ * Como el CCOController, arma los lotes por partición de bus (ver LotePartitioner).
+ */
+public class MemoryBatcher implements DatagramSink, LoteProducer {
+    private static final int COPY_QUEUE_CAPACITY = 64;
+    
+    private final DataQueue dataQueue;
+    private final int batchSize;
+    private final DatagramRepository copyRepository;
+    private final BlockingQueue<List<Datagram>> copyQueue;
+    private final Thread copyThread;
+    private volatile boolean copyRunning;
+    
+    // Lotes en armado por partición, reutilizados (DataQueue copia lo que encola)
+    private final LotePartitioner lotes;
+    private volatile long totalProcessed;
+    private volatile long totalBatches;
+    private volatile long copyDropped;
+    private volatile long copyFailures;
+    
+    public MemoryBatcher(DataQueue dataQueue, int batchSize) {
+        this(dataQueue, batchSize, null, 1);
+    }
+    
+    /**
+     * @param copyRepository repositorio para la copia asíncrona (null = sin copia)
+     * @param particiones particiones de bus en que se arman los lotes (1 = orden de llegada)
+     */
+    public MemoryBatcher(DataQueue dataQueue, int batchSize, DatagramRepository copyRepository, int particiones) {
+        this.dataQueue = dataQueue;
+        this.batchSize = batchSize;
+        this.copyRepository = copyRepository;
+        this.lotes = new LotePartitioner(dataQueue, batchSize, particiones);
+        
+        if (copyRepository != null) {
+            this.copyQueue = new ArrayBlockingQueue<>(COPY_QUEUE_CAPACITY);
+            this.copyRunning = true;
+            this.copyThread = new Thread(this::copyLoop, "MemoryBatcher-Copia");
+            this.copyThread.setDaemon(true);
+            this.copyThread.start();
+        } else {
+            this.copyQueue = null;
+            this.copyThread = null;
+        }
+    }
+    
+    /**
+     * Agrega los datagramas al lote de su partición y encola cada lote
+     * completo (bloqueante si DataQueue está llena). Lo llama solo el hilo
+     * escritor del DataReceiver.
+     */
+    @Override
+    public void accept(List<Datagram> datagrams) throws InterruptedException {
+        if (copyQueue != null && !copyQueue.offer(new ArrayList<>(datagrams))) {
+            copyDropped += datagrams.size();
+        }
+        
+        for (Datagram datagram : datagrams) {
+            if (lotes.add(datagram)) {
+                contarLote();
+            }
+        }
+        totalProcessed += datagrams.size();
+    }
+    
+    private void contarLote() {
+        totalBatches++;
+        
+        if (totalBatches % 10 == 0) {
+            System.out.printf("[MemoryBatcher] Lotes encolados: %d | Datagramas: %d | Cola: %s\n",
+                totalBatches, totalProcessed, dataQueue.describirLlenado());
+        }
+    }
+    
+    /**
+     * Hilo de copia: persiste en el repositorio los bloques recibidos.
+     */
+    private void copyLoop() {
+        while (copyRunning || !copyQueue.isEmpty()) {
+            try {
+                List<Datagram> bloque = copyQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (bloque != null) {
+                    copyRepository.saveAll(bloque);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                copyFailures++;
+                System.err.println("[MemoryBatcher] Error en la copia a archivo: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Encola los últimos lotes parciales (sin bloquear) y termina la copia pendiente.
+     * Debe llamarse después de detener el DataReceiver.
+     */
+    public void close() {
+        if (!lotes.isEmpty()) {
+            totalBatches += lotes.tryFlush();
+            if (lotes.getDescartados() > 0) {
+                System.err.println("[MemoryBatcher] Cola llena al cerrar, se descartan " +
+                    lotes.getDescartados() + " datagramas de los últimos lotes");
+            }
+        }
+        
+        if (copyThread != null) {
+            copyRunning = false;
+            try {
+                copyThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (copyDropped > 0 || copyFailures > 0) {
+                System.out.println("[MemoryBatcher] Copia a archivo incompleta: " + copyDropped +
+                    " datagramas descartados, " + copyFailures + " bloques con error");
+            }
+        }
+    }
+    
+    @Override
+    public long getTotalProcessed() {
+        return totalProcessed;
+    }
+    
+    @Override
+    public long getTotalBatches() {
+        return totalBatches;
+    }
+    
+    /**
+     * Datagramas que no se copiaron al archivo porque la cola de copia estaba llena.
+     */
+    public long getCopyDropped() {
+        return copyDropped;
+    }
+}
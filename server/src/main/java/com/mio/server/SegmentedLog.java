@@ -0,0 +1,538 @@
+package com.mio.server;
+
+import com.mio.model.Datagram;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.DatagramDictionary;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log de datagramas dividido en segmentos de tamaño fijo mapeados en memoria.
+ *
+ * Cada segmento es un archivo "segment-<indiceBase>.bin" con el header y los
+ * registros de DatagramBinaryFormat; el campo reservado del header guarda los
+ * registros confirmados del segmento. Un manifest ("manifest.csv") lleva por
+ * segmento el índice base, registros, bytes y la primera y última
+ * datagramDate. Los conteos son O(1) y las lecturas son vistas (slices) del
+ * segmento mapeado, sin copia.
+ *
+ * La retención (por tamaño total o por antigüedad) solo elimina segmentos
+ * sellados que el lector ya consumió (ver {@link #markConsumed(long)}).
+ */
+public class SegmentedLog implements AutoCloseable {
+    
+    /**
+     * Política de retención; un límite en 0 queda deshabilitado.
+     */
+    public static class RetentionPolicy {
+        final long maxBytes;
+        final long maxAgeSeconds;
+        
+        /**
+         * @param maxBytes tamaño máximo en disco del log
+         * @param maxAgeSeconds antigüedad máxima de un segmento, medida en
+         *                      datagramDate respecto al dato más reciente del log
+         */
+        public RetentionPolicy(long maxBytes, long maxAgeSeconds) {
+            this.maxBytes = Math.max(0, maxBytes);
+            this.maxAgeSeconds = Math.max(0, maxAgeSeconds);
+        }
+        
+        public static RetentionPolicy none() {
+            return new RetentionPolicy(0, 0);
+        }
+        
+        @Override
+        public String toString() {
+            if (maxBytes == 0 && maxAgeSeconds == 0) {
+                return "sin retención";
+            }
+            StringBuilder sb = new StringBuilder();
+            if (maxBytes > 0) {
+                sb.append("máx. ").append(maxBytes / (1024 * 1024)).append(" MB");
+            }
+            if (maxAgeSeconds > 0) {
+                sb.append(sb.length() > 0 ? ", " : "").append("máx. ").append(maxAgeSeconds / 3600).append(" h");
+            }
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Segmento mapeado en memoria.
+     */
+    private static final class Segment {
+        final long baseIndex;
+        final Path path;
+        MappedByteBuffer map;
+        ByteBuffer writeView;
+        volatile int records;
+        int firstDate = DatagramBinaryFormat.NO_DATE;
+        int lastDate = DatagramBinaryFormat.NO_DATE;
+        boolean sealed;
+        
+        Segment(long baseIndex, Path path) {
+            this.baseIndex = baseIndex;
+            this.path = path;
+        }
+        
+        long endIndex() {
+            return baseIndex + records;
+        }
+        
+        long dataBytes() {
+            return DatagramBinaryFormat.HEADER_SIZE + (long) records * DatagramBinaryFormat.RECORD_SIZE;
+        }
+        
+        /**
+         * Actualiza la primera y última datagramDate (en tiempo, no en orden de llegada).
+         */
+        void trackDate(int epochSeconds) {
+            if (epochSeconds == DatagramBinaryFormat.NO_DATE) {
+                return;
+            }
+            if (firstDate == DatagramBinaryFormat.NO_DATE ||
+                    Integer.compareUnsigned(epochSeconds, firstDate) < 0) {
+                firstDate = epochSeconds;
+            }
+            if (lastDate == DatagramBinaryFormat.NO_DATE ||
+                    Integer.compareUnsigned(epochSeconds, lastDate) > 0) {
+                lastDate = epochSeconds;
+            }
+        }
+    }
+    
+    private static final String MANIFEST_FILE = "manifest.csv";
+    private static final String MANIFEST_HEADER =
+        "baseIndex,records,bytes,firstDatagramDate,lastDatagramDate,sealed";
+    private static final String DICTIONARY_FILE = "datagrams.dict";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    // Offset de la datagramDate dentro de un registro (ver DatagramBinaryFormat)
+    private static final int DATAGRAM_DATE_OFFSET = 28;
+    
+    private final Path directory;
+    private final int segmentBytes;
+    private final int recordsPerSegment;
+    private final RetentionPolicy retention;
+    private final DatagramDictionary dictionary;
+    private final List<Segment> segments;
+    private final List<Path> pendingDeletes;
+    
+    private Segment active;
+    private long retainedRecords;
+    private volatile long consumedIndex;
+    private long deletedSegments;
+    private boolean closed;
+    
+    /**
+     * Abre (o crea) el log en el directorio indicado.
+     * @param segmentBytes tamaño de cada segmento en disco
+     */
+    public SegmentedLog(Path directory, int segmentBytes, RetentionPolicy retention) throws IOException {
+        if (segmentBytes < DatagramBinaryFormat.HEADER_SIZE + DatagramBinaryFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("Tamaño de segmento demasiado pequeño: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.recordsPerSegment = (segmentBytes - DatagramBinaryFormat.HEADER_SIZE) / DatagramBinaryFormat.RECORD_SIZE;
+        this.segmentBytes = DatagramBinaryFormat.HEADER_SIZE + recordsPerSegment * DatagramBinaryFormat.RECORD_SIZE;
+        this.retention = retention;
+        this.segments = new ArrayList<>();
+        this.pendingDeletes = new ArrayList<>();
+        
+        Files.createDirectories(directory);
+        this.dictionary = new DatagramDictionary(directory.resolve(DICTIONARY_FILE));
+        recover();
+        
+        if (segments.isEmpty() || active.records >= recordsPerSegment) {
+            roll();
+        }
+    }
+    
+    // ==================== Escritura ====================
+    
+    /**
+     * Agrega un datagrama al segmento activo (visible para el lector al retornar).
+     */
+    public synchronized void append(Datagram datagram) throws IOException {
+        if (closed) {
+            throw new IOException("SegmentedLog cerrado: " + directory);
+        }
+        if (active.records >= recordsPerSegment) {
+            roll();
+        }
+        
+        Segment s = active;
+        ByteBuffer out = s.writeView;
+        out.position(DatagramBinaryFormat.HEADER_SIZE + s.records * DatagramBinaryFormat.RECORD_SIZE);
+        DatagramBinaryFormat.write(datagram, dictionary, out);
+        s.trackDate(DatagramBinaryFormat.toEpochSeconds(datagram.getDatagramDate()));
+        
+        // Confirmar: conteo en el header del segmento y luego en memoria
+        s.map.putLong(DatagramBinaryFormat.HEADER_RECORDS_OFFSET, s.records + 1);
+        s.records++;
+        retainedRecords++;
+    }
+    
+    /**
+     * Los registros ya están en el page cache al agregarse; fsync fuerza
+     * además el segmento activo a disco.
+     */
+    public synchronized void flush(boolean fsync) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (fsync) {
+            active.map.force();
+        }
+        writeManifest();
+    }
+    
+    /**
+     * Sella el segmento activo y abre uno nuevo.
+     */
+    private void roll() throws IOException {
+        if (active != null) {
+            active.sealed = true;
+            active.map.force();
+        }
+        long baseIndex = active != null ? active.endIndex() : 0;
+        Segment s = new Segment(baseIndex, segmentPath(baseIndex));
+        map(s);
+        DatagramBinaryFormat.writeHeader(s.writeView);
+        s.map.putLong(DatagramBinaryFormat.HEADER_RECORDS_OFFSET, 0L);
+        segments.add(s);
+        active = s;
+        
+        applyRetention();
+        writeManifest();
+    }
+    
+    private void map(Segment s) throws IOException {
+        try (FileChannel channel = FileChannel.open(s.path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            s.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        s.writeView = s.map.duplicate();
+    }
+    
+    // ==================== Lectura ====================
+    
+    /**
+     * Registros confirmados a partir de fromIndex, como vista de solo lectura
+     * del segmento que los contiene (sin copia). No cruza de segmento y
+     * retorna un buffer vacío si aún no hay registros en esa posición.
+     * @param maxRecords máximo de registros a retornar
+     */
+    public ByteBuffer read(long fromIndex, int maxRecords) throws IOException {
+        Segment s = findSegment(fromIndex);
+        if (s == null) {
+            return ByteBuffer.allocate(0);
+        }
+        int offset = (int) (fromIndex - s.baseIndex);
+        int count = Math.min(maxRecords, s.records - offset);
+        if (count <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+        
+        ByteBuffer view = s.map.asReadOnlyBuffer();
+        int start = DatagramBinaryFormat.HEADER_SIZE + offset * DatagramBinaryFormat.RECORD_SIZE;
+        view.limit(start + count * DatagramBinaryFormat.RECORD_SIZE);
+        view.position(start);
+        return view.slice();
+    }
+    
+    private synchronized Segment findSegment(long index) throws IOException {
+        if (segments.isEmpty() || index < segments.get(0).baseIndex) {
+            throw new IOException("Registro " + index + " ya eliminado por retención (primero: " +
+                getFirstIndex() + ")");
+        }
+        // Búsqueda desde el final: el lector suele estar cerca del segmento activo
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment s = segments.get(i);
+            if (index >= s.baseIndex) {
+                return index < s.baseIndex + recordsPerSegment ? s : null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Indica que el lector ya procesó todos los registros anteriores a index;
+     * habilita la retención de los segmentos sellados correspondientes.
+     */
+    public void markConsumed(long index) {
+        long anterior = consumedIndex;
+        consumedIndex = Math.max(anterior, index);
+        
+        synchronized (this) {
+            Segment oldest = segments.isEmpty() ? null : segments.get(0);
+            if (!closed && oldest != null && oldest.sealed && oldest.endIndex() <= consumedIndex
+                    && anterior < oldest.endIndex()) {
+                try {
+                    applyRetention();
+                    writeManifest();
+                } catch (IOException e) {
+                    System.err.println("[SegmentedLog] Error aplicando retención: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    // ==================== Retención ====================
+    
+    /**
+     * Elimina los segmentos más antiguos que excedan la política, siempre
+     * que estén sellados y consumidos.
+     */
+    private void applyRetention() {
+        retryPendingDeletes();
+        if (retention.maxBytes == 0 && retention.maxAgeSeconds == 0) {
+            return;
+        }
+        
+        long newestDate = 0;
+        for (Segment s : segments) {
+            if (s.lastDate != DatagramBinaryFormat.NO_DATE) {
+                newestDate = Math.max(newestDate, Integer.toUnsignedLong(s.lastDate));
+            }
+        }
+        
+        Iterator<Segment> it = segments.iterator();
+        while (it.hasNext()) {
+            Segment s = it.next();
+            if (!s.sealed || s.endIndex() > consumedIndex) {
+                break;
+            }
+            boolean excedeTamano = retention.maxBytes > 0 && getSizeBytes() > retention.maxBytes;
+            boolean excedeEdad = retention.maxAgeSeconds > 0 && s.lastDate != DatagramBinaryFormat.NO_DATE
+                && newestDate - Integer.toUnsignedLong(s.lastDate) > retention.maxAgeSeconds;
+            if (!excedeTamano && !excedeEdad) {
+                break;
+            }
+            
+            it.remove();
+            retainedRecords -= s.records;
+            deletedSegments++;
+            s.map = null;
+            s.writeView = null;
+            delete(s.path);
+        }
+    }
+    
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // En Windows un archivo mapeado no se puede borrar hasta que el
+            // mapeo se libere; se reintenta en la siguiente pasada
+            pendingDeletes.add(path);
+        }
+    }
+    
+    private void retryPendingDeletes() {
+        if (pendingDeletes.isEmpty()) {
+            return;
+        }
+        List<Path> pendientes = new ArrayList<>(pendingDeletes);
+        pendingDeletes.clear();
+        for (Path path : pendientes) {
+            delete(path);
+        }
+    }
+    
+    // ==================== Manifest y recuperación ====================
+    
+    /**
+     * Reescribe el manifest de forma atómica (archivo temporal + rename).
+     */
+    private void writeManifest() throws IOException {
+        Path tmp = directory.resolve(MANIFEST_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_HEADER);
+            writer.newLine();
+            for (Segment s : segments) {
+                writer.write(s.baseIndex + "," + s.records + "," + s.dataBytes() + "," +
+                    formatDate(s.firstDate) + "," + formatDate(s.lastDate) + "," + s.sealed);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, directory.resolve(MANIFEST_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Reconstruye el estado desde los segmentos en disco. El conteo de cada
+     * segmento sale de su header; las fechas de los sellados se toman del
+     * manifest y las del segmento activo se recalculan.
+     */
+    private void recover() throws IOException {
+        Map<Long, String[]> manifest = readManifest();
+        
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("[SegmentedLog] Ignorando archivo desconocido: " + name);
+                }
+            }
+        }
+        bases.sort(null);
+        
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            Segment s = new Segment(base, segmentPath(base));
+            if (Files.size(s.path) != segmentBytes) {
+                throw new IOException("El segmento " + s.path + " no tiene el tamaño configurado (" +
+                    segmentBytes + " bytes)");
+            }
+            map(s);
+            DatagramBinaryFormat.checkHeader(s.map, 0);
+            s.records = (int) Math.min(recordsPerSegment,
+                s.map.getLong(DatagramBinaryFormat.HEADER_RECORDS_OFFSET));
+            s.sealed = i < bases.size() - 1;
+            
+            String[] entrada = manifest.get(base);
+            if (s.sealed && entrada != null && Integer.parseInt(entrada[1]) == s.records) {
+                s.firstDate = parseDate(entrada[3]);
+                s.lastDate = parseDate(entrada[4]);
+            } else {
+                for (int r = 0; r < s.records; r++) {
+                    s.trackDate(s.map.getInt(DatagramBinaryFormat.HEADER_SIZE +
+                        r * DatagramBinaryFormat.RECORD_SIZE + DATAGRAM_DATE_OFFSET));
+                }
+            }
+            segments.add(s);
+            retainedRecords += s.records;
+            active = s;
+        }
+        
+        if (!segments.isEmpty()) {
+            // Lo anterior al primer segmento retenido ya fue consumido
+            consumedIndex = segments.get(0).baseIndex;
+            System.out.println("[SegmentedLog] Recuperados " + segments.size() + " segmentos, " +
+                retainedRecords + " registros (índices " + getFirstIndex() + "-" + getNextIndex() + ")");
+        }
+    }
+    
+    private Map<Long, String[]> readManifest() throws IOException {
+        Map<Long, String[]> entradas = new HashMap<>();
+        Path path = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(path)) {
+            return entradas;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 1; i < lines.size(); i++) {
+            String[] campos = lines.get(i).split(",", -1);
+            if (campos.length >= 6) {
+                entradas.put(Long.parseLong(campos[0]), campos);
+            }
+        }
+        return entradas;
+    }
+    
+    private Path segmentPath(long baseIndex) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseIndex, SEGMENT_SUFFIX));
+    }
+    
+    private static String formatDate(int epochSeconds) {
+        LocalDateTime date = DatagramBinaryFormat.fromEpochSeconds(epochSeconds);
+        return date != null ? date.toString() : "";
+    }
+    
+    private static int parseDate(String text) {
+        return text.isEmpty() ? DatagramBinaryFormat.NO_DATE
+            : DatagramBinaryFormat.toEpochSeconds(LocalDateTime.parse(text));
+    }
+    
+    // ==================== Estadísticas (O(1)) ====================
+    
+    /**
+     * Registros retenidos actualmente en el log.
+     */
+    public synchronized long getRecordCount() {
+        return retainedRecords;
+    }
+    
+    /**
+     * Índice del registro más antiguo retenido.
+     */
+    public synchronized long getFirstIndex() {
+        return segments.isEmpty() ? 0 : segments.get(0).baseIndex;
+    }
+    
+    /**
+     * Índice que tendrá el próximo registro agregado.
+     */
+    public synchronized long getNextIndex() {
+        return active != null ? active.endIndex() : 0;
+    }
+    
+    /**
+     * Tamaño en disco del log (los segmentos se reservan completos).
+     */
+    public synchronized long getSizeBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+    
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+    
+    /**
+     * Segmentos eliminados por retención en esta sesión.
+     */
+    public synchronized long getDeletedSegments() {
+        return deletedSegments;
+    }
+    
+    public DatagramDictionary getDictionary() {
+        return dictionary;
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+    
+    public RetentionPolicy getRetention() {
+        return retention;
+    }
+    
+    /**
+     * Fuerza el segmento activo a disco y guarda el manifest.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        active.map.force();
+        writeManifest();
+        closed = true;
+    }
+}
@@ -1,14 +1,19 @@
 package com.mio.server;
 
 import com.mio.common.util.NetworkConfig;
+import com.mio.util.DatagramFileFormat;
 import com.zeroc.Ice.Communicator;
 import com.zeroc.Ice.ObjectAdapter;
 import com.zeroc.Ice.Util;
 
+import java.nio.file.Paths;
+import java.util.Arrays;
+
 /**
  * Aplicación servidor que integra todos los componentes:
  * - DataReceiver: recibe datagramas de buses (puerto 10000)
  * - CCOController: lee archivo y encola lotes (Producer)
+ *   (o MemoryBatcher: agrupa en memoria lo recibido, ver IngestMode)
  * - Master: despacha lotes a Workers y recibe resultados (puerto 10001)
  * - Aggregator: combina resultados parciales de Workers
  * - ExperimentLogger: registra métricas para análisis de rendimiento
@@ -16,27 +21,62 @@ import com.zeroc.Ice.Util;
  * CONFIGURACIÓN DE RED: Edita config/network.properties para cambiar IPs
  * 
  * ARGUMENTOS PARA EXPERIMENTOS:
- *   java -jar server.jar [dataFile] [batchSize] [numWorkers] [datasetSize] [experimentId]
+ *   java -jar server.jar [dataFile] [batchSize] [numWorkers] [datasetSize] [experimentId] [ingestMode]
  *   Ejemplo: java -jar server.jar data/received_datagrams.csv 10000 4 "1M" "exp_001"
+ *
+ * ingestMode: "file" (default: archivo + CCOController), "memory" (lotes
+ * directo en memoria, sin archivo) o "memory+file" (memoria + copia
+ * asíncrona al archivo).
+ *
+ * Si dataFile termina en ".seg" se usa un log segmentado (directorio); su
+ * tamaño de segmento y retención se ajustan con propiedades ICE:
+ *   --MIO.Segment.SizeMB=64 --MIO.Retention.MaxMB=1024 --MIO.Retention.MaxAgeHours=0
+ * La capacidad de DataQueue va en datagramas y, opcionalmente, en MB:
+ *   --MIO.Queue.MaxRecords=1000000 --MIO.Queue.MaxMB=0
+ * y con un directorio de spill los lotes que no caben pasan a disco en vez
+ * de frenar al productor:
+ *   --MIO.Queue.SpillDir=data/spill --MIO.Queue.SpillMaxMB=0
+ * Con --MIO.Forward.Raw=1 el CCOController no parsea el log segmentado: los
+ * lotes son vistas de los registros y los Workers los decodifican.
+ * Los lotes se arman por partición de bus, así cada uno lleva fragmentos
+ * completos de viajes (1 = por orden de llegada):
+ *   --MIO.Lote.Partitions=8
+ * y el Master entrega cada partición siempre al mismo Worker
+ * (getLotesAsignados); un Worker sin contacto pierde sus particiones tras:
+ *   --MIO.Worker.LeaseMs=30000
  */
 public class ServerApp {
     private static final String DEFAULT_DATA_FILE = "data/received_datagrams.csv";
     private static final int DEFAULT_BATCH_SIZE = 10000;
-    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    // Capacidad de DataQueue en datagramas (0 MB = sin límite en bytes)
+    private static final int DEFAULT_QUEUE_RECORDS = 1_000_000;
+    private static final int DEFAULT_QUEUE_MB = 0;
+    // Hilos de despacho ICE del DataReceiver (crece con el número de buses)
+    private static final int RECEIVER_THREADS = 4;
+    private static final int RECEIVER_THREADS_MAX = 32;
+    // Log segmentado (".seg"): tamaño de segmento y retención por defecto
+    private static final int DEFAULT_SEGMENT_MB = 64;
+    private static final int DEFAULT_RETENTION_MB = 1024;
+    private static final int DEFAULT_RETENTION_HOURS = 0;
+    // Particiones de bus en que el productor arma los lotes
+    private static final int DEFAULT_PARTITIONS = 8;
 
     public static void main(String[] args) {
-        String dataFile = args.length > 0 ? args[0] : DEFAULT_DATA_FILE;
-        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BATCH_SIZE;
+        // Las propiedades ICE (--Prop=valor) no cuentan como argumentos posicionales
+        String[] posArgs = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        String dataFile = posArgs.length > 0 ? posArgs[0] : DEFAULT_DATA_FILE;
+        int batchSize = posArgs.length > 1 ? Integer.parseInt(posArgs[1]) : DEFAULT_BATCH_SIZE;
         
         // Parámetros para experimentos
-        int numWorkers = args.length > 2 ? Integer.parseInt(args[2]) : 0;
-        String datasetSize = args.length > 3 ? args[3] : "unknown";
-        String experimentId = args.length > 4 ? args[4] : "exp_" + System.currentTimeMillis();
+        int numWorkers = posArgs.length > 2 ? Integer.parseInt(posArgs[2]) : 0;
+        String datasetSize = posArgs.length > 3 ? posArgs[3] : "unknown";
+        String experimentId = posArgs.length > 4 ? posArgs[4] : "exp_" + System.currentTimeMillis();
+        IngestMode ingestMode = posArgs.length > 5 ? IngestMode.fromArg(posArgs[5]) : IngestMode.FILE;
         
         // Crear logger de experimentos si se especificaron parámetros
         ExperimentLogger experimentLogger = null;
-        if (args.length > 2) {
-            experimentLogger = new ExperimentLogger(experimentId, numWorkers, datasetSize);
+        if (posArgs.length > 2) {
+            experimentLogger = new ExperimentLogger(experimentId, numWorkers, datasetSize, ingestMode);
         }        System.out.println("╔══════════════════════════════════════════════════════════════╗");
         System.out.println("║         SERVIDOR MIO - Sistema Distribuido                   ║");
         System.out.println("╠══════════════════════════════════════════════════════════════╣");
@@ -51,11 +91,20 @@ public class ServerApp {
         Communicator communicator = null;
         Thread ccoThread = null;
         MasterImpl master = null;
+        DataQueue queueRef = null;
         
         try {
             // Inicializar ICE
             communicator = Util.initialize(args);
             
+            // El DataReceiver ya no serializa la recepción, así que su pool
+            // de despacho puede atender varios buses en paralelo
+            com.zeroc.Ice.Properties props = communicator.getProperties();
+            if (props.getProperty("DataReceiverAdapter.ThreadPool.Size").isEmpty()) {
+                props.setProperty("DataReceiverAdapter.ThreadPool.Size", String.valueOf(RECEIVER_THREADS));
+                props.setProperty("DataReceiverAdapter.ThreadPool.SizeMax", String.valueOf(RECEIVER_THREADS_MAX));
+            }
+            
             // ============================================================
             // ADAPTER 1: DataReceiver (recibe datagramas de Buses)
             // Puerto: DATA_RECEIVER_PORT (default 10000)
@@ -66,26 +115,86 @@ public class ServerApp {
                 dataReceiverEndpoint
             );
             
-            // Crear repositorio de datagramas
-            DatagramRepository repository = new DatagramRepository(dataFile);
-            System.out.println("✓ Repositorio de datagramas: " + dataFile);
+            // Crear repositorio de datagramas (en modo "memory" no hay archivo)
+            DatagramRepository repository = null;
+            SegmentedLog segmentedLog = null;
+            if (ingestMode == IngestMode.MEMORY) {
+                System.out.println("✓ Ingesta en memoria: sin archivo de datagramas");
+            } else if (DatagramFileFormat.fromPath(dataFile) == DatagramFileFormat.SEGMENTED) {
+                SegmentedLog.RetentionPolicy retention = new SegmentedLog.RetentionPolicy(
+                    props.getPropertyAsIntWithDefault("MIO.Retention.MaxMB", DEFAULT_RETENTION_MB) * 1024L * 1024L,
+                    props.getPropertyAsIntWithDefault("MIO.Retention.MaxAgeHours", DEFAULT_RETENTION_HOURS) * 3600L);
+                int segmentBytes = props.getPropertyAsIntWithDefault("MIO.Segment.SizeMB", DEFAULT_SEGMENT_MB) * 1024 * 1024;
+                segmentedLog = new SegmentedLog(Paths.get(dataFile), segmentBytes, retention);
+                repository = new DatagramRepository(segmentedLog, AppendLog.Durability.NONE);
+                System.out.println("✓ Log segmentado de datagramas: " + dataFile +
+                    " (segmentos de " + segmentBytes / (1024 * 1024) + " MB, " + retention + ")");
+                if (ingestMode == IngestMode.MEMORY_COPY) {
+                    // Nadie lee la copia: todo cuenta como consumido para la retención
+                    segmentedLog.markConsumed(Long.MAX_VALUE);
+                }
+            } else {
+                repository = new DatagramRepository(dataFile);
+                System.out.println("✓ Repositorio de datagramas: " + dataFile +
+                    " (group-commit: " + AppendLog.GroupCommitPolicy.defaults() + ")");
+            }
+            
+            // ============================================================
+            // DATAQUEUE + PRODUCER (CCOController o MemoryBatcher)
+            // ============================================================
+            long queueRecords = props.getPropertyAsIntWithDefault("MIO.Queue.MaxRecords", DEFAULT_QUEUE_RECORDS);
+            long queueBytes = props.getPropertyAsIntWithDefault("MIO.Queue.MaxMB", DEFAULT_QUEUE_MB) * 1024L * 1024L;
+            DataQueue dataQueue = new DataQueue(queueRecords, queueBytes, batchSize);
+            System.out.println("✓ DataQueue creada (capacidad: " + queueRecords + " datagramas" +
+                (queueBytes > 0 ? ", " + queueBytes / (1024 * 1024) + " MB" : "") +
+                ", " + dataQueue.getCapacity() + " contenedores de lote)");
+            queueRef = dataQueue;
+            String spillDir = props.getProperty("MIO.Queue.SpillDir");
+            if (!spillDir.isEmpty()) {
+                long spillBytes = props.getPropertyAsIntWithDefault("MIO.Queue.SpillMaxMB", 0) * 1024L * 1024L;
+                dataQueue.enableSpill(Paths.get(spillDir), spillBytes);
+                System.out.println("✓ DataQueue con nivel en disco: " + spillDir +
+                    (spillBytes > 0 ? " (máx. " + spillBytes / (1024 * 1024) + " MB)" : " (sin límite)"));
+            }
+            
+            int particiones = Math.max(1, props.getPropertyAsIntWithDefault("MIO.Lote.Partitions", DEFAULT_PARTITIONS));
+            CCOController ccoController = null;
+            MemoryBatcher memoryBatcher = null;
+            LoteProducer loteProducer;
+            DatagramSink sink;
+            if (ingestMode == IngestMode.FILE) {
+                ccoController = segmentedLog != null
+                    ? new CCOController(segmentedLog, dataQueue, batchSize)
+                    : new CCOController(dataFile, dataQueue, batchSize);
+                // Despertar al CCOController cuando el repositorio escribe, en vez de sondear
+                ccoController.setAppendSignal(repository.getAppendSignal());
+                ccoController.setParticiones(particiones);
+                if (props.getPropertyAsInt("MIO.Forward.Raw") > 0) {
+                    ccoController.setRawForwarding(true);
+                    System.out.println("✓ Reenvío crudo: los Workers parsean los registros del log");
+                }
+                loteProducer = ccoController;
+                sink = repository;
+            } else {
+                memoryBatcher = new MemoryBatcher(dataQueue, batchSize, repository, particiones);
+                loteProducer = memoryBatcher;
+                sink = memoryBatcher;
+            }
             
             // Crear e instalar DataReceiver
-            DataReceiverImpl receiver = new DataReceiverImpl(repository);
+            DataReceiverImpl receiver = new DataReceiverImpl(sink);
             dataReceiverAdapter.add(receiver, Util.stringToIdentity("DataReceiver"));
             dataReceiverAdapter.activate();
             System.out.println("✓ DataReceiver activo en: " + dataReceiverEndpoint);
             
-            // ============================================================
-            // DATAQUEUE + CCOCONTROLLER (Producer)
-            // ============================================================
-            DataQueue dataQueue = new DataQueue(DEFAULT_QUEUE_CAPACITY);
-            System.out.println("✓ DataQueue creada (capacidad: " + DEFAULT_QUEUE_CAPACITY + " lotes)");
-            
-            CCOController ccoController = new CCOController(dataFile, dataQueue, batchSize);
-            ccoThread = new Thread(ccoController, "CCOController-Thread");
-            ccoThread.start();
-            System.out.println("✓ CCOController iniciado (batch: " + batchSize + ")");
+            if (ccoController != null) {
+                ccoThread = new Thread(ccoController, "CCOController-Thread");
+                ccoThread.start();
+                System.out.println("✓ CCOController iniciado (batch: " + batchSize + ", particiones: " + particiones + ")");
+            } else {
+                System.out.println("✓ MemoryBatcher iniciado (batch: " + batchSize + ", particiones: " + particiones +
+                    ", modo: " + ingestMode + ")");
+            }
             
             // ============================================================
             // ADAPTER 2: MasterService (Workers solicitan lotes aquí)
@@ -102,7 +211,8 @@ public class ServerApp {
             System.out.println("✓ Aggregator creado");
 
             // Crear Master (Consumer de DataQueue, despacha a Workers)
-            master = new MasterImpl(dataQueue, aggregator);
+            long leaseMs = props.getPropertyAsIntWithDefault("MIO.Worker.LeaseMs", (int) MasterImpl.DEFAULT_LEASE_MS);
+            master = new MasterImpl(dataQueue, aggregator, particiones, leaseMs);
             masterAdapter.add(master, Util.stringToIdentity("MasterService"));
             masterAdapter.activate();
             System.out.println("✓ MasterService activo en: " + masterEndpoint);
@@ -110,7 +220,7 @@ public class ServerApp {
             // Configurar y arrancar ExperimentLogger si está habilitado
             final ExperimentLogger expLogger = experimentLogger;
             if (expLogger != null) {
-                expLogger.setComponents(receiver, ccoController, master, aggregator);
+                expLogger.setComponents(receiver, loteProducer, master, aggregator);
                 expLogger.start();
             }            // ============================================================
             // ADAPTER 3: GraphQueryService (Clientes consultan aquí)
@@ -134,7 +244,11 @@ public class ServerApp {
             System.out.println("║                    SISTEMA ACTIVO                            ║");
             System.out.println("╠══════════════════════════════════════════════════════════════╣");
             System.out.println("║  DataReceiver     → Esperando datagramas de buses            ║");
-            System.out.println("║  CCOController    → Leyendo archivo y encolando lotes        ║");
+            if (ccoController != null) {
+                System.out.println("║  CCOController    → Leyendo archivo y encolando lotes        ║");
+            } else {
+                System.out.println("║  MemoryBatcher    → Agrupando en memoria y encolando lotes   ║");
+            }
             System.out.println("║  MasterService    → Esperando conexiones de Workers          ║");
             System.out.println("║  Aggregator       → Listo para combinar resultados           ║");
             System.out.println("║  GraphQueryService→ Esperando consultas de clientes          ║");
@@ -145,7 +259,9 @@ public class ServerApp {
             
             // Capturar referencia final para usar en lambda
             final MasterImpl masterRef = master;
-            final CCOController ccoRef = ccoController;
+            final LoteProducer producerRef = loteProducer;
+            final String producerName = ccoController != null ? "CCOController" : "MemoryBatcher";
+            final DatagramRepository repositoryRef = repository;
             
             // Hilo para mostrar estadísticas periódicamente
             Thread statsThread = new Thread(() -> {
@@ -159,16 +275,39 @@ public class ServerApp {
                         System.out.printf("║  DataReceiver  → Recibidos: %-6d | Rechazados: %-6d      ║\n",
                             receiver.getReceivedCount(),
                             receiver.getRejectedCount());
-                        System.out.printf("║  Archivo       → Total registros: %-6d                     ║\n",
-                            repository.countInFile());
-                        System.out.printf("║  CCOController → Procesados: %-6d | Lotes: %-6d          ║\n",
-                            ccoRef.getTotalProcessed(),
-                            ccoRef.getTotalBatches());
-                        System.out.printf("║  DataQueue     → Lotes pendientes: %-6d                    ║\n",
-                            dataQueue.size());
+                        if (repositoryRef != null) {
+                            System.out.printf("║  Archivo       → Total registros: %-6d                     ║\n",
+                                repositoryRef.countInFile());
+                        }
+                        SegmentedLog segLog = repositoryRef != null ? repositoryRef.getSegmentedLog() : null;
+                        if (segLog != null) {
+                            System.out.printf("║  Segmentos     → Activos: %-4d | Eliminados: %-4d | %-5d MB  ║\n",
+                                segLog.getSegmentCount(),
+                                segLog.getDeletedSegments(),
+                                segLog.getSizeBytes() / (1024 * 1024));
+                        }
+                        System.out.printf("║  %-13s → Procesados: %-6d | Lotes: %-6d          ║\n",
+                            producerName,
+                            producerRef.getTotalProcessed(),
+                            producerRef.getTotalBatches());
+                        System.out.printf("║  DataQueue     → Lotes: %-4d | Datagramas: %-8d | %3.0f%%   ║\n",
+                            dataQueue.size(),
+                            dataQueue.getRecordCount(),
+                            dataQueue.getFillRatio() * 100);
+                        System.out.printf("║                  Pico: %-8d | Esperas productor: %-6d  ║\n",
+                            dataQueue.getPeakRecords(),
+                            dataQueue.getProducerWaits());
+                        System.out.printf("║                  En memoria: %-5d | En disco: %-5d (%-4d MB) ║\n",
+                            dataQueue.getMemoryLotes(),
+                            dataQueue.getDiskLotes(),
+                            dataQueue.getDiskBytes() / (1024 * 1024));
                         System.out.printf("║  Master        → Workers: %-3d | Lotes enviados: %-6d      ║\n",
                             masterRef.getWorkerCount(),
                             masterRef.getLotesDespachados());
+                        System.out.printf("║  Particiones   → Workers: %-3d | Guardados: %-3d | Traspasos: %-3d║\n",
+                            masterRef.getAsignador().getWorkersActivos(),
+                            masterRef.getAsignador().getGuardados(),
+                            masterRef.getAsignador().getTraspasos());
                         System.out.printf("║  Aggregator    → Arcos procesados: %-6d                    ║\n",
                             aggregator.getArcoCount());
                         System.out.println("╚══════════════════════════════════════════════════════════════╝");
@@ -183,8 +322,18 @@ public class ServerApp {
             // Mantener servidor activo
             communicator.waitForShutdown();
 
-            // Detener componentes
-            ccoController.stop();
+            // Detener componentes (persistir lo que quede en el buffer de ingesta)
+            receiver.shutdown();
+            master.stop();
+            if (memoryBatcher != null) {
+                memoryBatcher.close();
+            }
+            if (repository != null) {
+                repository.close();
+            }
+            if (ccoController != null) {
+                ccoController.stop();
+            }
             
             // Finalizar experimento y guardar métricas
             if (expLogger != null) {
@@ -212,6 +361,11 @@ public class ServerApp {
                     Thread.currentThread().interrupt();
                 }
             }
+            
+            // Borrar los lotes que quedaron en disco (no son durables)
+            if (queueRef != null) {
+                queueRef.close();
+            }
         }
     }
 }
@@ -0,0 +1,299 @@
+package com.mio.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Nivel en disco de DataQueue: los lotes que no caben en memoria se escriben
+ * en archivos "spill-<n>.bin" de tamaño acotado, se leen en el mismo orden y
+ * cada archivo se borra al consumirse por completo.
+ *
+ * Cada entrada guarda el lote en la misma forma compacta que en memoria:
+ * <pre>
+ *   byte  formato (0 = registros crudos, 1 = LoteCodec)
+ *   int   cantidad de datagramas
+ *   int   bytes del lote
+ *   int   partición de bus (-1 = sin partición)
+ *   [formato 0] int entradas del diccionario, y por cada una short largo + UTF-8
+ *   bytes del lote
+ * </pre>
+ *
+ * No es durable: al abrirse descarta lo que haya quedado de una ejecución
+ * anterior (la fuente de verdad es el archivo de datagramas). No es
+ * thread-safe; DataQueue lo usa bajo su lock.
+ */
+public class SpillLog implements AutoCloseable {
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".bin";
+    private static final int HEADER_SIZE = 13;
+    
+    /**
+     * Archivo de spill con sus entradas escritas y leídas.
+     */
+    private static final class Segmento {
+        final Path path;
+        final FileChannel channel;
+        int escritas;
+        int leidas;
+        long bytes;
+        long posLectura;
+        
+        Segmento(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+    
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final ArrayDeque<Segmento> segmentos;
+    private final ByteBuffer header;
+    private ByteBuffer lectura;
+    
+    private long siguienteSegmento;
+    private int lotes;
+    private long bytes;
+    private long totalEscritos;
+    
+    /**
+     * @param segmentBytes tamaño a partir del cual se abre un archivo nuevo
+     * @param maxBytes tamaño máximo en disco (0 = sin límite)
+     */
+    public SpillLog(Path directory, long segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.segmentos = new ArrayDeque<>();
+        this.header = ByteBuffer.allocate(HEADER_SIZE);
+        this.lectura = ByteBuffer.allocate(64 * 1024);
+        
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    /**
+     * Agrega un lote al final del nivel en disco.
+     * @return false si no cabe en el tamaño máximo configurado
+     */
+    public boolean write(LotePreparado lote) throws IOException {
+        String[] diccionario = lote.isCrudo() ? lote.getDiccionario() : null;
+        int largoDiccionario = 0;
+        byte[][] textos = null;
+        if (diccionario != null) {
+            textos = new byte[diccionario.length][];
+            largoDiccionario = 4;
+            for (int i = 0; i < diccionario.length; i++) {
+                textos[i] = diccionario[i].getBytes(StandardCharsets.UTF_8);
+                largoDiccionario += 2 + textos[i].length;
+            }
+        }
+        long largo = HEADER_SIZE + largoDiccionario + lote.getBytes();
+        if (maxBytes > 0 && bytes > 0 && bytes + largo > maxBytes) {
+            return false;
+        }
+        
+        Segmento s = segmentos.peekLast();
+        if (s == null || s.bytes >= segmentBytes) {
+            s = abrirSegmento();
+        }
+        
+        // Si la escritura falla a medias, la entrada parcial se descarta para
+        // que la siguiente quede alineada
+        long inicio = s.bytes;
+        try {
+            header.clear();
+            header.put((byte) (diccionario != null ? 0 : 1));
+            header.putInt(lote.size());
+            header.putInt(lote.getBytes());
+            header.putInt(lote.getParticion());
+            header.flip();
+            escribir(s, header);
+            if (diccionario != null) {
+                ByteBuffer dic = ByteBuffer.allocate(largoDiccionario);
+                dic.putInt(textos.length);
+                for (byte[] texto : textos) {
+                    dic.putShort((short) texto.length);
+                    dic.put(texto);
+                }
+                dic.flip();
+                escribir(s, dic);
+            }
+            escribir(s, lote.contenido());
+        } catch (IOException e) {
+            s.bytes = inicio;
+            try {
+                s.channel.truncate(inicio);
+            } catch (IOException t) {
+                e.addSuppressed(t);
+            }
+            throw e;
+        }
+        
+        s.escritas++;
+        lotes++;
+        bytes += largo;
+        totalEscritos++;
+        return true;
+    }
+    
+    private void escribir(Segmento s, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            s.bytes += s.channel.write(buf, s.bytes);
+        }
+    }
+    
+    private Segmento abrirSegmento() throws IOException {
+        Path path = directory.resolve(String.format("%s%06d%s", PREFIX, siguienteSegmento++, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segmento s = new Segmento(path, channel);
+        segmentos.addLast(s);
+        return s;
+    }
+    
+    /**
+     * Carga en el contenedor el lote más antiguo del nivel en disco.
+     * @return false si no hay lotes en disco
+     */
+    public boolean read(LotePreparado destino) throws IOException {
+        Segmento s = segmentos.peekFirst();
+        if (s == null || s.leidas == s.escritas) {
+            return false;
+        }
+        
+        header.clear();
+        leer(s, header);
+        header.flip();
+        int formato = header.get();
+        int cantidad = header.getInt();
+        int largoLote = header.getInt();
+        int particion = header.getInt();
+        long largo = HEADER_SIZE + largoLote;
+        
+        String[] diccionario = null;
+        if (formato == 0) {
+            ByteBuffer n = ByteBuffer.allocate(4);
+            leer(s, n);
+            diccionario = new String[n.getInt(0)];
+            ByteBuffer corto = ByteBuffer.allocate(2);
+            for (int i = 0; i < diccionario.length; i++) {
+                corto.clear();
+                leer(s, corto);
+                ByteBuffer texto = ByteBuffer.allocate(corto.getShort(0) & 0xFFFF);
+                leer(s, texto);
+                diccionario[i] = new String(texto.array(), StandardCharsets.UTF_8);
+                largo += 2 + texto.capacity();
+            }
+            largo += 4;
+        }
+        
+        if (lectura.capacity() < largoLote) {
+            lectura = ByteBuffer.allocate(Math.max(largoLote, lectura.capacity() * 2));
+        }
+        lectura.clear().limit(largoLote);
+        leer(s, lectura);
+        lectura.flip();
+        if (formato == 0) {
+            // El contenedor conserva una vista: necesita su propia copia
+            ByteBuffer registros = ByteBuffer.allocate(largoLote);
+            registros.put(lectura).flip();
+            destino.crudo(registros, diccionario);
+        } else {
+            destino.cargarCodificado(lectura, cantidad, particion);
+        }
+        
+        s.leidas++;
+        lotes--;
+        bytes -= largo;
+        if (s.leidas == s.escritas) {
+            // Consumido: se borra, y si era el activo el próximo lote abre uno nuevo
+            segmentos.pollFirst();
+            cerrar(s);
+        }
+        return true;
+    }
+    
+    /**
+     * Datagramas del lote más antiguo en disco, sin consumirlo.
+     * @return -1 si no hay lotes en disco
+     */
+    public int peekCantidad() throws IOException {
+        Segmento s = segmentos.peekFirst();
+        if (s == null || s.leidas == s.escritas) {
+            return -1;
+        }
+        long posicion = s.posLectura;
+        header.clear();
+        leer(s, header);
+        s.posLectura = posicion;
+        return header.getInt(1);
+    }
+    
+    private void leer(Segmento s, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = s.channel.read(buf, s.posLectura);
+            if (n < 0) {
+                throw new IOException("Fin inesperado de " + s.path);
+            }
+            s.posLectura += n;
+        }
+    }
+    
+    private void cerrar(Segmento s) throws IOException {
+        s.channel.close();
+        Files.deleteIfExists(s.path);
+    }
+    
+    public boolean isEmpty() {
+        return lotes == 0;
+    }
+    
+    /**
+     * Lotes en disco.
+     */
+    public int getLotes() {
+        return lotes;
+    }
+    
+    /**
+     * Bytes de los lotes en disco.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Lotes escritos a disco desde que se abrió.
+     */
+    public long getTotalEscritos() {
+        return totalEscritos;
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Cierra y borra los archivos (el contenido no se conserva).
+     */
+    @Override
+    public void close() throws IOException {
+        while (!segmentos.isEmpty()) {
+            cerrar(segmentos.pollFirst());
+        }
+        lotes = 0;
+        bytes = 0;
+    }
+}
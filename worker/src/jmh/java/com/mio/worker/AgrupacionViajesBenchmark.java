@@ -0,0 +1,126 @@
+package com.mio.worker;
+
+import MIO.LoteColumnar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara la agrupación de un lote de 10K datagramas por viaje y el
+ * recorrido de sus pares de paradas consecutivas: la implementación anterior
+ * de ChunkProcessor (HashMap de listas con clave String y sort con
+ * comparador) contra OrdenViajes (radix sort sobre columnas primitivas y una
+ * sola pasada).
+ *
+ * Ejecutar con: gradlew :worker:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AgrupacionViajesBenchmark {
+    private static final int DATAGRAMAS = 10_000;
+    private static final int BUSES = 1_000;
+
+    private LoteColumnar lote;
+    private OrdenViajes viajes;
+
+    @Setup
+    public void setup() {
+        // Lote sintético: cada bus en un viaje, los datagramas llegan casi
+        // en orden de fecha y avanzan de parada cada tanto
+        Random random = new Random(42);
+        lote = new LoteColumnar();
+        lote.busId = new int[DATAGRAMAS];
+        lote.tripId = new int[DATAGRAMAS];
+        lote.lineId = new int[DATAGRAMAS];
+        lote.stopId = new int[DATAGRAMAS];
+        lote.datagramEpoch = new long[DATAGRAMAS];
+        int[] parada = new int[BUSES];
+        long inicio = 1_556_668_800L;
+        for (int i = 0; i < DATAGRAMAS; i++) {
+            int bus = random.nextInt(BUSES);
+            if (random.nextInt(3) == 0) {
+                parada[bus]++;
+            }
+            lote.busId[i] = 500_000 + bus;
+            lote.tripId[i] = 10_000 + bus * 7;
+            lote.lineId[i] = 100 + bus % 150;
+            lote.stopId[i] = 1_000 + parada[bus];
+            lote.datagramEpoch[i] = inicio + i / 4 + random.nextInt(30);
+        }
+        viajes = new OrdenViajes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATAGRAMAS)
+    public long mapaDeListas() {
+        int[] tripId = lote.tripId;
+        int[] lineId = lote.lineId;
+        int[] stopId = lote.stopId;
+        int[] busId = lote.busId;
+        long[] datagramEpoch = lote.datagramEpoch;
+
+        Map<String, List<Integer>> porViaje = new HashMap<>();
+        for (int i = 0; i < DATAGRAMAS; i++) {
+            if (tripId[i] > 0 && lineId[i] > 0 && stopId[i] > 0) {
+                String key = busId[i] + "-" + tripId[i] + "-" + lineId[i];
+                porViaje.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        long pares = 0;
+        for (List<Integer> viaje : porViaje.values()) {
+            viaje.sort((a, b) -> Long.compare(datagramEpoch[a], datagramEpoch[b]));
+            for (int i = 1; i < viaje.size(); i++) {
+                int prev = viaje.get(i - 1);
+                int curr = viaje.get(i);
+                if (stopId[prev] != stopId[curr]) {
+                    pares += prev ^ curr;
+                }
+            }
+        }
+        return pares;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATAGRAMAS)
+    public long ordenRadix() {
+        int[] tripId = lote.tripId;
+        int[] lineId = lote.lineId;
+        int[] stopId = lote.stopId;
+        int[] busId = lote.busId;
+        long[] datagramEpoch = lote.datagramEpoch;
+
+        viajes.preparar(DATAGRAMAS);
+        for (int i = 0; i < DATAGRAMAS; i++) {
+            if (tripId[i] > 0 && lineId[i] > 0 && stopId[i] > 0) {
+                viajes.agregar(busId[i], tripId[i], lineId[i], datagramEpoch[i], i);
+            }
+        }
+        viajes.ordenar();
+
+        long pares = 0;
+        for (int k = 1; k < viajes.size(); k++) {
+            if (viajes.mismoViaje(k - 1, k)) {
+                int prev = viajes.getPosicion(k - 1);
+                int curr = viajes.getPosicion(k);
+                if (stopId[prev] != stopId[curr]) {
+                    pares += prev ^ curr;
+                }
+            }
+        }
+        return pares;
+    }
+}
@@ -0,0 +1,269 @@
+package com.mio.worker;
+
+import MIO.EstadoBus;
+import MIO.LoteColumnar;
+import com.mio.model.MutableDatagram;
+import com.mio.util.LoteColumnarBuilder;
+
+import java.util.Arrays;
+
+/**
+ * EstadoBuses - Último datagrama de cada bus entre lotes (estado de frontera).
+ *
+ * Con él LoteProcessor cuenta el arco entre el final de un viaje en un lote
+ * y su continuación en el siguiente. Es una tabla de direccionamiento abierto
+ * indexada por busId sobre arreglos primitivos (sin un objeto por bus).
+ *
+ * Una entrada vence (TTL) cuando su datagrama es más antiguo que el más
+ * reciente visto menos ttlSegundos, en tiempo de los datos: un viaje no
+ * continúa después de una pausa tan larga.
+ *
+ * No es thread-safe: los hilos de LoteProcessor solo lo leen mientras
+ * procesan un lote y se actualiza entre lotes.
+ */
+public class EstadoBuses {
+    private static final int VACIO = Integer.MIN_VALUE;
+    private static final int BORRADO = Integer.MIN_VALUE + 1;
+    private static final int CAPACIDAD_INICIAL = 1024;
+
+    private final long ttlSegundos;
+    private int[] claves;
+    private int[] tripId;
+    private int[] lineId;
+    private int[] stopId;
+    private double[] odometer;
+    private double[] latitude;
+    private double[] longitude;
+    private long[] epoch;
+    // Marca de exportación por posición (ver exportar)
+    private int[] marca;
+    private int generacion;
+    private int cantidad;
+    private long epochMaximo = MutableDatagram.NO_DATE;
+
+    public EstadoBuses(long ttlSegundos) {
+        this.ttlSegundos = ttlSegundos;
+        reservar(CAPACIDAD_INICIAL);
+    }
+
+    private void reservar(int capacidad) {
+        claves = new int[capacidad];
+        Arrays.fill(claves, VACIO);
+        tripId = new int[capacidad];
+        lineId = new int[capacidad];
+        stopId = new int[capacidad];
+        odometer = new double[capacidad];
+        latitude = new double[capacidad];
+        longitude = new double[capacidad];
+        epoch = new long[capacidad];
+        marca = new int[capacidad];
+        cantidad = 0;
+    }
+
+    private static int mezclar(int busId) {
+        int h = busId * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Posición del bus en la tabla, o -1 si no tiene estado.
+     */
+    public int buscar(int busId) {
+        int mascara = claves.length - 1;
+        for (int i = mezclar(busId) & mascara; ; i = (i + 1) & mascara) {
+            int clave = claves[i];
+            if (clave == busId) {
+                return i;
+            }
+            if (clave == VACIO) {
+                return -1;
+            }
+        }
+    }
+
+    public int getTripId(int pos) {
+        return tripId[pos];
+    }
+
+    public int getLineId(int pos) {
+        return lineId[pos];
+    }
+
+    public int getStopId(int pos) {
+        return stopId[pos];
+    }
+
+    public double getOdometer(int pos) {
+        return odometer[pos];
+    }
+
+    public double getLatitude(int pos) {
+        return latitude[pos];
+    }
+
+    public double getLongitude(int pos) {
+        return longitude[pos];
+    }
+
+    public long getEpoch(int pos) {
+        return epoch[pos];
+    }
+
+    /**
+     * Guarda el datagrama como estado del bus si es al menos tan reciente
+     * como el que tenía.
+     */
+    public void actualizar(int busId, int trip, int line, int stop,
+                           double odo, double lat, double lon, long fecha) {
+        if (fecha == MutableDatagram.NO_DATE || busId == VACIO || busId == BORRADO) {
+            return;
+        }
+        int pos = buscar(busId);
+        if (pos < 0) {
+            if ((cantidad + 1) * 2 > claves.length) {
+                reconstruir(claves.length * 2);
+            }
+            pos = insertar(busId);
+        } else if (epoch[pos] > fecha) {
+            return;
+        }
+        tripId[pos] = trip;
+        lineId[pos] = line;
+        stopId[pos] = stop;
+        odometer[pos] = odo;
+        latitude[pos] = lat;
+        longitude[pos] = lon;
+        epoch[pos] = fecha;
+        epochMaximo = Math.max(epochMaximo, fecha);
+    }
+
+    /**
+     * Guarda el último datagrama válido (con viaje, línea y parada) de cada
+     * bus del lote.
+     */
+    public void actualizar(LoteColumnar lote) {
+        int n = LoteColumnarBuilder.size(lote);
+        for (int i = 0; i < n; i++) {
+            if (lote.tripId[i] > 0 && lote.lineId[i] > 0 && lote.stopId[i] > 0) {
+                actualizar(lote.busId[i], lote.tripId[i], lote.lineId[i], lote.stopId[i],
+                    lote.odometer[i], lote.latitude[i], lote.longitude[i], lote.datagramEpoch[i]);
+            }
+        }
+    }
+
+    /**
+     * Elimina las entradas vencidas por TTL.
+     */
+    public void expirar() {
+        if (epochMaximo == MutableDatagram.NO_DATE) {
+            return;
+        }
+        long limite = epochMaximo - ttlSegundos;
+        boolean borrados = false;
+        for (int i = 0; i < claves.length; i++) {
+            if (claves[i] != VACIO && epoch[i] < limite) {
+                claves[i] = BORRADO;
+                borrados = true;
+            }
+        }
+        if (borrados) {
+            reconstruir(claves.length);
+        }
+    }
+
+    /**
+     * Traspaso de una partición desde otro Worker: descarta el estado propio
+     * de sus buses (puede estar desactualizado) y carga el recibido.
+     */
+    public void traspasar(int particion, int particiones, EstadoBus[] estado) {
+        boolean borrados = false;
+        for (int i = 0; i < claves.length; i++) {
+            if (claves[i] != VACIO && LoteColumnarBuilder.particion(claves[i], particiones) == particion) {
+                claves[i] = BORRADO;
+                borrados = true;
+            }
+        }
+        if (borrados) {
+            reconstruir(claves.length);
+        }
+        if (estado == null) {
+            return;
+        }
+        long limite = epochMaximo == MutableDatagram.NO_DATE ? Long.MIN_VALUE : epochMaximo - ttlSegundos;
+        for (EstadoBus bus : estado) {
+            if (bus.datagramEpoch >= limite) {
+                actualizar(bus.busId, bus.tripId, bus.lineId, bus.stopId,
+                    bus.odometer, bus.latitude, bus.longitude, bus.datagramEpoch);
+            }
+        }
+    }
+
+    /**
+     * Estado actual de cada bus distinto del lote (para enviarlo al Master).
+     */
+    public EstadoBus[] exportar(LoteColumnar lote) {
+        if (++generacion == 0) {
+            Arrays.fill(marca, 0);
+            generacion = 1;
+        }
+        int n = LoteColumnarBuilder.size(lote);
+        EstadoBus[] estado = new EstadoBus[Math.min(n, cantidad)];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            int pos = buscar(lote.busId[i]);
+            if (pos >= 0 && marca[pos] != generacion) {
+                marca[pos] = generacion;
+                estado[total++] = new EstadoBus(claves[pos], tripId[pos], lineId[pos], stopId[pos],
+                    odometer[pos], latitude[pos], longitude[pos], epoch[pos]);
+            }
+        }
+        return total == estado.length ? estado : Arrays.copyOf(estado, total);
+    }
+
+    /**
+     * Buses con estado.
+     */
+    public int size() {
+        return cantidad;
+    }
+
+    private int insertar(int busId) {
+        int mascara = claves.length - 1;
+        int i = mezclar(busId) & mascara;
+        while (claves[i] != VACIO) {
+            i = (i + 1) & mascara;
+        }
+        claves[i] = busId;
+        cantidad++;
+        return i;
+    }
+
+    /**
+     * Vuelve a ubicar las entradas vigentes (sin las BORRADO) en una tabla
+     * de la capacidad dada.
+     */
+    private void reconstruir(int capacidad) {
+        int[] viejasClaves = claves;
+        int[] viejoTrip = tripId;
+        int[] viejaLinea = lineId;
+        int[] viejaParada = stopId;
+        double[] viejoOdometro = odometer;
+        double[] viejaLatitud = latitude;
+        double[] viejaLongitud = longitude;
+        long[] viejaFecha = epoch;
+        reservar(capacidad);
+        for (int i = 0; i < viejasClaves.length; i++) {
+            int clave = viejasClaves[i];
+            if (clave != VACIO && clave != BORRADO) {
+                int pos = insertar(clave);
+                tripId[pos] = viejoTrip[i];
+                lineId[pos] = viejaLinea[i];
+                stopId[pos] = viejaParada[i];
+                odometer[pos] = viejoOdometro[i];
+                latitude[pos] = viejaLatitud[i];
+                longitude[pos] = viejaLongitud[i];
+                epoch[pos] = viejaFecha[i];
+            }
+        }
+    }
+}
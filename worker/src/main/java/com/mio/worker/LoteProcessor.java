@@ -1,29 +1,75 @@
 package com.mio.worker;
 
 import MIO.*;
+import com.mio.model.MutableDatagram;
+import com.mio.util.LoteColumnarBuilder;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.*;
 
 /**
- * LoteProcessor - Procesa lotes de datagramas usando un ThreadPool.
+ * LoteProcessor - Procesa lotes de datagramas usando un ThreadPool o, en
+ * modo ForkJoin, un pool de work-stealing.
  * 
- * Divide el lote entre hilos, cada hilo:
+ * Trabaja directamente sobre las columnas de LoteColumnar (sin un objeto
+ * por datagrama). Reparte las posiciones del lote entre hilos por partición
+ * de bus (no por rangos contiguos), así los datagramas de un viaje quedan en
+ * un mismo hilo y no se pierden arcos entre dos hilos. Cada hilo:
  * 1. Mapea Datagram a Arco (lineId + stopId origen → stopId destino)
  * 2. Calcula velocidad instantánea
  * 3. Agrega resultados parciales por arco
+ *
+ * Con un EstadoBuses (lotes asignados de forma estable, ver getLotesAsignados)
+ * también cuenta el arco entre el último datagrama conocido de cada viaje,
+ * de un lote anterior, y su primer datagrama en este lote.
+ *
+ * Los viajes se agrupan ordenando columnas primitivas (OrdenViajes) y los
+ * arcos se acumulan en tablas primitivas (TablaArcos); ambos se reutilizan
+ * entre lotes, uno por tarea, y el arcoId se arma solo al convertir a ICE.
+ * Con el ThreadPool procesa un lote a la vez.
+ *
+ * En modo ForkJoin el lote se reparte en más particiones que hilos y cada
+ * tarea se divide recursivamente hasta GRANO datagramas (una partición
+ * densa se reparte por viaje); los hilos libres roban tareas de los
+ * ocupados, así una partición densa no deja al resto ociosos, y los
+ * resultados se combinan en árbol.
  */
 public class LoteProcessor {
     
+    /** Particiones de bus por hilo en el modo ForkJoin (más que hilos, para repartir mejor). */
+    private static final int PARTICIONES_POR_HILO = 4;
+    /** Datagramas por debajo de los cuales una tarea ForkJoin no se divide. */
+    private static final int GRANO = 1024;
+    
     private final ExecutorService threadPool;
+    // Pool de work-stealing del modo ForkJoin (null = ThreadPool fijo)
+    private final ForkJoinPool forkJoinPool;
     private final int numThreads;
+    // Espacios de trabajo por tarea y buffers, reutilizados entre lotes
+    private final Espacio[] espacios;
+    private final TablaArcos combinados = new TablaArcos();
+    private int[] particion = new int[0];
+    private int[] posiciones = new int[0];
+    // Espacios libres del modo ForkJoin (compartidos por los lotes en curso)
+    private final ConcurrentLinkedQueue<Espacio> espaciosLibres = new ConcurrentLinkedQueue<>();
     
     public LoteProcessor(int numThreads) {
+        this(numThreads, false);
+    }
+    
+    /**
+     * @param numThreads hilos del ThreadPool, o paralelismo del pool ForkJoin
+     * @param forkJoin true = modo ForkJoin: cada lote se divide recursivamente
+     *                 por partición de bus y los resultados se combinan en árbol;
+     *                 admite varios lotes en curso a la vez
+     */
+    public LoteProcessor(int numThreads, boolean forkJoin) {
         this.numThreads = numThreads;
-        this.threadPool = Executors.newFixedThreadPool(numThreads);
+        this.forkJoinPool = forkJoin ? new ForkJoinPool(numThreads) : null;
+        this.threadPool = forkJoin ? forkJoinPool : Executors.newFixedThreadPool(numThreads);
+        this.espacios = new Espacio[numThreads];
     }
     
     /**
@@ -33,75 +79,265 @@ public class LoteProcessor {
      * @param workerId ID del worker para identificar los resultados
      * @return ResultadosParciales con velocidades agregadas por arco
      */
-    public ResultadosParciales procesarLote(LoteDatagram lote, String workerId) {
-        DatagramStruct[] datagramas = lote.datagramas;
-        int total = datagramas.length;
+    public ResultadosParciales procesarLote(LoteColumnar lote, String workerId) {
+        return procesarLote(lote, workerId, null);
+    }
+    
+    /**
+     * Como {@link #procesarLote(LoteColumnar, String)}, contando además los
+     * arcos que cruzan desde lotes anteriores; al terminar, el estado queda
+     * con el último datagrama de cada bus del lote.
+     * 
+     * @param estado último datagrama por bus de los lotes anteriores (null = sin estado)
+     */
+    public ResultadosParciales procesarLote(LoteColumnar lote, String workerId, EstadoBuses estado) {
+        if (forkJoinPool != null) {
+            return procesarForkJoin(lote, workerId, estado);
+        }
+        return procesarConThreadPool(lote, workerId, estado);
+    }
+    
+    private synchronized ResultadosParciales procesarConThreadPool(LoteColumnar lote, String workerId,
+            EstadoBuses estado) {
+        int total = lote.busId.length;
         
-        // Dividir trabajo entre threads
-        int chunkSize = Math.max(1, (total + numThreads - 1) / numThreads);
-        List<Future<Map<String, ArcoAcumulador>>> futures = new ArrayList<>();
+        // Agrupar las posiciones por partición de bus
+        if (particion.length < total) {
+            particion = new int[total];
+            posiciones = new int[total];
+        }
+        int[] inicio = agruparPorParticion(lote.busId, numThreads, particion, posiciones);
         
-        for (int i = 0; i < numThreads && i * chunkSize < total; i++) {
-            int start = i * chunkSize;
-            int end = Math.min(start + chunkSize, total);
-            
-            // Crear tarea para este chunk
-            DatagramStruct[] chunk = new DatagramStruct[end - start];
-            System.arraycopy(datagramas, start, chunk, 0, end - start);
-            
-            futures.add(threadPool.submit(new ChunkProcessor(chunk)));
+        // Una tarea por partición con datagramas (sin copiar las columnas),
+        // cada una con su espacio de trabajo
+        List<Future<TablaArcos>> futures = new ArrayList<>();
+        for (int p = 0; p < numThreads; p++) {
+            if (inicio[p + 1] > inicio[p]) {
+                if (espacios[p] == null) {
+                    espacios[p] = new Espacio();
+                }
+                futures.add(threadPool.submit(
+                    new ChunkProcessor(lote, posiciones, inicio[p], inicio[p + 1], estado, espacios[p])));
+            }
         }
         
         // Combinar resultados de todos los hilos
-        Map<String, ArcoAcumulador> resultadosCombinados = new HashMap<>();
-        
-        for (Future<Map<String, ArcoAcumulador>> future : futures) {
+        combinados.limpiar();
+        for (Future<TablaArcos> future : futures) {
             try {
-                Map<String, ArcoAcumulador> parcial = future.get();
-                
-                // Merge con resultados existentes
-                for (Map.Entry<String, ArcoAcumulador> entry : parcial.entrySet()) {
-                    resultadosCombinados.merge(entry.getKey(), entry.getValue(), 
-                        (a, b) -> {
-                            a.sumaVelocidades += b.sumaVelocidades;
-                            a.conteo += b.conteo;
-                            return a;
-                        });
-                }
+                combinados.sumarTodo(future.get());
             } catch (InterruptedException | ExecutionException e) {
                 System.err.println("[LoteProcessor] Error procesando chunk: " + e.getMessage());
             }
         }
         
+        // Los hilos ya terminaron: el estado pasa al final de este lote
+        if (estado != null) {
+            estado.actualizar(lote);
+            estado.expirar();
+        }
+        
         // Convertir a formato ICE
-        return crearResultadosParciales(lote.loteId, workerId, resultadosCombinados);
+        return crearResultadosParciales(lote.loteId, workerId, combinados);
     }
     
     /**
-     * Convierte los resultados acumulados a formato ICE.
+     * Modo ForkJoin: sin estado compartido entre lotes salvo los espacios
+     * libres, así varios lotes pueden procesarse a la vez (con estado, uno a
+     * la vez por EstadoBuses).
      */
-    private ResultadosParciales crearResultadosParciales(int loteId, String workerId, 
-            Map<String, ArcoAcumulador> acumulados) {
+    private ResultadosParciales procesarForkJoin(LoteColumnar lote, String workerId, EstadoBuses estado) {
+        int total = lote.busId.length;
+        int particiones = forkJoinPool.getParallelism() * PARTICIONES_POR_HILO;
+        int[] posicionesLote = new int[total];
+        int[] inicio = agruparPorParticion(lote.busId, particiones, new int[total], posicionesLote);
         
-        ResultadosParciales resultado = new ResultadosParciales();
-        resultado.loteId = loteId;
-        resultado.workerId = workerId;
-        resultado.resultados = new ArcoResult[acumulados.size()];
+        Espacio espacio = forkJoinPool.invoke(
+            new TareaParticiones(lote, posicionesLote, inicio, 0, particiones, estado, false));
+        try {
+            if (estado != null) {
+                estado.actualizar(lote);
+                estado.expirar();
+            }
+            return crearResultadosParciales(lote.loteId, workerId, espacio.arcos);
+        } finally {
+            espaciosLibres.offer(espacio);
+        }
+    }
+    
+    /**
+     * Ordena las posiciones del lote por partición de bus (conteo + ubicación,
+     * conserva el orden de llegada dentro de cada partición).
+     * 
+     * @return inicio de cada partición en posiciones (particiones + 1 valores)
+     */
+    private static int[] agruparPorParticion(int[] busId, int particiones, int[] particion, int[] posiciones) {
+        int total = busId.length;
+        int[] inicio = new int[particiones + 1];
+        for (int i = 0; i < total; i++) {
+            particion[i] = particionHilo(busId[i], particiones);
+            inicio[particion[i] + 1]++;
+        }
+        for (int p = 0; p < particiones; p++) {
+            inicio[p + 1] += inicio[p];
+        }
+        int[] siguiente = Arrays.copyOf(inicio, particiones);
+        for (int i = 0; i < total; i++) {
+            posiciones[siguiente[particion[i]]++] = i;
+        }
+        return inicio;
+    }
+    
+    /**
+     * Partición de un bus entre las tareas del Worker. Usa una mezcla
+     * independiente de {@link LoteColumnarBuilder#particion}: los buses de un
+     * lote de partición ya comparten ese hash módulo las particiones del
+     * productor y, con el mismo hash, solo algunas tareas recibirían datagramas.
+     */
+    static int particionHilo(int busId, int particiones) {
+        int h = busId ^ 0x7F4A7C15;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        // Bits altos de h * particiones: reparte sin módulo
+        return (int) (((h & 0xFFFFFFFFL) * particiones) >>> 32);
+    }
+    
+    /**
+     * Subpartición de un viaje (bus, viaje, línea) dentro de una partición
+     * densa: los datagramas de un viaje quedan siempre juntos.
+     */
+    static int particionViaje(int busId, int tripId, int lineId, int particiones) {
+        return particionHilo(busId ^ Integer.rotateLeft(tripId * 0x9E3779B1, 11) ^ lineId * 0x85EBCA77,
+            particiones);
+    }
+    
+    private Espacio tomarEspacio() {
+        Espacio espacio = espaciosLibres.poll();
+        return espacio != null ? espacio : new Espacio();
+    }
+    
+    /**
+     * Tarea ForkJoin sobre las particiones [desde, hasta) de un lote: se
+     * divide por la mitad de sus datagramas hasta llegar a GRANO o a una sola
+     * partición, y combina los resultados de sus dos mitades. Una partición
+     * de bus con más de GRANO datagramas se vuelve a repartir por viaje (cada
+     * viaje entero en una subpartición, que ya no se divide).
+     */
+    private class TareaParticiones extends RecursiveTask<Espacio> {
         
-        int i = 0;
-        for (Map.Entry<String, ArcoAcumulador> entry : acumulados.entrySet()) {
-            ArcoResult ar = new ArcoResult();
-            ar.arcoId = entry.getKey();
-            ar.sumaVelocidades = entry.getValue().sumaVelocidades;
-            ar.conteo = entry.getValue().conteo;
-            resultado.resultados[i++] = ar;
+        private final LoteColumnar lote;
+        private final int[] posiciones;
+        private final int[] inicio;
+        private final int desde;
+        private final int hasta;
+        private final EstadoBuses estado;
+        // Particiones por viaje (no se vuelven a repartir)
+        private final boolean porViaje;
+        
+        TareaParticiones(LoteColumnar lote, int[] posiciones, int[] inicio, int desde, int hasta,
+                EstadoBuses estado, boolean porViaje) {
+            this.lote = lote;
+            this.posiciones = posiciones;
+            this.inicio = inicio;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.estado = estado;
+            this.porViaje = porViaje;
+        }
+        
+        @Override
+        protected Espacio compute() {
+            if (hasta - desde == 1 && !porViaje && inicio[hasta] - inicio[desde] > GRANO) {
+                return repartirPorViaje().compute();
+            }
+            if (hasta - desde == 1 || inicio[hasta] - inicio[desde] <= GRANO) {
+                Espacio espacio = tomarEspacio();
+                try {
+                    new ChunkProcessor(lote, posiciones, inicio[desde], inicio[hasta], estado, espacio).call();
+                } catch (RuntimeException e) {
+                    System.err.println("[LoteProcessor] Error procesando chunk: " + e.getMessage());
+                    espacio.arcos.limpiar();
+                }
+                return espacio;
+            }
+            
+            // Partición donde queda la mitad de los datagramas (al menos una por lado)
+            int mitad = (inicio[desde] + inicio[hasta]) >>> 1;
+            int bajo = desde + 1;
+            int alto = hasta - 1;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (inicio[medio] < mitad) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            
+            TareaParticiones izquierda = new TareaParticiones(lote, posiciones, inicio, desde, bajo, estado, porViaje);
+            izquierda.fork();
+            Espacio derecha = new TareaParticiones(lote, posiciones, inicio, bajo, hasta, estado, porViaje).compute();
+            return combinar(izquierda.join(), derecha);
         }
         
+        /**
+         * Reparte los datagramas de la única partición de la tarea en
+         * subparticiones de unos GRANO datagramas por viaje (conteo +
+         * ubicación, conserva el orden de llegada dentro de cada una).
+         */
+        private TareaParticiones repartirPorViaje() {
+            int base = inicio[desde];
+            int total = inicio[hasta] - base;
+            int subparticiones = (total + GRANO - 1) / GRANO;
+            int[] subparticion = new int[total];
+            int[] subinicio = new int[subparticiones + 1];
+            for (int k = 0; k < total; k++) {
+                int i = posiciones[base + k];
+                subparticion[k] = particionViaje(lote.busId[i], lote.tripId[i], lote.lineId[i], subparticiones);
+                subinicio[subparticion[k] + 1]++;
+            }
+            for (int p = 0; p < subparticiones; p++) {
+                subinicio[p + 1] += subinicio[p];
+            }
+            int[] siguiente = Arrays.copyOf(subinicio, subparticiones);
+            int[] subposiciones = new int[total];
+            for (int k = 0; k < total; k++) {
+                subposiciones[siguiente[subparticion[k]]++] = posiciones[base + k];
+            }
+            return new TareaParticiones(lote, subposiciones, subinicio, 0, subparticiones, estado, true);
+        }
+        
+        /**
+         * Suma la tabla menor a la mayor y libera el espacio de la menor.
+         */
+        private Espacio combinar(Espacio a, Espacio b) {
+            if (a.arcos.size() < b.arcos.size()) {
+                Espacio t = a;
+                a = b;
+                b = t;
+            }
+            a.arcos.sumarTodo(b.arcos);
+            espaciosLibres.offer(b);
+            return a;
+        }
+    }
+    
+    /**
+     * Convierte los resultados acumulados a formato ICE.
+     */
+    private ResultadosParciales crearResultadosParciales(int loteId, String workerId, TablaArcos acumulados) {
+        ResultadosParciales resultado = new ResultadosParciales();
+        resultado.loteId = loteId;
+        resultado.workerId = workerId;
+        resultado.resultados = acumulados.toArcoResults();
         return resultado;
     }
     
     /**
-     * Detiene el ThreadPool.
+     * Detiene el ThreadPool (o el pool ForkJoin).
      */
     public void shutdown() {
         threadPool.shutdown();
@@ -116,100 +352,137 @@ public class LoteProcessor {
     }
     
     /**
-     * Clase interna para acumular datos por arco.
+     * Espacio de trabajo de una tarea, reutilizado entre lotes: la tabla de
+     * arcos y el orden de los datagramas por viaje.
      */
-    static class ArcoAcumulador {
-        double sumaVelocidades;
-        int conteo;
-        
-        ArcoAcumulador(double velocidad) {
-            this.sumaVelocidades = velocidad;
-            this.conteo = 1;
-        }
+    static class Espacio {
+        final TablaArcos arcos = new TablaArcos();
+        final OrdenViajes viajes = new OrdenViajes();
     }
     
     /**
-     * Callable que procesa un chunk de datagramas.
+     * Callable que procesa las posiciones posiciones[desde..hasta) de un lote
+     * columnar (todos los datagramas de los buses, o de los viajes, de una
+     * partición).
      */
-    static class ChunkProcessor implements Callable<Map<String, ArcoAcumulador>> {
+    static class ChunkProcessor implements Callable<TablaArcos> {
         
-        private final DatagramStruct[] datagramas;
+        private final LoteColumnar lote;
+        private final int[] posiciones;
+        private final int desde;
+        private final int hasta;
+        private final EstadoBuses estado;
+        private final Espacio espacio;
         
-        ChunkProcessor(DatagramStruct[] datagramas) {
-            this.datagramas = datagramas;
+        ChunkProcessor(LoteColumnar lote, int[] posiciones, int desde, int hasta, EstadoBuses estado,
+                Espacio espacio) {
+            this.lote = lote;
+            this.posiciones = posiciones;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.estado = estado;
+            this.espacio = espacio;
         }
         
         @Override
-        public Map<String, ArcoAcumulador> call() {
-            Map<String, ArcoAcumulador> resultados = new HashMap<>();
+        public TablaArcos call() {
+            TablaArcos resultados = espacio.arcos;
+            OrdenViajes viajes = espacio.viajes;
+            resultados.limpiar();
+            viajes.preparar(hasta - desde);
             
-            // Agrupar datagramas por bus y línea para calcular velocidades entre paradas
-            // Primero ordenamos por tripId (viaje) y fecha para tener secuencia correcta
-            Map<String, List<DatagramStruct>> porViaje = new HashMap<>();
+            // Ordenar los datagramas por bus, viaje, línea y fecha: cada viaje
+            // queda contiguo y en secuencia para calcular velocidades entre paradas
+            int[] tripId = lote.tripId;
+            int[] lineId = lote.lineId;
+            int[] stopId = lote.stopId;
+            int[] busId = lote.busId;
+            long[] datagramEpoch = lote.datagramEpoch;
             
-            for (DatagramStruct d : datagramas) {
-                if (d.tripId > 0 && d.lineId > 0 && d.stopId > 0) {
-                    String key = d.busId + "-" + d.tripId + "-" + d.lineId;
-                    porViaje.computeIfAbsent(key, k -> new ArrayList<>()).add(d);
+            for (int p = desde; p < hasta; p++) {
+                int i = posiciones[p];
+                if (tripId[i] > 0 && lineId[i] > 0 && stopId[i] > 0) {
+                    viajes.agregar(busId[i], tripId[i], lineId[i], datagramEpoch[i], i);
                 }
             }
+            viajes.ordenar();
             
-            // Para cada viaje, calcular velocidades entre paradas consecutivas
-            for (List<DatagramStruct> viaje : porViaje.values()) {
-                if (viaje.size() < 2) continue;
+            // Una pasada: velocidades entre paradas consecutivas de cada viaje
+            int m = viajes.size();
+            for (int k = 0; k < m; k++) {
+                int curr = viajes.getPosicion(k);
                 
-                // Ordenar por fecha del datagrama
-                viaje.sort((a, b) -> a.datagramDate.compareTo(b.datagramDate));
-                
-                // Calcular velocidad entre paradas consecutivas
-                for (int i = 1; i < viaje.size(); i++) {
-                    DatagramStruct prev = viaje.get(i - 1);
-                    DatagramStruct curr = viaje.get(i);
-                    
-                    // Solo si son paradas diferentes
-                    if (prev.stopId != curr.stopId) {
-                        // Calcular velocidad usando odómetro y tiempo
-                        double velocidad = calcularVelocidad(prev, curr);
-                        
-                        if (velocidad > 0 && velocidad < 120) { // Velocidad válida (km/h)
-                            // ID del arco: lineId-stopOrigen-stopDestino
-                            String arcoId = String.format("%d-%d-%d", 
-                                curr.lineId, prev.stopId, curr.stopId);
-                            
-                            resultados.merge(arcoId, 
-                                new ArcoAcumulador(velocidad),
-                                (a, b) -> {
-                                    a.sumaVelocidades += b.sumaVelocidades;
-                                    a.conteo += b.conteo;
-                                    return a;
-                                });
+                if (k == 0 || !viajes.mismoViaje(k - 1, k)) {
+                    // Primer datagrama del viaje: arco desde el último
+                    // datagrama del viaje en lotes anteriores
+                    if (estado != null) {
+                        int pos = estado.buscar(busId[curr]);
+                        if (pos >= 0 && estado.getTripId(pos) == tripId[curr]
+                                && estado.getLineId(pos) == lineId[curr]
+                                && estado.getEpoch(pos) < datagramEpoch[curr]
+                                && estado.getStopId(pos) != stopId[curr]) {
+                            double velocidad = calcularVelocidad(estado.getOdometer(pos), estado.getLatitude(pos),
+                                estado.getLongitude(pos), estado.getEpoch(pos), curr);
+                            acumular(resultados, lineId[curr], estado.getStopId(pos), stopId[curr], velocidad);
                         }
                     }
+                    continue;
+                }
+                
+                int prev = viajes.getPosicion(k - 1);
+                
+                // Solo si son paradas diferentes
+                if (stopId[prev] != stopId[curr]) {
+                    // Calcular velocidad usando odómetro y tiempo
+                    double velocidad = calcularVelocidad(prev, curr);
+                    acumular(resultados, lineId[curr], stopId[prev], stopId[curr], velocidad);
                 }
             }
             
             return resultados;
         }
         
+        /**
+         * Suma la velocidad al arco lineId-stopOrigen-stopDestino si es válida.
+         */
+        private static void acumular(TablaArcos resultados, int linea,
+                int origen, int destino, double velocidad) {
+            if (velocidad > 0 && velocidad < 120) { // Velocidad válida (km/h)
+                resultados.sumar(linea, origen, destino, velocidad, 1);
+            }
+        }
+        
         /**
          * Calcula la velocidad entre dos datagramas consecutivos.
          * Usa odómetro y diferencia de tiempo.
          * 
+         * @param prev posición del datagrama anterior en el lote
+         * @param curr posición del datagrama actual en el lote
          * @return velocidad en km/h
          */
-        private double calcularVelocidad(DatagramStruct prev, DatagramStruct curr) {
+        private double calcularVelocidad(int prev, int curr) {
+            return calcularVelocidad(lote.odometer[prev], lote.latitude[prev], lote.longitude[prev],
+                lote.datagramEpoch[prev], curr);
+        }
+        
+        /**
+         * Como {@link #calcularVelocidad(int, int)}, con el datagrama anterior
+         * dado por sus valores (p. ej. de un lote anterior).
+         */
+        private double calcularVelocidad(double odometroPrev, double latPrev, double lonPrev,
+                long epochPrev, int curr) {
             // Diferencia de odómetro (en metros, convertir a km)
-            double distanciaKm = Math.abs(curr.odometer - prev.odometer) / 1000.0;
+            double distanciaKm = Math.abs(lote.odometer[curr] - odometroPrev) / 1000.0;
             
             // Si la distancia es 0 o muy pequeña, usar distancia euclidiana
             if (distanciaKm < 0.01) {
                 distanciaKm = calcularDistanciaHaversine(
-                    prev.latitude, prev.longitude,
-                    curr.latitude, curr.longitude);
+                    latPrev, lonPrev,
+                    lote.latitude[curr], lote.longitude[curr]);
             }
             
             // Diferencia de tiempo en horas
-            double tiempoHoras = calcularDiferenciaTiempo(prev.datagramDate, curr.datagramDate);
+            double tiempoHoras = calcularDiferenciaTiempo(epochPrev, lote.datagramEpoch[curr]);
             
             if (tiempoHoras <= 0 || distanciaKm <= 0) {
                 return 0;
@@ -219,23 +492,15 @@ public class LoteProcessor {
         }
         
         /**
-         * Calcula la diferencia de tiempo entre dos fechas en formato String.
-         * Formato esperado: "yyyy-MM-dd HH:mm:ss"
+         * Calcula la diferencia de tiempo entre dos fechas en segundos epoch.
          * 
-         * @return diferencia en horas
+         * @return diferencia en horas (0 si alguna fecha falta)
          */
-        private double calcularDiferenciaTiempo(String fecha1, String fecha2) {
-            try {
-                java.time.LocalDateTime dt1 = java.time.LocalDateTime.parse(
-                    fecha1.replace(" ", "T"));
-                java.time.LocalDateTime dt2 = java.time.LocalDateTime.parse(
-                    fecha2.replace(" ", "T"));
-                
-                long segundos = java.time.Duration.between(dt1, dt2).getSeconds();
-                return Math.abs(segundos) / 3600.0;
-            } catch (Exception e) {
+        private double calcularDiferenciaTiempo(long epoch1, long epoch2) {
+            if (epoch1 == MutableDatagram.NO_DATE || epoch2 == MutableDatagram.NO_DATE) {
                 return 0;
             }
+            return Math.abs(epoch2 - epoch1) / 3600.0;
         }
         
         /**
@@ -0,0 +1,155 @@
+package com.mio.worker;
+
+import java.util.Arrays;
+
+/**
+ * OrdenViajes - Agrupa datagramas por viaje ordenándolos, sin mapas.
+ *
+ * Copia (bus, viaje, línea, fecha, posición) de cada datagrama a columnas
+ * primitivas y las ordena por (bus, viaje, línea, fecha) con un radix sort
+ * LSD estable sobre una permutación de índices: cada columna se ordena por
+ * bytes, desde la fecha hasta el bus, y solo se hacen los pasos que el rango
+ * de valores necesita. Con el orden listo, los datagramas de un viaje quedan
+ * contiguos y por fecha (a igual fecha, en el orden en que se agregaron), y
+ * los pares consecutivos se recorren en una sola pasada.
+ *
+ * Las columnas y buffers se reutilizan entre llamadas. No es thread-safe.
+ */
+public class OrdenViajes {
+    private static final int CAPACIDAD_INICIAL = 256;
+
+    private int[] bus = new int[CAPACIDAD_INICIAL];
+    private int[] trip = new int[CAPACIDAD_INICIAL];
+    private int[] linea = new int[CAPACIDAD_INICIAL];
+    private long[] fecha = new long[CAPACIDAD_INICIAL];
+    private int[] posicion = new int[CAPACIDAD_INICIAL];
+    private int cantidad;
+
+    // Permutación ordenada, auxiliar del radix y clave relativa de la columna en curso
+    private int[] orden = new int[CAPACIDAD_INICIAL];
+    private int[] auxiliar = new int[CAPACIDAD_INICIAL];
+    private long[] clave = new long[CAPACIDAD_INICIAL];
+    private final int[] conteo = new int[257];
+
+    /**
+     * Vacía las columnas y reserva lugar para n datagramas.
+     */
+    public void preparar(int n) {
+        cantidad = 0;
+        if (bus.length < n) {
+            bus = new int[n];
+            trip = new int[n];
+            linea = new int[n];
+            fecha = new long[n];
+            posicion = new int[n];
+            orden = new int[n];
+            auxiliar = new int[n];
+            clave = new long[n];
+        }
+    }
+
+    /**
+     * Agrega un datagrama (dentro de la capacidad reservada en preparar).
+     * @param pos posición del datagrama en el lote
+     */
+    public void agregar(int busId, int tripId, int lineId, long epoch, int pos) {
+        bus[cantidad] = busId;
+        trip[cantidad] = tripId;
+        linea[cantidad] = lineId;
+        fecha[cantidad] = epoch;
+        posicion[cantidad] = pos;
+        cantidad++;
+    }
+
+    /**
+     * Ordena por (bus, viaje, línea, fecha).
+     */
+    public void ordenar() {
+        for (int k = 0; k < cantidad; k++) {
+            orden[k] = k;
+        }
+        if (cantidad < 2) {
+            return;
+        }
+        // LSD: de la columna menos significativa a la más significativa
+        ordenarPor(fecha);
+        ordenarPor(linea);
+        ordenarPor(trip);
+        ordenarPor(bus);
+    }
+
+    public int size() {
+        return cantidad;
+    }
+
+    /**
+     * Posición en el lote del k-ésimo datagrama ordenado.
+     */
+    public int getPosicion(int k) {
+        return posicion[orden[k]];
+    }
+
+    /**
+     * Si los datagramas ordenados a y b son del mismo viaje (bus, viaje y línea).
+     */
+    public boolean mismoViaje(int a, int b) {
+        int i = orden[a];
+        int j = orden[b];
+        return bus[i] == bus[j] && trip[i] == trip[j] && linea[i] == linea[j];
+    }
+
+    private void ordenarPor(int[] columna) {
+        int minimo = Integer.MAX_VALUE;
+        int maximo = Integer.MIN_VALUE;
+        for (int k = 0; k < cantidad; k++) {
+            minimo = Math.min(minimo, columna[k]);
+            maximo = Math.max(maximo, columna[k]);
+        }
+        for (int k = 0; k < cantidad; k++) {
+            clave[k] = (long) columna[k] - minimo;
+        }
+        ordenarPorClave((long) maximo - minimo);
+    }
+
+    private void ordenarPor(long[] columna) {
+        long minimo = Long.MAX_VALUE;
+        long maximo = Long.MIN_VALUE;
+        for (int k = 0; k < cantidad; k++) {
+            minimo = Math.min(minimo, columna[k]);
+            maximo = Math.max(maximo, columna[k]);
+        }
+        // Diferencias sin signo: correctas aunque el rango supere Long.MAX_VALUE
+        for (int k = 0; k < cantidad; k++) {
+            clave[k] = columna[k] - minimo;
+        }
+        ordenarPorClave(maximo - minimo);
+    }
+
+    /**
+     * Un paso de counting sort por cada byte que el rango (sin signo) usa,
+     * omitiendo los bytes en que todas las claves coinciden.
+     */
+    private void ordenarPorClave(long rango) {
+        int bytes = (64 - Long.numberOfLeadingZeros(rango) + 7) / 8;
+        for (int b = 0; b < bytes; b++) {
+            int desplazamiento = b * 8;
+            Arrays.fill(conteo, 0);
+            for (int k = 0; k < cantidad; k++) {
+                conteo[((int) (clave[orden[k]] >>> desplazamiento) & 0xFF) + 1]++;
+            }
+            if (conteo[((int) (clave[orden[0]] >>> desplazamiento) & 0xFF) + 1] == cantidad) {
+                continue;
+            }
+            for (int d = 0; d < 256; d++) {
+                conteo[d + 1] += conteo[d];
+            }
+            for (int k = 0; k < cantidad; k++) {
+                int i = orden[k];
+                auxiliar[conteo[(int) (clave[i] >>> desplazamiento) & 0xFF]++] = i;
+            }
+            int[] t = orden;
+            orden = auxiliar;
+            auxiliar = t;
+        }
+    }
+}
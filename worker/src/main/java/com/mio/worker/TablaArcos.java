@@ -0,0 +1,137 @@
+package com.mio.worker;
+
+import MIO.ArcoResult;
+
+/**
+ * TablaArcos - Acumulador de velocidades por arco (suma y conteo) sobre
+ * arreglos primitivos, con direccionamiento abierto.
+ *
+ * La clave de un arco es un long con las paradas empaquetadas
+ * (origen en los 32 bits altos, destino en los bajos) más la línea, así no
+ * se arma un String ni un objeto por observación: el arcoId
+ * "lineId-stopOrigen-stopDestino" se arma una sola vez por arco al convertir
+ * a ArcoResult. Se reutiliza entre lotes ({@link #limpiar()} solo recorre
+ * las posiciones ocupadas).
+ *
+ * No es thread-safe.
+ */
+public class TablaArcos {
+    private static final int CAPACIDAD_INICIAL = 1024;
+
+    private long[] paradas;
+    private int[] linea;
+    private double[] suma;
+    private int[] conteo;
+    // Posiciones ocupadas, en orden de inserción (para limpiar y recorrer)
+    private int[] ocupadas;
+    private int cantidad;
+
+    public TablaArcos() {
+        reservar(CAPACIDAD_INICIAL);
+    }
+
+    private void reservar(int capacidad) {
+        paradas = new long[capacidad];
+        linea = new int[capacidad];
+        suma = new double[capacidad];
+        conteo = new int[capacidad];
+        ocupadas = new int[capacidad / 2];
+        cantidad = 0;
+    }
+
+    static long empaquetar(int origen, int destino) {
+        return ((long) origen << 32) | (destino & 0xFFFFFFFFL);
+    }
+
+    private static int mezclar(long clave, int lineId) {
+        long h = (clave ^ ((long) lineId * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 31));
+    }
+
+    /**
+     * Suma una observación (o varias ya sumadas) al arco.
+     */
+    public void sumar(int lineId, int origen, int destino, double velocidad, int observaciones) {
+        sumarClave(lineId, empaquetar(origen, destino), velocidad, observaciones);
+    }
+
+    private void sumarClave(int lineId, long clave, double velocidad, int observaciones) {
+        int mascara = paradas.length - 1;
+        int i = mezclar(clave, lineId) & mascara;
+        while (conteo[i] != 0) {
+            if (paradas[i] == clave && linea[i] == lineId) {
+                suma[i] += velocidad;
+                conteo[i] += observaciones;
+                return;
+            }
+            i = (i + 1) & mascara;
+        }
+        if ((cantidad + 1) * 2 > paradas.length) {
+            crecer();
+            sumarClave(lineId, clave, velocidad, observaciones);
+            return;
+        }
+        paradas[i] = clave;
+        linea[i] = lineId;
+        suma[i] = velocidad;
+        conteo[i] = observaciones;
+        ocupadas[cantidad++] = i;
+    }
+
+    /**
+     * Suma a esta tabla todos los arcos de otra.
+     */
+    public void sumarTodo(TablaArcos otra) {
+        for (int k = 0; k < otra.cantidad; k++) {
+            int i = otra.ocupadas[k];
+            sumarClave(otra.linea[i], otra.paradas[i], otra.suma[i], otra.conteo[i]);
+        }
+    }
+
+    /**
+     * Vacía la tabla conservando su capacidad.
+     */
+    public void limpiar() {
+        for (int k = 0; k < cantidad; k++) {
+            conteo[ocupadas[k]] = 0;
+        }
+        cantidad = 0;
+    }
+
+    /**
+     * Cantidad de arcos distintos.
+     */
+    public int size() {
+        return cantidad;
+    }
+
+    /**
+     * Arcos en el formato de ICE.
+     */
+    public ArcoResult[] toArcoResults() {
+        ArcoResult[] resultados = new ArcoResult[cantidad];
+        for (int k = 0; k < cantidad; k++) {
+            int i = ocupadas[k];
+            ArcoResult ar = new ArcoResult();
+            ar.arcoId = linea[i] + "-" + (int) (paradas[i] >>> 32) + "-" + (int) paradas[i];
+            ar.sumaVelocidades = suma[i];
+            ar.conteo = conteo[i];
+            resultados[k] = ar;
+        }
+        return resultados;
+    }
+
+    private void crecer() {
+        long[] viejasParadas = paradas;
+        int[] viejaLinea = linea;
+        double[] viejaSuma = suma;
+        int[] viejoConteo = conteo;
+        int[] viejasOcupadas = ocupadas;
+        int viejaCantidad = cantidad;
+        reservar(paradas.length * 2);
+        for (int k = 0; k < viejaCantidad; k++) {
+            int i = viejasOcupadas[k];
+            sumarClave(viejaLinea[i], viejasParadas[i], viejaSuma[i], viejoConteo[i]);
+        }
+    }
+}
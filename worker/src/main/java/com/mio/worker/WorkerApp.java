@@ -2,34 +2,65 @@ package com.mio.worker;
 
 import MIO.*;
 import com.mio.common.util.NetworkConfig;
+import com.mio.util.DatagramBinaryFormat;
+import com.mio.util.DatagramStructs;
+import com.mio.util.LoteCodec;
+import com.mio.util.LoteColumnarBuilder;
 import com.zeroc.Ice.Communicator;
 import com.zeroc.Ice.ObjectPrx;
+import com.zeroc.Ice.OperationNotExistException;
 import com.zeroc.Ice.Util;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * WorkerApp - Aplicación principal del Worker.
  * 
  * Se conecta al MasterService vía ICE, solicita lotes de datagramas,
  * los procesa con un ThreadPool y envía resultados parciales al Master.
+ * Las solicitudes y los envíos son asíncronos: mientras se procesa un lote,
+ * los siguientes (hasta prefetchDepth) ya vienen en camino. Los lotes se
+ * piden con créditos (getLotesAsignados): tantos como espacios libres tenga
+ * el Worker, en una sola invocación.
+ * 
+ * El Master le asigna particiones de bus de forma estable, así el Worker
+ * conserva el último datagrama de cada bus entre lotes (EstadoBuses) y cuenta
+ * los arcos que cruzan de un lote al siguiente.
  * 
  * CONFIGURACIÓN DE RED: Edita config/network.properties para cambiar la IP del Master
  */
 public class WorkerApp {
 
-    private static final int DEFAULT_THREAD_POOL_SIZE = 30;    public static void main(String[] args) {
+    private static final int DEFAULT_THREAD_POOL_SIZE = 30;
+    private static final int DEFAULT_PREFETCH_DEPTH = 2;
+    /** Fracción de Ice.MessageSizeMax que puede ocupar una respuesta de getLotes. */
+    private static final double FRACCION_MENSAJE = 0.9;
+    /** Espera de cada getLoteWait / getLotesAsignados en el Master. */
+    private static final int ESPERA_LOTE_MS = 5000;
+    /** Antigüedad (en tiempo de los datos) tras la cual se descarta el estado de un bus. */
+    private static final long ESTADO_TTL_S = 30 * 60;
+    /** Tiempo sin recibir lotes tras el cual el Worker termina (5 minutos). */
+    private static final long MAX_INACTIVIDAD_MS = 5 * 60 * 1000;
+
+    public static void main(String[] args) {
         // Generar ID único para este worker
         String workerId = "Worker-" + UUID.randomUUID().toString().substring(0, 8);
         
-        // Configuración
-        int threadPoolSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREAD_POOL_SIZE;
+        // Configuración (los argumentos --Propiedad=valor son de ICE)
+        String[] posicionales = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+        int threadPoolSize = posicionales.length > 0 ? Integer.parseInt(posicionales[0]) : DEFAULT_THREAD_POOL_SIZE;
+        int prefetchDepth = posicionales.length > 1 ? Math.max(1, Integer.parseInt(posicionales[1])) : DEFAULT_PREFETCH_DEPTH;
         
         System.out.println("╔══════════════════════════════════════════════════════════════╗");
         System.out.println("║              WORKER MIO - Procesador Distribuido             ║");
         System.out.println("╠══════════════════════════════════════════════════════════════╣");
         System.out.printf("║  Worker ID: %-48s ║\n", workerId);
         System.out.printf("║  ThreadPool Size: %-42d ║\n", threadPoolSize);
+        System.out.printf("║  Prefetch Depth: %-43d ║\n", prefetchDepth);
         System.out.println("╚══════════════════════════════════════════════════════════════╝");
         System.out.println();
         
@@ -65,8 +96,19 @@ public class WorkerApp {
                 System.out.println("⚠ Worker ya estaba registrado");
             }
             
-            // Crear procesador de lotes con ThreadPool
-            LoteProcessor processor = new LoteProcessor(threadPoolSize);
+            // Crear procesador de lotes con ThreadPool, o ForkJoin con MIO.Worker.ForkJoin=1
+            // (paralelismo = threadPoolSize si se indicó, si no los procesadores disponibles)
+            boolean forkJoin = communicator.getProperties().getPropertyAsIntWithDefault("MIO.Worker.ForkJoin", 0) != 0;
+            LoteProcessor processor;
+            if (forkJoin) {
+                int paralelismo = posicionales.length > 0 ? threadPoolSize : Runtime.getRuntime().availableProcessors();
+                processor = new LoteProcessor(paralelismo, true);
+                System.out.println("✓ Procesamiento ForkJoin (paralelismo " + paralelismo + ")");
+            } else {
+                processor = new LoteProcessor(threadPoolSize);
+            }
+            // Último datagrama por bus de las particiones asignadas
+            EstadoBuses estado = new EstadoBuses(ESTADO_TTL_S);
             
             System.out.println("\n--- Iniciando bucle de procesamiento ---\n");
             
@@ -75,14 +117,59 @@ public class WorkerApp {
             long lotesVacios = 0;
             long totalDatagramas = 0;
             long startTime = System.currentTimeMillis();
+            long ultimoLote = startTime;
+            // Formato de lote que soporta el Master (los anteriores no tienen todas las
+            // operaciones): 0 asignados con créditos, 1 varios con créditos, 2 crudo con espera,
+            // 3 crudo, 4 codificado, 5 columnar, 6 epoch, 7 texto
+            int formatoLote = 0;
+            // Datagramas que caben en una respuesta (registros crudos, el formato más grande)
+            int maxDatagramas = (int) (communicator.getProperties().getPropertyAsIntWithDefault("Ice.MessageSizeMax", 1024)
+                * 1024L * FRACCION_MENSAJE / DatagramBinaryFormat.RECORD_SIZE);
+            
+            // Lotes recibidos sin procesar, solicitudes en curso y envíos de resultados sin confirmar
+            ArrayDeque<LoteRecibido> recibidos = new ArrayDeque<>();
+            ArrayDeque<Solicitud> pedidos = new ArrayDeque<>();
+            ArrayDeque<CompletableFuture<Void>> envios = new ArrayDeque<>();
+            int creditosEnCurso = 0;
+            boolean activo = true;
             
-            // Bucle principal: solicitar lotes mientras haya
-            while (true) {
-                // Solicitar lote al Master
-                LoteDatagram lote = master.getLote();
+            // Bucle principal: solicitar lotes mientras haya; al terminar se
+            // procesan los que ya estaban pedidos
+            while (activo || !pedidos.isEmpty() || !recibidos.isEmpty()) {
+                // Pedir tantos lotes como espacios libres haya (créditos)
+                int creditos = prefetchDepth - recibidos.size() - creditosEnCurso;
+                while (activo && creditos > 0) {
+                    Solicitud solicitud = solicitarLotesAsync(master, workerId, formatoLote, creditos, maxDatagramas);
+                    pedidos.addLast(solicitud);
+                    creditosEnCurso += solicitud.creditos;
+                    creditos -= solicitud.creditos;
+                }
                 
-                // Verificar si el lote es válido
-                if (lote.loteId < 0 || lote.datagramas == null || lote.datagramas.length == 0) {
+                if (recibidos.isEmpty()) {
+                    Solicitud solicitud = pedidos.pollFirst();
+                    creditosEnCurso -= solicitud.creditos;
+                    try {
+                        recibir(esperar(solicitud.lotes), recibidos);
+                    } catch (OperationNotExistException e) {
+                        System.out.println("[Worker] El Master no soporta " + e.operation + ", usando un formato anterior");
+                        // Las demás solicitudes en curso usan la misma operación: se esperan
+                        // todas y se procesan los lotes de las que sí respondieron (el Master
+                        // ya los entregó); solo las que fallaron igual se descartan
+                        while (!pedidos.isEmpty()) {
+                            try {
+                                recibir(esperar(pedidos.pollFirst().lotes), recibidos);
+                            } catch (OperationNotExistException ignorada) {
+                                // Sin lotes: se vuelve a pedir con el formato anterior
+                            }
+                        }
+                        creditosEnCurso = 0;
+                        formatoLote++;
+                        continue;
+                    }
+                }
+                
+                // Verificar si llegó algún lote válido
+                if (recibidos.isEmpty()) {
                     lotesVacios++;
 
                     // Esperar antes de reintentar
@@ -90,28 +177,50 @@ public class WorkerApp {
                         System.out.println("[Worker] Cola vacía, esperando más lotes... (intentos vacíos: " + lotesVacios + ")");
                     }
                     
-                    // Solo terminar después de muchos intentos vacíos consecutivos (5 minutos aprox)
-                    if (lotesVacios > 300) {
+                    // Solo terminar después de mucho tiempo sin lotes
+                    if (activo && System.currentTimeMillis() - ultimoLote > MAX_INACTIVIDAD_MS) {
                         System.out.println("\n[Worker] Sin lotes por mucho tiempo. Finalizando...");
-                        break;
+                        activo = false;
                     }
                     
-                    Thread.sleep(1000); // Esperar 1 segundo antes de reintentar
+                    // Con getLotesAsignados, getLotes y getLoteWait la espera ya ocurrió en el Master
+                    if (activo && formatoLote > 2) {
+                        Thread.sleep(1000); // Esperar 1 segundo antes de reintentar
+                    }
                     continue;
                 }
+                LoteRecibido recibido = recibidos.pollFirst();
+                LoteColumnar lote = recibido.lote;
+                int cantidad = LoteColumnarBuilder.size(lote);
                 
                 // Reiniciar contador de lotes vacíos cuando recibimos uno válido
-                lotesVacios = 0;                lotesRecibidos++;
-                totalDatagramas += lote.datagramas.length;
+                ultimoLote = System.currentTimeMillis();
+                lotesVacios = 0;
                 
-                System.out.printf("[Worker] Lote #%d recibido - %d datagramas\n", 
-                    lote.loteId, lote.datagramas.length);
+                lotesRecibidos++;
+                totalDatagramas += cantidad;
                 
-                // Procesar el lote con ThreadPool
-                ResultadosParciales resultados = processor.procesarLote(lote, workerId);
+                System.out.printf("[Worker] Lote #%d recibido - %d datagramas\n", 
+                    lote.loteId, cantidad);
                 
-                // Enviar resultados parciales al Master
-                master.sendResultadosParciales(resultados);
+                // Procesar el lote con ThreadPool y enviar resultados parciales al Master
+                // sin esperar la respuesta (como máximo prefetchDepth envíos sin confirmar)
+                ResultadosParciales resultados;
+                LoteAsignado asignado = recibido.asignado;
+                if (asignado != null && asignado.particion >= 0) {
+                    if (asignado.traspaso) {
+                        estado.traspasar(asignado.particion, asignado.particiones, asignado.estado);
+                    }
+                    resultados = processor.procesarLote(lote, workerId, estado);
+                    envios.addLast(master.sendResultadosAsignadosAsync(
+                        new ResultadosAsignados(resultados, asignado.particion, estado.exportar(lote))));
+                } else {
+                    resultados = processor.procesarLote(lote, workerId);
+                    envios.addLast(master.sendResultadosParcialesAsync(resultados));
+                }
+                while (envios.size() > prefetchDepth) {
+                    esperar(envios.pollFirst());
+                }
                 
                 System.out.printf("[Worker] Lote #%d procesado - %d arcos calculados\n",
                     lote.loteId, resultados.resultados != null ? resultados.resultados.length : 0);
@@ -125,6 +234,11 @@ public class WorkerApp {
                 }
             }
             
+            // Esperar la confirmación de los últimos envíos
+            while (!envios.isEmpty()) {
+                esperar(envios.pollFirst());
+            }
+            
             // Detener el procesador
             processor.shutdown();
             
@@ -153,4 +267,136 @@ public class WorkerApp {
             }
         }
     }
+    
+    /**
+     * Solicitud de lotes en curso y los créditos (lotes) que ocupa.
+     */
+    private static final class Solicitud {
+        final int creditos;
+        final CompletableFuture<LoteRecibido[]> lotes;
+        
+        Solicitud(int creditos, CompletableFuture<LoteRecibido[]> lotes) {
+            this.creditos = creditos;
+            this.lotes = lotes;
+        }
+    }
+    
+    /**
+     * Lote recibido en forma columnar y, si vino de getLotesAsignados, su
+     * asignación (partición y traspaso de estado).
+     */
+    private static final class LoteRecibido {
+        final LoteColumnar lote;
+        final LoteAsignado asignado;
+        
+        LoteRecibido(LoteColumnar lote, LoteAsignado asignado) {
+            this.lote = lote;
+            this.asignado = asignado;
+        }
+    }
+    
+    /**
+     * Pide hasta creditos lotes: con getLotesAsignados en una sola invocación
+     * (que espera en el Master si no hay ninguno); con getLotes igual, y si no
+     * hay ninguno espera uno con getLoteWait; con los formatos anteriores, un
+     * lote por solicitud.
+     */
+    private static Solicitud solicitarLotesAsync(MasterServicePrx master, String workerId, int formatoLote,
+                                                 int creditos, int maxDatagramas) {
+        if (formatoLote == 0) {
+            CompletableFuture<LoteRecibido[]> lotes = master
+                .getLotesAsignadosAsync(workerId, creditos, maxDatagramas, ESPERA_LOTE_MS)
+                .thenApply(asignados -> {
+                    LoteRecibido[] recibidos = new LoteRecibido[asignados.length];
+                    for (int i = 0; i < asignados.length; i++) {
+                        LoteColumnar lote = LoteColumnarBuilder.fromCrudo(asignados[i].lote);
+                        // Los registros ya se decodificaron: no retener su buffer
+                        asignados[i].lote = null;
+                        recibidos[i] = new LoteRecibido(lote, asignados[i]);
+                    }
+                    return recibidos;
+                });
+            return new Solicitud(creditos, lotes);
+        }
+        if (formatoLote > 1) {
+            return new Solicitud(1, solicitarLoteAsync(master, formatoLote - 2)
+                .thenApply(lote -> new LoteRecibido[] { new LoteRecibido(lote, null) }));
+        }
+        CompletableFuture<LoteRecibido[]> lotes = master.getLotesAsync(creditos, maxDatagramas)
+            .thenCompose(crudos -> crudos.length > 0
+                ? CompletableFuture.completedFuture(crudos)
+                : master.getLoteWaitAsync(ESPERA_LOTE_MS).thenApply(crudo -> new LoteCrudo[] { crudo }))
+            .thenApply(crudos -> {
+                LoteRecibido[] recibidos = new LoteRecibido[crudos.length];
+                for (int i = 0; i < crudos.length; i++) {
+                    recibidos[i] = new LoteRecibido(LoteColumnarBuilder.fromCrudo(crudos[i]), null);
+                }
+                return recibidos;
+            });
+        return new Solicitud(creditos, lotes);
+    }
+    
+    /**
+     * Pide el siguiente lote en el formato indicado; al llegar se entrega en
+     * forma columnar (la decodificación ocurre en el hilo de ICE que recibe la
+     * respuesta, en paralelo con el procesamiento del lote actual).
+     */
+    private static CompletableFuture<LoteColumnar> solicitarLoteAsync(MasterServicePrx master, int formatoLote) {
+        switch (formatoLote) {
+            case 0:
+                // Espera en el Master hasta que haya un lote, sin sondear
+                return master.getLoteWaitAsync(ESPERA_LOTE_MS).thenApply(LoteColumnarBuilder::fromCrudo);
+            case 1:
+                // Registros sin parsear: el parseo ocurre aquí y no en el Master
+                return master.getLoteCrudoAsync().thenApply(LoteColumnarBuilder::fromCrudo);
+            case 2:
+                return master.getLoteCodificadoAsync().thenApply(codificado -> {
+                    if (codificado.loteId < 0 || codificado.datos == null || codificado.datos.length == 0) {
+                        return LoteColumnarBuilder.empty();
+                    }
+                    return LoteCodec.decode(codificado.loteId, codificado.datos);
+                });
+            case 3:
+                return master.getLoteColumnarAsync();
+            case 4:
+                return master.getLoteEpochAsync().thenApply(epoch -> LoteColumnarBuilder.fromStructs(epoch.loteId,
+                    epoch.datagramas != null ? epoch.datagramas : new DatagramEpochStruct[0]));
+            default:
+                return master.getLoteAsync().thenApply(texto -> {
+                    int n = texto.datagramas != null ? texto.datagramas.length : 0;
+                    DatagramEpochStruct[] datagramas = new DatagramEpochStruct[n];
+                    for (int i = 0; i < n; i++) {
+                        datagramas[i] = DatagramStructs.toEpochStruct(texto.datagramas[i]);
+                    }
+                    return LoteColumnarBuilder.fromStructs(texto.loteId, datagramas);
+                });
+        }
+    }
+    
+    /**
+     * Agrega a recibidos los lotes válidos (no vacíos) de una respuesta.
+     */
+    private static void recibir(LoteRecibido[] lotes, ArrayDeque<LoteRecibido> recibidos) {
+        for (LoteRecibido recibido : lotes) {
+            if (recibido.lote.loteId >= 0 && LoteColumnarBuilder.size(recibido.lote) > 0) {
+                recibidos.addLast(recibido);
+            }
+        }
+    }
+    
+    /**
+     * Espera el resultado de una invocación asíncrona y relanza su excepción
+     * (las excepciones locales de ICE son RuntimeException).
+     */
+    private static <T> T esperar(CompletableFuture<T> invocacion) throws InterruptedException {
+        try {
+            return invocacion.get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new RuntimeException(causa);
+        }
+    }
 }